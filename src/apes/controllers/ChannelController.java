@@ -9,6 +9,7 @@ import java.awt.event.MouseWheelListener;
 
 import apes.models.InternalFormat;
 import apes.models.Player;
+import apes.models.gain.ConstantEnvelope;
 import apes.views.ChannelView;
 import apes.views.InternalFormatStatusPanel;
 
@@ -61,15 +62,15 @@ public class ChannelController extends ApplicationController implements MouseLis
       // Single click.
       if(e.getClickCount() == 1)
       {
-        int mark = channelView.pixelsToSamples(x);
+        long mark = channelView.pixelsToSamples(x);
 
         player.setAllMarks(mark);
       }
       // Select all if more than one click.
       else
       {
-        int firstVisibleSample = channelView.getCenter() - channelView.getZoom() / 2;
-        int lastVisibelSample = channelView.getCenter() + channelView.getZoom() / 2;
+        long firstVisibleSample = channelView.getCenter() - channelView.getZoom() / 2;
+        long lastVisibelSample = channelView.getCenter() + channelView.getZoom() / 2;
 
         player.setStart(firstVisibleSample);
         player.setStop(lastVisibelSample);
@@ -122,7 +123,7 @@ public class ChannelController extends ApplicationController implements MouseLis
   {
     int y = e.getY();
     int x = e.getX();
-    int mark = channelView.pixelsToSamples(x);
+    long mark = channelView.pixelsToSamples(x);
 
     // Is the mouse inside the panel.
     if(inView(x, y))
@@ -150,11 +151,11 @@ public class ChannelController extends ApplicationController implements MouseLis
       // 1 scroll wheel down.
       int rotation = e.getWheelRotation();
 
-      int start = player.getStart();
-      int stop = player.getStop();
+      long start = player.getStart();
+      long stop = player.getStop();
 
       InternalFormat internalFormat = player.getInternalFormat();
-      internalFormat.scaleSamples(start, stop, 1.0f - rotation * 0.1f);
+      internalFormat.applyEnvelope(start, stop, new ConstantEnvelope(1.0f - rotation * 0.1f));
       internalFormat.updated();
     }
   }
@@ -192,9 +193,9 @@ public class ChannelController extends ApplicationController implements MouseLis
    */
   public void refresh()
   {
-    int startValue = statusPanel.getStartValue();
-    int stopValue = statusPanel.getStopValue();
-    int playerValue = statusPanel.getPlayerValue();
+    long startValue = statusPanel.getStartValue();
+    long stopValue = statusPanel.getStopValue();
+    long playerValue = statusPanel.getPlayerValue();
 
     player.setStart(startValue);
     player.setStop(stopValue);
@@ -228,8 +229,8 @@ public class ChannelController extends ApplicationController implements MouseLis
    */
   private boolean isSelection()
   {
-    int start = player.getStart();
-    int stop = player.getStop();
+    long start = player.getStart();
+    long stop = player.getStop();
 
     return start + stop > 0;
   }
@@ -1,6 +1,5 @@
 package apes.controllers;
 
-import java.awt.Point;
 import java.io.IOException;
 
 import javax.swing.undo.AbstractUndoableEdit;
@@ -12,6 +11,7 @@ import apes.lib.PlayerHandler;
 import apes.models.InternalFormat;
 import apes.models.MemoryHandler;
 import apes.models.Player;
+import apes.models.Selection;
 import apes.models.Tabs;
 import apes.models.undo.CutEdit;
 import apes.models.undo.PasteEdit;
@@ -29,7 +29,7 @@ import apes.views.InternalFormatView;
 public class InternalFormatController extends ApplicationController
 {
   /**
-   * Values copied or cut.
+   * Values copied or cut, null until anything has been.
    */
   private MemoryHandler clipboard;
 
@@ -41,12 +41,12 @@ public class InternalFormatController extends ApplicationController
   /**
    * New zoom.
    */
-  private int zoom;
+  private long zoom;
 
   /**
    * New center position in zoom.
    */
-  private int center;
+  private long center;
 
   /**
    * Holds an undoable edit.
@@ -71,7 +71,7 @@ public class InternalFormatController extends ApplicationController
   /**
    * The marked selection.
    */
-  private Point selection;
+  private Selection selection;
 
   /**
    * The tabs model.
@@ -99,7 +99,6 @@ public class InternalFormatController extends ApplicationController
     this.tabs = tabs;
     this.undoManager = undoManager;
     this.playerHandler = PlayerHandler.getInstance();
-    this.clipboard = new MemoryHandler();
   }
 
   @Override
@@ -136,7 +135,7 @@ public class InternalFormatController extends ApplicationController
 
       if(!name.equals("paste"))
       {
-        if(selection.x == selection.y)
+        if(selection.isEmpty())
         {
           throw new Exception();
         }
@@ -153,9 +152,9 @@ public class InternalFormatController extends ApplicationController
       {
         // Make sure that the center sample is at a correct and valid
         // location.
-        int left = center - (zoom / 2);
-        int right = center + (zoom / 2);
-        int stop = player.getSampleAmount();
+        long left = center - (zoom / 2);
+        long right = center + (zoom / 2);
+        long stop = player.getSampleAmount();
 
         if(left < 0)
         {
@@ -213,8 +212,8 @@ public class InternalFormatController extends ApplicationController
    */
   public void copy()
   {
-    clipboard.dispose();
-    internalFormat.copy(selection.x, selection.y, clipboard);
+    newClipboard();
+    internalFormat.copy(selection.getStart(), selection.getStop(), clipboard);
     apesMessage.print("copy");
   }
 
@@ -226,8 +225,15 @@ public class InternalFormatController extends ApplicationController
   {
     edit = new CutEdit(internalFormat, selection);
     MemoryHandler cutout = ((CutEdit)edit).getCutout();
-    clipboard.dispose();
-    clipboard.transfer(cutout, 0, cutout.getUsedMemory(), 0);
+    newClipboard();
+    try
+    {
+      clipboard.transfer(cutout, 0, cutout.getUsedMemory(), 0);
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+    }
     apesMessage.print("cut");
   }
 
@@ -236,13 +242,26 @@ public class InternalFormatController extends ApplicationController
    */
   public void paste()
   {
-    if(clipboard.getUsedMemory() > 0)
+    if(clipboard != null && clipboard.getUsedMemory() > 0)
     {
       edit = new PasteEdit(internalFormat, selection, clipboard);
       apesMessage.print("paste");
     }
   }
 
+  /**
+   * Empties the clipboard, which then holds samples in the format of the
+   * current file.
+   */
+  private void newClipboard()
+  {
+    if(clipboard != null)
+      clipboard.dispose();
+
+    clipboard = internalFormat.createMemoryHandler();
+    clipboard.setPriority(MemoryHandler.Priority.LOW);
+  }
+
   /**
    * Deletes the selected region.
    */
@@ -257,11 +276,11 @@ public class InternalFormatController extends ApplicationController
    */
   public void zoomIn()
   {
-    int currentZoom = internalFormatView.getZoom();
-    int newZoom = currentZoom / InternalFormatView.ZOOM;
+    long currentZoom = internalFormatView.getZoom();
+    long newZoom = currentZoom / InternalFormatView.ZOOM;
 
-    int currentCenter = internalFormatView.getCenter();
-    int currentSample = player.getCurrentSample();
+    long currentCenter = internalFormatView.getCenter();
+    long currentSample = player.getCurrentSample();
 
     center = currentSample == 0 ? currentCenter : currentSample;
     zoom = newZoom < InternalFormatView.MAX_ZOOM ? InternalFormatView.MAX_ZOOM : newZoom;
@@ -274,11 +293,11 @@ public class InternalFormatController extends ApplicationController
    */
   public void zoomOut()
   {
-    int currentZoom = internalFormatView.getZoom();
-    int newZoom = currentZoom * InternalFormatView.ZOOM;
+    long currentZoom = internalFormatView.getZoom();
+    long newZoom = currentZoom * InternalFormatView.ZOOM;
 
-    int currentCenter = internalFormatView.getCenter();
-    int stop = player.getSampleAmount();
+    long currentCenter = internalFormatView.getCenter();
+    long stop = player.getSampleAmount();
 
     zoom = newZoom > stop ? stop : newZoom;
     center = currentCenter;
@@ -291,8 +310,8 @@ public class InternalFormatController extends ApplicationController
    */
   public void zoomSelection()
   {
-    int start = player.getStart();
-    int stop = player.getStop();
+    long start = player.getStart();
+    long stop = player.getStop();
 
     if(start != stop)
     {
@@ -1,6 +1,5 @@
 package apes.controllers;
 
-import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.util.ArrayList;
 import java.util.Map;
@@ -12,6 +11,7 @@ import apes.lib.PlayerHandler;
 import apes.lib.PluginHandler;
 import apes.models.InternalFormat;
 import apes.models.Player;
+import apes.models.Selection;
 import apes.views.PluginView;
 
 
@@ -85,7 +85,7 @@ public class PluginController extends ApplicationController
       else
       {
         Player player = playerHandler.getPlayer(internalFormat);
-        Point selection = player.getSelection();
+        Selection selection = player.getSelection();
         pluginHandler.getTransform(name).apply(internalFormat, selection);
       }
     }
@@ -0,0 +1,40 @@
+package apes.interfaces;
+
+/**
+ * <p>
+ * Management interface of the statistics kept by the compressed page store,
+ * so that they can be watched with JMX tools such as jconsole, next to the
+ * statistics of the memory handlers.
+ * </p>
+ */
+public interface CompressedPageStoreMBean
+{
+  /**
+   * Returns the number of bytes saved by compression, for all pages that
+   * are written.
+   * 
+   * @return Bytes saved.
+   */
+  public long getBytesSaved();
+
+  /**
+   * Returns the number of bytes the written pages take in the swap file.
+   * 
+   * @return Bytes stored.
+   */
+  public long getStoredBytes();
+
+  /**
+   * Returns the number of pages that have been decoded.
+   * 
+   * @return Number of decodes.
+   */
+  public long getDecodes();
+
+  /**
+   * Returns the average time it takes to decode one page.
+   * 
+   * @return Time in nanoseconds.
+   */
+  public long getAverageDecodeTime();
+}
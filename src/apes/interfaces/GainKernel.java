@@ -0,0 +1,37 @@
+package apes.interfaces;
+
+/**
+ * Multiplies samples by a gain and clips them. The samples are floats, as
+ * decoded by a {@link SampleCodec}, and the loops are kept simple so that
+ * they can be run on several samples at a time.
+ */
+public interface GainKernel
+{
+  /**
+   * Multiplies <code>amount</code> samples of <code>values</code> by
+   * <code>gain</code>, and puts any result below <code>min</code> or above
+   * <code>max</code> at that limit.
+   * 
+   * @param values The samples.
+   * @param offset Index of the first sample.
+   * @param amount Amount of samples.
+   * @param gain The gain.
+   * @param min The smallest value allowed.
+   * @param max The largest value allowed.
+   */
+  public void apply(float[] values, int offset, int amount, float gain, float min, float max);
+
+  /**
+   * Multiplies <code>amount</code> samples of <code>values</code> by the
+   * gains at the same indexes in <code>gains</code>, and puts any result below
+   * <code>min</code> or above <code>max</code> at that limit.
+   * 
+   * @param values The samples.
+   * @param gains The gains.
+   * @param offset Index of the first sample and gain.
+   * @param amount Amount of samples.
+   * @param min The smallest value allowed.
+   * @param max The largest value allowed.
+   */
+  public void apply(float[] values, float[] gains, int offset, int amount, float min, float max);
+}
@@ -0,0 +1,101 @@
+package apes.interfaces;
+
+/**
+ * <p>
+ * Management interface of the statistics kept by memory handlers, so that
+ * they can be watched with JMX tools such as jconsole.
+ * </p>
+ * <p>
+ * Hits and misses count page accesses through the shared frame table. Pages
+ * of small documents that are always in memory are not counted.
+ * </p>
+ */
+public interface MemoryStatisticsMBean
+{
+  /**
+   * Returns the number of page accesses where the page was in memory.
+   * 
+   * @return Number of hits.
+   */
+  public long getHits();
+
+  /**
+   * Returns the number of page accesses where the page had to be swapped in.
+   * 
+   * @return Number of misses.
+   */
+  public long getMisses();
+
+  /**
+   * Returns the share of page accesses that were hits.
+   * 
+   * @return Hit rate between 0 and 1.
+   */
+  public double getHitRate();
+
+  /**
+   * Returns the number of misses where the page had already been read ahead,
+   * so that it did not have to be read then.
+   * 
+   * @return Number of prefetched pages used.
+   */
+  public long getPrefetches();
+
+  /**
+   * Returns the number of pages that have been evicted from a frame.
+   * 
+   * @return Number of evictions.
+   */
+  public long getEvictions();
+
+  /**
+   * Returns the number of bytes swapped in.
+   * 
+   * @return Bytes read.
+   */
+  public long getBytesRead();
+
+  /**
+   * Returns the number of bytes swapped out.
+   * 
+   * @return Bytes written.
+   */
+  public long getBytesWritten();
+
+  /**
+   * Returns the total time spent swapping pages in, in nanoseconds.
+   * 
+   * @return Swap time.
+   */
+  public long getSwapTime();
+
+  /**
+   * Returns the average time it takes to swap a page in, in nanoseconds.
+   * 
+   * @return Average swap time.
+   */
+  public long getAverageSwapTime();
+
+  /**
+   * Returns the number of pieces in the piece table, that is, the number of
+   * pages used. A page that is used by two pieces is counted twice.
+   * 
+   * @return Number of pages.
+   */
+  public long getPages();
+
+  /**
+   * Returns the number of pages divided by the number of pages that would be
+   * needed if all were full. A handler that has just been compacted is
+   * close to 1.
+   * 
+   * @return Fragmentation, 1 or more.
+   */
+  public double getFragmentation();
+
+  /**
+   * Sets all counters to zero. Pages and fragmentation are not counters and
+   * are kept.
+   */
+  public void reset();
+}
@@ -0,0 +1,102 @@
+package apes.interfaces;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * Stores pages that are not in memory. Each page is kept in a slot, which is
+ * identified by a number given by {@link PageStore#allocate allocate}.
+ * </p>
+ * <p>
+ * Writes are done by the write behind thread, reads by whatever thread needs
+ * the page. A slot is never read and written at the same time.
+ * </p>
+ */
+public interface PageStore
+{
+  /**
+   * Allocates a slot for a page of <code>length</code> bytes, holding
+   * interleaved samples of <code>sampleBytes</code> bytes in
+   * <code>channels</code> channels. The content of the slot is undefined.
+   * 
+   * @param length Length of page.
+   * @param sampleBytes Bytes per sample.
+   * @param channels Number of channels.
+   * @return The slot.
+   * @throws IOException If the slot could not be allocated.
+   */
+  public long allocate(long length, int sampleBytes, int channels) throws IOException;
+
+  /**
+   * Frees <code>slot</code>.
+   * 
+   * @param slot The slot.
+   * @param length Length of page.
+   */
+  public void free(long slot, long length);
+
+  /**
+   * Reads the whole page in <code>slot</code> into <code>data</code>,
+   * starting at index 0. The position and limit of <code>data</code> are not
+   * changed.
+   * 
+   * @param slot The slot.
+   * @param data Buffer to read into.
+   * @param length Length of page.
+   */
+  public void read(long slot, ByteBuffer data, int length);
+
+  /**
+   * Writes <code>data[start, end)</code> to <code>slot</code>, where
+   * <code>data</code> holds the whole page. The position and limit of
+   * <code>data</code> are not changed.
+   * 
+   * @param slot The slot.
+   * @param data The page data.
+   * @param start First byte to write.
+   * @param end Byte after the last byte to write.
+   * @throws IOException If the page could not be written.
+   */
+  public void write(long slot, ByteBuffer data, int start, int end) throws IOException;
+
+  /**
+   * Copies <code>length</code> bytes at <code>offset</code> in the page in
+   * <code>source</code> to the start of the page in <code>target</code>,
+   * without going through a frame. A store that can not do this returns
+   * false, and the caller copies the data itself.
+   * 
+   * @param source The slot to copy from.
+   * @param offset Offset in the source page.
+   * @param target The slot to copy to, holding a page of <code>length</code>
+   *          bytes.
+   * @param length Amount of bytes.
+   * @return True if the data was copied.
+   * @throws IOException If the page could not be written.
+   */
+  public boolean copy(long source, int offset, long target, int length) throws IOException;
+
+  /**
+   * Writes <code>length</code> bytes at <code>offset</code> in the page in
+   * <code>slot</code> to <code>channel</code>, without going through a frame.
+   * A store that can not do this returns false, and the caller writes the
+   * data itself.
+   * 
+   * @param slot The slot.
+   * @param offset Offset in the page.
+   * @param length Amount of bytes.
+   * @param channel The channel to write to.
+   * @return True if the data was written.
+   * @throws IOException If the channel could not be written to.
+   */
+  public boolean transferTo(long slot, int offset, int length, WritableByteChannel channel) throws IOException;
+
+  /**
+   * Returns true if pages must always be written whole, that is, with
+   * <code>start</code> 0 and <code>end</code> the length of the page.
+   * 
+   * @return True if partial writes are not supported.
+   */
+  public boolean wholePages();
+}
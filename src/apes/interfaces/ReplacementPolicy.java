@@ -0,0 +1,68 @@
+package apes.interfaces;
+
+import java.util.function.IntPredicate;
+
+/**
+ * <p>
+ * Decides which frame to evict when a page must be swapped into a full frame
+ * table. Frames are identified by their index in the frame table.
+ * </p>
+ * <p>
+ * The memory handler tells the policy when frames are used, filled and
+ * emptied, and asks it for a victim when it needs a frame.
+ * </p>
+ */
+public interface ReplacementPolicy
+{
+  /**
+   * Called when a page that already is in <code>frame</code> is used.
+   * 
+   * @param frame The frame index.
+   */
+  public void accessed(int frame);
+
+  /**
+   * Called when <code>page</code> has been loaded into <code>frame</code>.
+   * 
+   * @param frame The frame index.
+   * @param page The page that was loaded.
+   */
+  public void loaded(int frame, Object page);
+
+  /**
+   * Called when the page in <code>frame</code> is gone and the frame is empty.
+   * 
+   * @param frame The frame index.
+   */
+  public void freed(int frame);
+
+  /**
+   * Returns the frame that should be used for the next page. Empty frames are
+   * always returned first. The returned frame is forgotten by the policy until
+   * {@link ReplacementPolicy#loaded loaded} is called for it.
+   * 
+   * @return The frame index.
+   */
+  public int victim();
+
+  /**
+   * Like {@link ReplacementPolicy#victim() victim}, but only returns frames
+   * that <code>evictable</code> accepts. The frames that are passed over are
+   * left exactly where they are.
+   * 
+   * @param evictable Tells which frames may be returned.
+   * @return The frame index, or -1 if no frame was accepted.
+   */
+  public int victim(IntPredicate evictable);
+
+  /**
+   * Gives back a frame returned by {@link ReplacementPolicy#victim victim}
+   * that was not used after all, because loading the new page failed. The
+   * frame still holds <code>page</code> and is put back where such a frame
+   * belongs, as if it had never been returned.
+   * 
+   * @param frame The frame index.
+   * @param page The page still in the frame, or null if it is empty.
+   */
+  public void reinstate(int frame, Object page);
+}
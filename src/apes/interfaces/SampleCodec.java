@@ -0,0 +1,103 @@
+package apes.interfaces;
+
+/**
+ * <p>
+ * Converts between the bytes of one sample format and arrays of samples.
+ * There is one implementation for each format, so that a loop over many
+ * samples can pick the codec once and then run without looking at the format
+ * again.
+ * </p>
+ * <p>
+ * Data is little endian and may be interleaved. The samples of one channel
+ * start at byte <code>index</code> and are <code>stride</code> bytes apart,
+ * so decoding one channel of interleaved data is done by giving the offset of
+ * the channel as index and the size of a frame as stride.
+ * </p>
+ * <p>
+ * Samples are given as <code>float</code> between -1 and 1, as
+ * <code>short</code> scaled to 16 bits, or as <code>int</code> with the value
+ * they have in the format. Values that do not fit the format are clipped when
+ * encoded.
+ * </p>
+ */
+public interface SampleCodec
+{
+  /**
+   * Returns the number of bytes of one sample.
+   * 
+   * @return Bytes per sample.
+   */
+  public int getBytesPerSample();
+
+  /**
+   * Decodes <code>amount</code> samples into <code>target</code>.
+   * 
+   * @param data The encoded data.
+   * @param index Index in <code>data</code> of the first sample.
+   * @param stride Bytes from one sample to the next.
+   * @param target Array to decode into.
+   * @param offset Index in <code>target</code> of the first sample.
+   * @param amount Amount of samples.
+   */
+  public void decode(byte[] data, int index, int stride, float[] target, int offset, int amount);
+
+  /**
+   * Decodes <code>amount</code> samples into <code>target</code>.
+   * 
+   * @param data The encoded data.
+   * @param index Index in <code>data</code> of the first sample.
+   * @param stride Bytes from one sample to the next.
+   * @param target Array to decode into.
+   * @param offset Index in <code>target</code> of the first sample.
+   * @param amount Amount of samples.
+   */
+  public void decode(byte[] data, int index, int stride, short[] target, int offset, int amount);
+
+  /**
+   * Decodes <code>amount</code> samples into <code>target</code>.
+   * 
+   * @param data The encoded data.
+   * @param index Index in <code>data</code> of the first sample.
+   * @param stride Bytes from one sample to the next.
+   * @param target Array to decode into.
+   * @param offset Index in <code>target</code> of the first sample.
+   * @param amount Amount of samples.
+   */
+  public void decode(byte[] data, int index, int stride, int[] target, int offset, int amount);
+
+  /**
+   * Encodes <code>amount</code> samples from <code>source</code>.
+   * 
+   * @param source Samples to encode.
+   * @param offset Index in <code>source</code> of the first sample.
+   * @param data Array to encode into.
+   * @param index Index in <code>data</code> of the first sample.
+   * @param stride Bytes from one sample to the next.
+   * @param amount Amount of samples.
+   */
+  public void encode(float[] source, int offset, byte[] data, int index, int stride, int amount);
+
+  /**
+   * Encodes <code>amount</code> samples from <code>source</code>.
+   * 
+   * @param source Samples to encode.
+   * @param offset Index in <code>source</code> of the first sample.
+   * @param data Array to encode into.
+   * @param index Index in <code>data</code> of the first sample.
+   * @param stride Bytes from one sample to the next.
+   * @param amount Amount of samples.
+   */
+  public void encode(short[] source, int offset, byte[] data, int index, int stride, int amount);
+
+  /**
+   * Encodes <code>amount</code> samples from <code>source</code>.
+   * 
+   * @param source Samples to encode.
+   * @param offset Index in <code>source</code> of the first sample.
+   * @param data Array to encode into.
+   * @param index Index in <code>data</code> of the first sample.
+   * @param stride Bytes from one sample to the next.
+   * @param amount Amount of samples.
+   */
+  public void encode(int[] source, int offset, byte[] data, int index, int stride, int amount);
+}
@@ -1,8 +1,7 @@
 package apes.interfaces;
 
-import java.awt.Point;
-
 import apes.models.InternalFormat;
+import apes.models.Selection;
 
 
 /**
@@ -14,7 +13,7 @@ public interface TransformPlugin extends Plugin
    * Applies the effect.
    * 
    * @param internalFormat A internal format.
-   * @param selection A Point selection.
+   * @param selection The selected samples.
    */
-  void apply(InternalFormat internalFormat, Point selection);
+  void apply(InternalFormat internalFormat, Selection selection);
 }
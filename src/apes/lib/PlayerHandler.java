@@ -84,7 +84,10 @@ public class PlayerHandler
   {
     try
     {
-      AudioFormat format = new AudioFormat(internalFormat.getSampleRate(), internalFormat.bitsPerSample, internalFormat.getNumChannels(), true, false);
+      // Samples of 8 bits are unsigned, as in wave files
+      AudioFormat.Encoding encoding = internalFormat.floatingPoint ? AudioFormat.Encoding.PCM_FLOAT : internalFormat.bitsPerSample == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+      int frameSize = internalFormat.bytesPerSample * internalFormat.getNumChannels();
+      AudioFormat format = new AudioFormat(encoding, internalFormat.getSampleRate(), internalFormat.bitsPerSample, internalFormat.getNumChannels(), frameSize, internalFormat.getSampleRate(), false);
       DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
 
       if(line != null)
@@ -214,7 +217,13 @@ public class PlayerHandler
    */
   public Player setInternalFormat(InternalFormat internalFormat)
   {
+    if(this.internalFormat != null)
+    {
+      this.internalFormat.setActive(false);
+    }
+
     this.internalFormat = internalFormat;
+    internalFormat.setActive(true);
 
     // Pause if there's a player.
     if(currentPlayer != null)
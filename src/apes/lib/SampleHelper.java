@@ -15,9 +15,9 @@ public class SampleHelper
    * @param milliseconds The number of milliseconds.
    * @return Milliseconds in samples.
    */
-  public static int millisecondsToSamples(int sampleRate, int milliseconds)
+  public static long millisecondsToSamples(int sampleRate, long milliseconds)
   {
-    return Math.round((milliseconds / 1000.0f) * sampleRate);
+    return Math.round((milliseconds / 1000.0) * sampleRate);
   }
 
   /**
@@ -28,7 +28,7 @@ public class SampleHelper
    * @param seconds The number of seconds.
    * @return Seconds in samples.
    */
-  public static int secondsToSamples(int sampleRate, int seconds)
+  public static long secondsToSamples(int sampleRate, long seconds)
   {
     return seconds * sampleRate;
   }
@@ -41,7 +41,7 @@ public class SampleHelper
    * @param minutes The number of minutes.
    * @return Minutes in samples.
    */
-  public static int minutesToSamples(int sampleRate, int minutes)
+  public static long minutesToSamples(int sampleRate, long minutes)
   {
     return (minutes * 60) * sampleRate;
   }
@@ -54,9 +54,9 @@ public class SampleHelper
    * @param samples The number of samples.
    * @return Samples in milliseconds.
    */
-  public static int samplesToMilliseconds(int sampleRate, int samples)
+  public static long samplesToMilliseconds(int sampleRate, long samples)
   {
-    return Math.round((float)samples / sampleRate * 1000);
+    return Math.round((double)samples / sampleRate * 1000);
   }
 
   /**
@@ -67,9 +67,9 @@ public class SampleHelper
    * @param samples The number of samples.
    * @return Samples in seconds.
    */
-  public static int samplesToSeconds(int sampleRate, int samples)
+  public static long samplesToSeconds(int sampleRate, long samples)
   {
-    return Math.round((float)samples / sampleRate);
+    return Math.round((double)samples / sampleRate);
   }
 
   /**
@@ -80,8 +80,8 @@ public class SampleHelper
    * @param samples The number of samples.
    * @return Samples in minutes.
    */
-  public static int samplesToMinutes(int sampleRate, int samples)
+  public static long samplesToMinutes(int sampleRate, long samples)
   {
-    return Math.round(((float)samples / sampleRate) / 60.0f);
+    return Math.round(((double)samples / sampleRate) / 60.0);
   }
 }
@@ -89,6 +89,13 @@ public class Config extends ApesConfiguration
     addOption("gui_error_messages", "true", Type.BOOLEAN);
     addOption("wind", "20", Type.INTEGER);
     addOption("close_confirmation", "true", Type.BOOLEAN);
+    addOption("memory_budget", "10000000", Type.INTEGER);
+    addOption("memory_page_size", "100000", Type.INTEGER);
+    addOption("memory_policy", "clock", Type.STRING);
+    addOption("memory_compression", "off", Type.STRING);
+    addOption("memory_resident_limit", "2000000", Type.INTEGER);
+    addOption("memory_map_files", "true", Type.BOOLEAN);
+    addOption("peak_cache", "true", Type.BOOLEAN);
   }
 
   /**
@@ -1,10 +1,25 @@
 package apes.models;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.lang.reflect.Array;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Observable;
-
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import apes.interfaces.SampleCodec;
+import apes.models.codecs.F32Codec;
+import apes.models.codecs.S16Codec;
+import apes.models.codecs.S24Codec;
+import apes.models.codecs.S32Codec;
+import apes.models.codecs.U8Codec;
+import apes.models.gain.ConstantEnvelope;
+import apes.models.gain.Envelope;
+import apes.models.gain.GainEngine;
 import apes.plugins.WaveFileFormat;
 
 
@@ -45,10 +60,51 @@ public class InternalFormat extends Observable
 
   public final int bytesPerSample;
 
+  /**
+   * True if the samples are floats, false if they are integers.
+   */
+  public final boolean floatingPoint;
+
   /**
    * Length of each channel in samples.
    */
-  private int sampleAmount;
+  private volatile long sampleAmount;
+
+  /**
+   * Converts samples to and from bytes, or null if the sample format is not
+   * supported.
+   */
+  private final SampleCodec codec;
+
+  /**
+   * Summaries of the samples for drawing, or null until they are needed.
+   */
+  private volatile PeakPyramid peaks;
+
+  /**
+   * The file the samples were read from, whose peaks are saved when they have
+   * been computed, see {@link InternalFormat#usePeakCache usePeakCache}. Null
+   * if the samples have been changed since.
+   */
+  private volatile File peakSource;
+
+  /**
+   * Changed when the samples start and stop changing, so that summaries
+   * computed in the background are not used if the samples changed meanwhile.
+   * Guarded by <code>this</code>.
+   */
+  private int peakVersion;
+
+  /**
+   * Run when the summaries that are computed in the background are ready, or
+   * null if none are being computed. Guarded by <code>this</code>.
+   */
+  private List<Runnable> peakListeners;
+
+  /**
+   * Samples of each channel converted at a time by the block methods.
+   */
+  private static final int BLOCK_SIZE = 16384;
 
   /**
    * Constructor setting up the Internal Format according to the supplied data.
@@ -56,8 +112,23 @@ public class InternalFormat extends Observable
    * @param tags Tag information of the audio file.
    * @param samplerate Amount of samples per second.
    * @param numChannels Number of channels.
+   * @param bitsPerSample Bits per sample.
    */
   public InternalFormat(Tags tags, int samplerate, int numChannels, int bitsPerSample)
+  {
+    this(tags, samplerate, numChannels, bitsPerSample, false);
+  }
+
+  /**
+   * Constructor setting up the Internal Format according to the supplied data.
+   * 
+   * @param tags Tag information of the audio file.
+   * @param samplerate Amount of samples per second.
+   * @param numChannels Number of channels.
+   * @param bitsPerSample Bits per sample.
+   * @param floatingPoint True if the samples are floats.
+   */
+  public InternalFormat(Tags tags, int samplerate, int numChannels, int bitsPerSample, boolean floatingPoint)
   {
     if(tags == null)
     {
@@ -70,10 +141,51 @@ public class InternalFormat extends Observable
 
     this.bitsPerSample = bitsPerSample;
     this.bytesPerSample = bitsPerSample / 8;
+    this.floatingPoint = floatingPoint;
     this.sampleRate = samplerate;
     channels = numChannels;
-    memoryHandler = new MemoryHandler();
+    memoryHandler = new MemoryHandler(bytesPerSample, numChannels);
+    memoryHandler.getStatistics().register(null);
     sampleAmount = 0;
+    codec = createCodec(bitsPerSample, floatingPoint);
+  }
+
+  /**
+   * Returns the codec of a sample format.
+   * 
+   * @param bitsPerSample Bits per sample.
+   * @param floatingPoint True if the samples are floats.
+   * @return The codec, or null if the format is not supported.
+   */
+  private static SampleCodec createCodec(int bitsPerSample, boolean floatingPoint)
+  {
+    if(floatingPoint)
+      return bitsPerSample == 32 ? new F32Codec() : null;
+
+    switch (bitsPerSample)
+    {
+      case 8:
+        return new U8Codec();
+      case 16:
+        return new S16Codec();
+      case 24:
+        return new S24Codec();
+      case 32:
+        return new S32Codec();
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the codec that converts samples of this internal format to and
+   * from bytes.
+   * 
+   * @return The codec, or null if the sample format is not supported.
+   */
+  public SampleCodec getCodec()
+  {
+    return codec;
   }
 
   /**
@@ -111,7 +223,7 @@ public class InternalFormat extends Observable
    * 
    * @return <code>sampleAmount</code>.
    */
-  public int getSampleAmount()
+  public long getSampleAmount()
   {
     return sampleAmount;
   }
@@ -140,7 +252,7 @@ public class InternalFormat extends Observable
    */
   public byte[] getChunk(long indexS, int amountS)
   {
-    if(indexS + amountS > sampleAmount || indexS < 0 || amountS < 1)
+    if(indexS + amountS > sampleAmount || indexS < 0 || amountS < 1 || samplesToBytes(amountS) > Integer.MAX_VALUE)
       return null;
 
     try
@@ -157,6 +269,451 @@ public class InternalFormat extends Observable
     return null;
   }
 
+  /**
+   * Reads <code>amountS</code> samples from each channel, starting from
+   * absolute index <code>indexS</code>, into <code>buffer</code>. The data is
+   * put at the position of <code>buffer</code>, which is advanced.
+   * 
+   * @param indexS The first sample to read.
+   * @param amountS Amount of samples to read.
+   * @param buffer Buffer to read into. Must have room for all samples.
+   * @return True if the samples were read, false if they are out of range.
+   */
+  public boolean getChunk(long indexS, int amountS, ByteBuffer buffer)
+  {
+    if(indexS + amountS > sampleAmount || indexS < 0 || amountS < 1 || samplesToBytes(amountS) > buffer.remaining())
+      return false;
+
+    int position = buffer.position();
+    ByteBuffer target = buffer.duplicate();
+    target.limit(position + (int)samplesToBytes(amountS));
+
+    try
+    {
+      // Samples may have been removed by another thread since the check
+      if(!memoryHandler.read(samplesToBytes(indexS), target))
+        return false;
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+
+    buffer.position(target.position());
+    return true;
+  }
+
+  /**
+   * Returns a read-only view of the data starting at byte
+   * <code>indexB</code>, without copying it. The view may be shorter than
+   * <code>amountB</code> and does not have to end on a sample. The slice must
+   * be closed when the view is no longer used.
+   * 
+   * @param indexB Index of the first byte.
+   * @param amountB Largest number of bytes wanted.
+   * @return The slice, or null if <code>indexB</code> is out of range.
+   */
+  public MemoryHandler.Slice getByteView(long indexB, long amountB)
+  {
+    try
+    {
+      return memoryHandler.slice(indexB, amountB);
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Writes <code>amountB</code> bytes starting at byte <code>indexB</code> to
+   * <code>channel</code>. Data that is not in memory is not swapped in, but
+   * written straight from where it is kept.
+   * 
+   * @param indexB Index of the first byte.
+   * @param amountB Amount of bytes.
+   * @param channel The channel to write to.
+   * @return True if the data was written, false if out of range.
+   * @throws IOException If the channel could not be written to.
+   */
+  public boolean transferTo(long indexB, long amountB, WritableByteChannel channel) throws IOException
+  {
+    return memoryHandler.transferTo(indexB, amountB, channel);
+  }
+
+  /**
+   * Reads <code>amountS</code> samples of <code>channel</code>, starting at
+   * <code>startS</code>, into <code>target</code> as values between -1 and
+   * 1.
+   * 
+   * @param channel The channel.
+   * @param startS The first sample.
+   * @param target Array to read into.
+   * @param offset Index in <code>target</code> of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were read, false if out of range.
+   */
+  public boolean getBlock(int channel, long startS, float[] target, int offset, int amountS)
+  {
+    return readBlock(channel, startS, target, offset, amountS);
+  }
+
+  /**
+   * Reads <code>amountS</code> samples of <code>channel</code>, starting at
+   * <code>startS</code>, into <code>target</code> as 16 bit values.
+   * 
+   * @param channel The channel.
+   * @param startS The first sample.
+   * @param target Array to read into.
+   * @param offset Index in <code>target</code> of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were read, false if out of range.
+   */
+  public boolean getBlock(int channel, long startS, short[] target, int offset, int amountS)
+  {
+    return readBlock(channel, startS, target, offset, amountS);
+  }
+
+  /**
+   * Reads <code>amountS</code> samples of <code>channel</code>, starting at
+   * <code>startS</code>, into <code>target</code> as the values they have in
+   * the sample format.
+   * 
+   * @param channel The channel.
+   * @param startS The first sample.
+   * @param target Array to read into.
+   * @param offset Index in <code>target</code> of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were read, false if out of range.
+   */
+  public boolean getBlock(int channel, long startS, int[] target, int offset, int amountS)
+  {
+    return readBlock(channel, startS, target, offset, amountS);
+  }
+
+  /**
+   * Reads <code>amountS</code> samples of every channel, starting at
+   * <code>startS</code>, into <code>target</code>, which has one array per
+   * channel. Values are between -1 and 1.
+   * 
+   * @param startS The first sample.
+   * @param target Arrays to read into.
+   * @param offset Index in each array of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were read, false if out of range.
+   */
+  public boolean getBlock(long startS, float[][] target, int offset, int amountS)
+  {
+    return readBlock(-1, startS, target, offset, amountS);
+  }
+
+  /**
+   * Reads <code>amountS</code> samples of every channel, starting at
+   * <code>startS</code>, into <code>target</code>, which has one array per
+   * channel. Values are 16 bit.
+   * 
+   * @param startS The first sample.
+   * @param target Arrays to read into.
+   * @param offset Index in each array of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were read, false if out of range.
+   */
+  public boolean getBlock(long startS, short[][] target, int offset, int amountS)
+  {
+    return readBlock(-1, startS, target, offset, amountS);
+  }
+
+  /**
+   * Reads <code>amountS</code> samples of every channel, starting at
+   * <code>startS</code>, into <code>target</code>, which has one array per
+   * channel. Values are those of the sample format.
+   * 
+   * @param startS The first sample.
+   * @param target Arrays to read into.
+   * @param offset Index in each array of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were read, false if out of range.
+   */
+  public boolean getBlock(long startS, int[][] target, int offset, int amountS)
+  {
+    return readBlock(-1, startS, target, offset, amountS);
+  }
+
+  /**
+   * Writes <code>amountS</code> samples from <code>source</code>, values
+   * between -1 and 1, to <code>channel</code> starting at
+   * <code>startS</code>. Values outside are clipped. Observers are not
+   * notified, see {@link #updated}.
+   * 
+   * @param channel The channel.
+   * @param startS The first sample.
+   * @param source Samples to write.
+   * @param offset Index in <code>source</code> of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were written, false if out of range.
+   */
+  public boolean setBlock(int channel, long startS, float[] source, int offset, int amountS)
+  {
+    return writeBlock(channel, startS, source, offset, amountS);
+  }
+
+  /**
+   * Writes <code>amountS</code> 16 bit samples from <code>source</code> to
+   * <code>channel</code> starting at <code>startS</code>. Observers are not
+   * notified, see {@link #updated}.
+   * 
+   * @param channel The channel.
+   * @param startS The first sample.
+   * @param source Samples to write.
+   * @param offset Index in <code>source</code> of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were written, false if out of range.
+   */
+  public boolean setBlock(int channel, long startS, short[] source, int offset, int amountS)
+  {
+    return writeBlock(channel, startS, source, offset, amountS);
+  }
+
+  /**
+   * Writes <code>amountS</code> samples from <code>source</code>, values of
+   * the sample format, to <code>channel</code> starting at
+   * <code>startS</code>. Values outside are clipped. Observers are not
+   * notified, see {@link #updated}.
+   * 
+   * @param channel The channel.
+   * @param startS The first sample.
+   * @param source Samples to write.
+   * @param offset Index in <code>source</code> of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were written, false if out of range.
+   */
+  public boolean setBlock(int channel, long startS, int[] source, int offset, int amountS)
+  {
+    return writeBlock(channel, startS, source, offset, amountS);
+  }
+
+  /**
+   * Writes <code>amountS</code> samples of every channel, starting at
+   * <code>startS</code>, from <code>source</code>, which has one array per
+   * channel of values between -1 and 1.
+   * 
+   * @param startS The first sample.
+   * @param source Samples to write.
+   * @param offset Index in each array of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were written, false if out of range.
+   */
+  public boolean setBlock(long startS, float[][] source, int offset, int amountS)
+  {
+    return writeBlock(-1, startS, source, offset, amountS);
+  }
+
+  /**
+   * Writes <code>amountS</code> samples of every channel, starting at
+   * <code>startS</code>, from <code>source</code>, which has one array per
+   * channel of 16 bit values.
+   * 
+   * @param startS The first sample.
+   * @param source Samples to write.
+   * @param offset Index in each array of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were written, false if out of range.
+   */
+  public boolean setBlock(long startS, short[][] source, int offset, int amountS)
+  {
+    return writeBlock(-1, startS, source, offset, amountS);
+  }
+
+  /**
+   * Writes <code>amountS</code> samples of every channel, starting at
+   * <code>startS</code>, from <code>source</code>, which has one array per
+   * channel of values of the sample format.
+   * 
+   * @param startS The first sample.
+   * @param source Samples to write.
+   * @param offset Index in each array of the first sample.
+   * @param amountS Amount of samples.
+   * @return True if the samples were written, false if out of range.
+   */
+  public boolean setBlock(long startS, int[][] source, int offset, int amountS)
+  {
+    return writeBlock(-1, startS, source, offset, amountS);
+  }
+
+  /**
+   * Returns a spliterator over the samples of <code>channel</code>, as the
+   * values they have in the sample format.
+   * 
+   * @param channel The channel.
+   * @return The spliterator.
+   */
+  public SampleSpliterator spliterator(int channel)
+  {
+    if(channel < 0 || channel >= channels)
+      throw new IllegalArgumentException("No channel " + channel);
+
+    long pageSamples = bytesToSamples(memoryHandler.getPageSize());
+
+    return new SampleSpliterator(this, channel, 0, sampleAmount, pageSamples);
+  }
+
+  /**
+   * Returns the samples of <code>channel</code> as a stream, of the values
+   * they have in the sample format. A parallel stream is split on page
+   * boundaries. The internal format must not be changed while it is used.
+   * 
+   * @param channel The channel.
+   * @param parallel True for a parallel stream.
+   * @return The stream.
+   */
+  public IntStream stream(int channel, boolean parallel)
+  {
+    return StreamSupport.intStream(spliterator(channel), parallel);
+  }
+
+  /**
+   * Reads samples a block at a time and decodes them into
+   * <code>target</code>, which is a primitive array, or one per channel if
+   * <code>channel</code> is -1.
+   */
+  private boolean readBlock(int channel, long startS, Object target, int offset, int amountS)
+  {
+    if(!isBlock(channel, startS, target, offset, amountS))
+      return false;
+
+    byte[] data = new byte[(int)samplesToBytes(Math.min(amountS, BLOCK_SIZE))];
+
+    try
+    {
+      for(int done = 0; done < amountS; done += BLOCK_SIZE)
+      {
+        int n = Math.min(BLOCK_SIZE, amountS - done);
+
+        if(!memoryHandler.read(samplesToBytes(startS + done), data, 0, (int)samplesToBytes(n)))
+          return false;
+
+        if(channel >= 0)
+          decode(data, channel, target, offset + done, n);
+        else
+          for(int c = 0; c < channels; c++)
+            decode(data, c, ((Object[])target)[c], offset + done, n);
+      }
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Encodes <code>source</code>, which is a primitive array, or one per
+   * channel if <code>channel</code> is -1, and writes it a block at a time.
+   * The other channels are read first when only one is written.
+   */
+  private boolean writeBlock(int channel, long startS, Object source, int offset, int amountS)
+  {
+    if(!isBlock(channel, startS, source, offset, amountS))
+      return false;
+
+    byte[] data = new byte[(int)samplesToBytes(Math.min(amountS, BLOCK_SIZE))];
+
+    changing();
+    try
+    {
+      for(int done = 0; done < amountS; done += BLOCK_SIZE)
+      {
+        int n = Math.min(BLOCK_SIZE, amountS - done);
+        long startB = samplesToBytes(startS + done);
+        int lengthB = (int)samplesToBytes(n);
+
+        if(channel >= 0 && channels > 1 && !memoryHandler.read(startB, data, 0, lengthB))
+          return false;
+
+        if(channel >= 0)
+          encode(source, offset + done, data, channel, n);
+        else
+          for(int c = 0; c < channels; c++)
+            encode(((Object[])source)[c], offset + done, data, c, n);
+
+        memoryHandler.write(startB, data, 0, lengthB);
+      }
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+    finally
+    {
+      changed(startS, startS + amountS, startS + amountS);
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns true if a block of <code>amountS</code> samples at
+   * <code>startS</code> is in range, and fits in <code>array</code> at
+   * <code>offset</code>.
+   */
+  private boolean isBlock(int channel, long startS, Object array, int offset, int amountS)
+  {
+    if(codec == null || channel >= channels || startS < 0 || amountS < 0 || offset < 0 || startS + amountS > sampleAmount)
+      return false;
+
+    if(channel >= 0)
+      return offset + amountS <= Array.getLength(array);
+
+    Object[] arrays = (Object[])array;
+    if(arrays.length < channels)
+      return false;
+
+    for(int c = 0; c < channels; c++)
+      if(offset + amountS > Array.getLength(arrays[c]))
+        return false;
+
+    return true;
+  }
+
+  /**
+   * Decodes <code>amount</code> samples of <code>channel</code> from
+   * interleaved <code>data</code>.
+   */
+  private void decode(byte[] data, int channel, Object target, int offset, int amount)
+  {
+    int index = channel * bytesPerSample;
+    int stride = bytesPerSample * channels;
+
+    if(target instanceof float[])
+      codec.decode(data, index, stride, (float[])target, offset, amount);
+    else if(target instanceof short[])
+      codec.decode(data, index, stride, (short[])target, offset, amount);
+    else
+      codec.decode(data, index, stride, (int[])target, offset, amount);
+  }
+
+  /**
+   * Encodes <code>amount</code> samples into <code>channel</code> of
+   * interleaved <code>data</code>.
+   */
+  private void encode(Object source, int offset, byte[] data, int channel, int amount)
+  {
+    int index = channel * bytesPerSample;
+    int stride = bytesPerSample * channels;
+
+    if(source instanceof float[])
+      codec.encode((float[])source, offset, data, index, stride, amount);
+    else if(source instanceof short[])
+      codec.encode((short[])source, offset, data, index, stride, amount);
+    else
+      codec.encode((int[])source, offset, data, index, stride, amount);
+  }
+
   /**
    * Returns an approximate average of the specified interval.
    * 
@@ -165,45 +722,72 @@ public class InternalFormat extends Observable
    * @param lengthS Amount of samples to consider.
    * @return
    */
-  public int getAverageAmplitude(int channel, int startS, int lengthS)
+  public int getAverageAmplitude(int channel, long startS, long lengthS)
   {
-    if(startS < 0 || channel >= channels || lengthS < 1 || startS + lengthS > sampleAmount)
+    int capacity = (int)samplesToBytes(Math.min(lengthS, 100000));
+
+    return getAverageAmplitude(channel, startS, lengthS, ByteBuffer.allocate(Math.max(capacity, 1)));
+  }
+
+  /**
+   * Returns an approximate average of the specified interval, reading the
+   * samples through <code>buffer</code>. Callers that compute many averages
+   * should pass the same buffer each time.
+   * 
+   * @param channel What channel to perform average on.
+   * @param startS First sample to consider.
+   * @param lengthS Amount of samples to consider.
+   * @param buffer Buffer to read samples into. Holds at least one sample. If
+   *          it is not backed by an array, the samples are copied out of it
+   *          before they are decoded.
+   * @return
+   */
+  public int getAverageAmplitude(int channel, long startS, long lengthS, ByteBuffer buffer)
+  {
+    if(startS < 0 || channel >= channels || lengthS < 1 || startS + lengthS > sampleAmount || codec == null)
       return 0;
 
-    int c = 0;
-    int total = 0;
-    int step = lengthS <= 50 ? 1 : Math.round(lengthS * 0.1f);
+    long c = 0;
+    long total = 0;
+    long step = lengthS <= 50 ? 1 : Math.round(lengthS * 0.1);
 
-    final int IO_SIZE = 100000; // Amount in samples
+    // Amount in samples, a whole number of steps so that every chunk starts
+    // on a step. Only one sample is read for steps larger than a chunk.
+    int fits = (int)Math.min(100000, bytesToSamples(buffer.capacity()));
+    final int IO_SIZE = step <= fits ? (int)(fits - fits % step) : 1;
 
-    ByteBuffer buffer;
-    int nToRead = IO_SIZE;
+    int[] values = new int[(int)((IO_SIZE + step - 1) / step)];
+    int stride = (int)(Math.min(step, IO_SIZE) * bytesPerSample * channels);
+    byte[] bytes = buffer.hasArray() ? buffer.array() : new byte[(int)samplesToBytes(IO_SIZE)];
+    int base = buffer.hasArray() ? buffer.arrayOffset() : 0;
 
-    for(int iS = startS; iS < startS + lengthS; iS++)
+    long iS = startS;
+    while(iS < startS + lengthS)
     {
-      if(iS + nToRead > startS + lengthS)
-        nToRead = startS + lengthS - iS;
+      int nToRead = (int)Math.min(IO_SIZE, startS + lengthS - iS);
+
+      buffer.clear();
+      if(!getChunk(iS, nToRead, buffer))
+        break;
 
-      buffer = ByteBuffer.wrap(getSamples(iS, iS + nToRead));
-      for(int i = 0; i < nToRead; i += step, c++)
+      if(!buffer.hasArray())
       {
-        switch (bytesPerSample)
-        {
-          case 2:
-            total += buffer.getShort((int)(samplesToBytes(i) + channel * bytesPerSample));
-            break;
-          case 4:
-            total += buffer.getInt((int)(samplesToBytes(i) + channel * bytesPerSample));
-            break;
-          default:
-            System.out.println("BAD BYTES PER SAMPLE IN INTERNAL FORMAT WHILE AVERAGING");
-            System.exit(1);
-        }
+        buffer.flip();
+        buffer.get(bytes, 0, buffer.remaining());
       }
-      iS += nToRead;
+
+      // Every step:th sample
+      int n = (int)((nToRead + step - 1) / step);
+      codec.decode(bytes, base + channel * bytesPerSample, stride, values, 0, n);
+
+      for(int i = 0; i < n; i++)
+        total += values[i];
+
+      c += n;
+      iS += n * step;
     }
 
-    return Math.round((float)total / c);
+    return (int)Math.round((double)total / c);
   }
 
   /**
@@ -233,12 +817,24 @@ public class InternalFormat extends Observable
     fileStatus.setOpenedByInternal();
   }
 
+  /**
+   * Tells if this is the file that is shown and played. The data of the
+   * active file is kept in memory before that of other files.
+   * 
+   * @param active True if active.
+   */
+  public void setActive(boolean active)
+  {
+    memoryHandler.setPriority(active ? MemoryHandler.Priority.HIGH : MemoryHandler.Priority.NORMAL);
+  }
+
   /**
    * Closes all streams and cleans up the <code>InternalFormat</code>
    */
   public void close()
   {
     memoryHandler.dispose();
+    memoryHandler.getStatistics().unregister();
     this.channels = 0;
   }
 
@@ -284,27 +880,24 @@ public class InternalFormat extends Observable
    * @param indexS
    * @return
    */
-  public int getSample(int channel, int indexS)
+  public int getSample(int channel, long indexS)
   {
-    if(channel >= channels || indexS >= sampleAmount || indexS < 0)
+    if(channel >= channels || indexS >= sampleAmount || indexS < 0 || codec == null)
       return 0;
 
-    int amplitude = 0;
-    byte[] b = null;
+    int[] amplitude = new int[1];
 
     try
     {
-      b = memoryHandler.read(samplesToBytes(indexS) + channel * bytesPerSample, bytesPerSample);
+      byte[] b = memoryHandler.read(samplesToBytes(indexS) + channel * bytesPerSample, bytesPerSample);
+      codec.decode(b, 0, bytesPerSample, amplitude, 0, 1);
     }
     catch(IOException e)
     {
       e.printStackTrace();
     }
 
-    for(int i = 0; i < bytesPerSample; i++)
-      amplitude += b[i] << (i * 8);
-
-    return amplitude;
+    return amplitude[0];
   }
 
   /**
@@ -317,7 +910,7 @@ public class InternalFormat extends Observable
   // FIXME: How large chunks can we get?
   public byte[] getSamples(long startS, long stopS)
   {
-    if(startS < 0 || startS > stopS || stopS >= sampleAmount)
+    if(startS < 0 || startS > stopS || stopS >= sampleAmount || samplesToBytes(stopS - startS + 1) > Integer.MAX_VALUE)
       return null;
 
     try
@@ -331,6 +924,24 @@ public class InternalFormat extends Observable
     }
   }
 
+  /**
+   * Reads the samples from <code>startS</code> to <code>stopS</code> from
+   * each channel into <code>buffer</code>. The data is put at the position of
+   * <code>buffer</code>, which is advanced.
+   * 
+   * @param startS The first index to copy.
+   * @param stopS The last index to copy.
+   * @param buffer Buffer to read into. Must have room for all samples.
+   * @return True if the samples were read, false if they are out of range.
+   */
+  public boolean getSamples(long startS, long stopS, ByteBuffer buffer)
+  {
+    if(startS < 0 || startS > stopS || stopS >= sampleAmount || stopS - startS + 1 > Integer.MAX_VALUE)
+      return false;
+
+    return getChunk(startS, (int)(stopS - startS + 1), buffer);
+  }
+
   /**
    * Removes all samples
    * 
@@ -343,11 +954,13 @@ public class InternalFormat extends Observable
       return;
 
     long lengthS = (stopS - startS + 1);
+    changing();
     try
     {
       if(memoryHandler.free(samplesToBytes(startS), samplesToBytes(lengthS)))
       {
         sampleAmount -= lengthS;
+        changed(startS, stopS + 1, startS);
       }
     }
     catch(IOException e)
@@ -357,12 +970,30 @@ public class InternalFormat extends Observable
     updated();
   }
 
-  public void copy(int startS, int stopS, MemoryHandler mH)
+  /**
+   * Returns a new, empty memory handler for samples in this format, to cut or
+   * copy samples to. Its pages hold whole frames.
+   * 
+   * @return The memory handler.
+   */
+  public MemoryHandler createMemoryHandler()
+  {
+    return new MemoryHandler(bytesPerSample, channels);
+  }
+
+  public void copy(long startS, long stopS, MemoryHandler mH)
   {
     long startB = samplesToBytes(startS);
     long amountB = samplesToBytes(stopS - startS + 1);
-    
-    mH.transfer(memoryHandler, startB, amountB, 0);
+
+    try
+    {
+      mH.transfer(memoryHandler, startB, amountB, 0);
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+    }
   }
 
   /**
@@ -381,9 +1012,16 @@ public class InternalFormat extends Observable
 
     long startB = samplesToBytes(startS);
     long amountB = samplesToBytes(stopS - startS + 1);
-    
-    mH.transfer(memoryHandler, startB, amountB, 0L);
-    removeSamples(startS, stopS);
+
+    try
+    {
+      if(mH.transfer(memoryHandler, startB, amountB, 0L))
+        removeSamples(startS, stopS);
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+    }
   }
 
   /**
@@ -409,6 +1047,30 @@ public class InternalFormat extends Observable
     }
   }
 
+  /**
+   * Inserts samples straight from a file at the specified index. The samples
+   * are not read until they are used, see {@link MemoryHandler#map}.
+   * 
+   * @param startB Index to insert at in bytes.
+   * @param file The file.
+   * @param offset Offset in the file of the first sample.
+   * @param lengthB Amount of bytes, whole samples in all channels.
+   * @throws IOException If the file could not be mapped.
+   */
+  public void mapSamples(long startB, File file, long offset, long lengthB) throws IOException
+  {
+    if(startB > samplesToBytes(sampleAmount))
+      return;
+
+    changing();
+    if(memoryHandler.map(startB, file, offset, lengthB))
+    {
+      sampleAmount += bytesToSamples(lengthB);
+      changed(bytesToSamples(startB), bytesToSamples(startB), bytesToSamples(startB + lengthB));
+      updated();
+    }
+  }
+
   /**
    * Inserts the provided samples at the specified index.
    * 
@@ -416,12 +1078,13 @@ public class InternalFormat extends Observable
    * @param samplesB Samples to insert at start.
    * @return Index of the first sample after the inserted samples.
    */
-  public int insertSamples(int startB, byte[] samplesB)
+  public long insertSamples(long startB, byte[] samplesB)
   {
     if(samplesB == null || startB > samplesToBytes(sampleAmount))
       return -1;
 
     boolean alloc = false;
+    changing();
     try
     {
       alloc = memoryHandler.malloc(startB, samplesB.length);
@@ -436,6 +1099,7 @@ public class InternalFormat extends Observable
     sampleAmount += bytesToSamples(samplesB.length);
 
     setSamples(startB, samplesB);
+    changed(bytesToSamples(startB), bytesToSamples(startB), bytesToSamples(startB + samplesB.length));
     updated();
 
     return startB + samplesB.length;
@@ -450,13 +1114,28 @@ public class InternalFormat extends Observable
    */
   public void pasteSamples(long startS, MemoryHandler m)
   {
-    memoryHandler.transfer(m, 0, m.getUsedMemory(), samplesToBytes(startS));
-    sampleAmount += bytesToSamples(m.getUsedMemory());
+    long lengthS = bytesToSamples(m.getUsedMemory());
+
+    changing();
+    try
+    {
+      if(memoryHandler.transfer(m, 0, m.getUsedMemory(), samplesToBytes(startS)))
+      {
+        sampleAmount += lengthS;
+        changed(startS, startS, startS + lengthS);
+      }
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+    }
     updated();
   }
 
   /**
-   * Scales all samples in the internal format.
+   * Multiplies the samples from <code>startS</code> to <code>stopS</code>,
+   * both included, by <code>alpha</code>. Integer samples are clipped to the
+   * range of the format, see {@link GainEngine}.
    * 
    * @param startS The start sample.
    * @param stopS The end sample.
@@ -464,57 +1143,196 @@ public class InternalFormat extends Observable
    */
   public void scaleSamples(long startS, long stopS, float alpha)
   {
-    final int IO_SIZE = 100000; // Amount in samples
+    applyEnvelope(startS, stopS, new ConstantEnvelope(alpha));
+  }
 
-    ByteBuffer toWrite = null;
+  /**
+   * Multiplies the samples from <code>startS</code> to <code>stopS</code>,
+   * both included, by the gains of <code>envelope</code>, which spans the
+   * range. The samples are read and written once. Integer samples are clipped
+   * to the range of the format, see {@link GainEngine}.
+   * 
+   * @param startS The start sample.
+   * @param stopS The end sample.
+   * @param envelope The gains.
+   */
+  public void applyEnvelope(long startS, long stopS, Envelope envelope)
+  {
+    stopS = Math.min(stopS, sampleAmount - 1);
+    if(codec == null || startS < 0 || startS > stopS)
+      return;
 
-    int nToWriteS = IO_SIZE;
+    // Floats may be above 1, they are only kept finite
+    float limit = floatingPoint ? Float.MAX_VALUE : 1;
 
-    if(alpha == 0)
+    changing();
+    try
+    {
+      GainEngine.getInstance().apply(memoryHandler, codec, bytesPerSample * channels, samplesToBytes(startS), samplesToBytes(stopS + 1), envelope, -limit, limit);
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+    }
+    finally
     {
-      toWrite = ByteBuffer.wrap(new byte[(int)samplesToBytes(nToWriteS)]);
-      toWrite.order(ByteOrder.LITTLE_ENDIAN);
+      changed(startS, stopS + 1, stopS + 1);
     }
+  }
 
-    for(long iS = startS; iS < stopS; iS++)
+  /**
+   * Returns summaries of the samples, for drawing them without reading them.
+   * They are computed the first time, which reads all samples once, and then
+   * kept up to date as the samples change.
+   * 
+   * @return The summaries.
+   */
+  public PeakPyramid getPeaks()
+  {
+    if(peaks == null)
     {
-      if((stopS - iS + 1) < IO_SIZE)
+      synchronized(this)
       {
-        nToWriteS = (int)(stopS - iS + 1);
-        if(alpha == 0)
+        if(peaks == null)
         {
-          toWrite = ByteBuffer.wrap(new byte[(int)samplesToBytes(nToWriteS)]);
-          toWrite.order(ByteOrder.LITTLE_ENDIAN);
+          peaks = new PeakPyramid(this);
+
+          File source = peakSource;
+          if(source != null)
+            PeakCache.save(source, peaks);
         }
       }
-      
-      if(alpha != 0)
+    }
+
+    return peaks;
+  }
+
+  /**
+   * Returns the summaries of the samples if they are ready. Otherwise they are
+   * computed in a background thread, in which <code>ready</code> is run when
+   * they are, and null is returned. Unlike {@link InternalFormat#getPeaks()}
+   * this never reads all samples in the calling thread.
+   * 
+   * @param ready Run when the summaries are ready.
+   * @return The summaries, or null if they are not ready yet.
+   */
+  public PeakPyramid getPeaks(Runnable ready)
+  {
+    PeakPyramid pyramid = peaks;
+    if(pyramid != null)
+      return pyramid;
+
+    synchronized(this)
+    {
+      if(peaks != null)
+        return peaks;
+
+      if(peakListeners == null)
+      {
+        peakListeners = new ArrayList<Runnable>();
+
+        Thread thread = new Thread(this::buildPeaks, "apes-peaks");
+        thread.setDaemon(true);
+        thread.start();
+      }
+
+      peakListeners.add(ready);
+    }
+
+    return null;
+  }
+
+  /**
+   * Computes the summaries, again if the samples changed meanwhile, and tells
+   * the listeners that they are ready.
+   */
+  private void buildPeaks()
+  {
+    List<Runnable> listeners;
+    File source = null;
+
+    while(true)
+    {
+      int version;
+      synchronized(this)
+      {
+        version = peakVersion;
+      }
+
+      PeakPyramid pyramid = new PeakPyramid(this);
+
+      synchronized(this)
       {
-        toWrite = ByteBuffer.wrap(getSamples(iS, iS + nToWriteS));
-        toWrite.order(ByteOrder.LITTLE_ENDIAN);
+        if(version != peakVersion)
+          continue;
 
-        for(int index = 0; index < nToWriteS; ++index)
+        if(peaks == null)
         {
-          for(int C = 0; C < channels; C++)
-          {
-            switch (bytesPerSample)
-            {
-              case 2:
-                toWrite.putShort((int)samplesToBytes(index) + C*2, (short)Math.round(toWrite.getShort((int)samplesToBytes(index) + C*2) * alpha));
-                break;
-              case 4:
-                toWrite.putInt((int)samplesToBytes(index) + C*4, Math.round(toWrite.getInt((int)samplesToBytes(index) + C*4) * alpha));
-                break;
-              default:
-                System.out.println("BAD BYTES PER SAMPLE IN INTERNAL FORMAT WHILE SCALING");
-                System.exit(1);
-            }
-          }
+          peaks = pyramid;
+          source = peakSource;
         }
+
+        listeners = peakListeners;
+        peakListeners = null;
+        break;
       }
-      setSamples(samplesToBytes(iS), toWrite.array());
-      iS += nToWriteS;
     }
+
+    if(source != null)
+      PeakCache.save(source, peaks);
+
+    for(Runnable listener : listeners)
+      listener.run();
+  }
+
+  /**
+   * Tells the internal format that its samples are those of
+   * <code>file</code>. If the peaks of the file are in the cache they are
+   * used, otherwise they are saved there once they have been computed, unless
+   * the samples are changed before that. See {@link PeakCache}.
+   * 
+   * @param file The file the samples were read from.
+   */
+  public void usePeakCache(File file)
+  {
+    PeakPyramid cached = PeakCache.load(this, file);
+
+    synchronized(this)
+    {
+      if(cached != null && peaks == null)
+        peaks = cached;
+      else
+        peakSource = file;
+    }
+  }
+
+  /**
+   * Must be called before the samples are changed, and followed by
+   * {@link InternalFormat#changed changed}.
+   */
+  private synchronized void changing()
+  {
+    peakVersion++;
+  }
+
+  /**
+   * Updates the summaries, if there are any, after the samples from
+   * <code>fromS</code> to <code>oldToS</code> have been replaced by the
+   * samples from <code>fromS</code> to <code>newToS</code>.
+   */
+  private void changed(long fromS, long oldToS, long newToS)
+  {
+    PeakPyramid pyramid;
+
+    synchronized(this)
+    {
+      peakVersion++;
+      pyramid = peaks;
+      peakSource = null;
+    }
+
+    if(pyramid != null && fromS >= 0 && fromS <= oldToS && fromS <= newToS)
+      pyramid.replace(fromS, oldToS, newToS);
   }
 
   /**
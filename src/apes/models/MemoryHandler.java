@@ -1,456 +1,2321 @@
 package apes.models;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import apes.interfaces.PageStore;
+import apes.interfaces.ReplacementPolicy;
+import apes.models.memory.BufferPool;
+import apes.models.memory.ClockPolicy;
+import apes.models.memory.Compactor;
+import apes.models.memory.CompressedPageStore;
+import apes.models.memory.MappedFile;
+import apes.models.memory.MemoryStatistics;
+import apes.models.memory.PageTree;
+import apes.models.memory.Prefetcher;
+import apes.models.memory.RawPageStore;
+import apes.models.memory.Reaper;
+import apes.models.memory.RiceCodec;
+import apes.models.memory.SegmentedLruPolicy;
+import apes.models.memory.SwapFile;
+import apes.models.memory.TwoQueuePolicy;
+import apes.models.memory.WriteBehind;
 
 
 /**
- * This is not a class.
+ * <p>
+ * Keeps large amounts of data on disk and swaps parts of it into memory when
+ * needed.
+ * </p>
+ * <p>
+ * The memory is a piece table. Each piece refers to a range of a page, and
+ * pages are reference counted and may be shared by several handlers. Cutting,
+ * copying and pasting between handlers only moves pieces around, no data is
+ * copied. A shared page is copied first when someone writes to it.
+ * </p>
+ * <p>
+ * Frames keep their data in direct buffers from the {@link BufferPool}, so
+ * swapping a page in or out copies between the mapped swap file and the
+ * buffer without going through the Java heap. All buffers, including the
+ * spares used by the write behind thread and the prefetcher, are allocated
+ * when the frame table is created and are part of the budget.
+ * </p>
+ * <p>
+ * A memory handler may be used from several threads at once. Changes to the
+ * piece table take a write lock on the handler, while reads and writes of
+ * data only take its read lock, so playback is never held up by a long edit.
+ * The data of each page is guarded by one of {@link MemoryHandler#STRIPES}
+ * striped locks, and frames are pinned while they are copied to or from so
+ * that they are not evicted.
+ * </p>
+ * <p>
+ * Page sizes are always a multiple of the alignment given to the constructor,
+ * so as long as all indexes are too, no sample is split between two pages.
+ * Editing leaves small pages behind, which the {@link Compactor} merges again
+ * when the handler has not been used for a while.
+ * </p>
+ * <p>
+ * All handlers share one frame table, sized by the "memory_budget" option, so
+ * the program as a whole never keeps much more than the budget in memory
+ * however many files are open. Each handler has a {@link Priority}, and pages
+ * of handlers with a lower priority are evicted first.
+ * </p>
+ * <p>
+ * Small documents never touch the swap file. Until a handler grows past the
+ * "memory_resident_limit" option, each of its pages has a frame of its own
+ * outside the frame table that is never evicted. When the limit is passed,
+ * the pages are handed to the page store and the handler is paged from then
+ * on.
+ * </p>
+ * <p>
+ * A file can be used as the data of a handler directly, see
+ * {@link MemoryHandler#map map}. Its pages are read from the mapped file, and
+ * a page that is changed is moved to the page store when it is evicted, so the
+ * file itself is never written.
+ * </p>
+ * <p>
+ * Hits, misses, evictions, swapped bytes and the layout of the piece table
+ * are counted in a {@link MemoryStatistics} of each handler, and in one for
+ * all handlers, which is registered with JMX.
+ * </p>
  * 
  * @author Daniel Kvick (kvick@student.chalmers.se)
  */
 public class MemoryHandler implements Serializable
 {
-  private final int PAGE_SIZE = 100000; // Magic number.
+  /**
+   * Number of locks guarding page data.
+   */
+  public static final int STRIPES = 64;
+
+  /**
+   * The page data locks. A page uses the lock given by its identity.
+   */
+  private static final ReadWriteLock[] stripes = new ReadWriteLock[STRIPES];
+
+  /**
+   * Guards the frame table, the replacement policy, frame pins and
+   * priorities.
+   */
+  private static final Object frameLock = new Object();
+
+  /**
+   * The frames shared by all handlers. Created with the first handler.
+   */
+  private static Frame[] frameTable = null;
+
+  /**
+   * Decides which frame to evict.
+   */
+  private static ReplacementPolicy policy;
+
+  /**
+   * Number of frames held by handlers of each priority.
+   */
+  private static int[] resident = new int[Priority.values().length];
+
+  /**
+   * Statistics of all handlers.
+   */
+  private static final MemoryStatistics total = new MemoryStatistics(null);
+
+  /**
+   * Where all pages are kept when swapped out.
+   */
+  private static PageStore store = null;
+
+  static
+  {
+    for(int i = 0; i < STRIPES; i++)
+      stripes[i] = new ReentrantReadWriteLock();
+
+    total.register("all");
+  }
+
+  private final int PAGE_SIZE;
+
+  private final int FRAME_NUM;
+
+  /**
+   * All page boundaries are multiples of this.
+   */
+  private final int ALIGNMENT;
+
+  /**
+   * Bytes per sample and number of channels of the data, given to the store.
+   */
+  private final int SAMPLE_BYTES, CHANNELS;
+
+  /**
+   * Pages smaller than this are merged with their neighbours.
+   */
+  private final int MIN_PAGE_SIZE;
+
+  /**
+   * Handlers larger than this are paged.
+   */
+  private final long RESIDENT_LIMIT;
+
+  /**
+   * Most pieces looked at in each compaction step.
+   */
+  private static final int COMPACT_STEP = 64;
+
+  /**
+   * How willingly pages of this handler are evicted.
+   */
+  private Priority priority;
+
+  /**
+   * True if new pages are swapped, false while they are kept in memory.
+   */
+  private boolean paged;
+
+  /**
+   * What this handler has done.
+   */
+  private MemoryStatistics statistics;
+
+  /**
+   * All pieces, indexed by byte offset.
+   */
+  private PageTree<Piece> pageTable;
+
+  /**
+   * Guards <code>pageTable</code> and the pieces in it.
+   */
+  private ReadWriteLock lock;
+
+  /**
+   * Index after the last read. Used to detect sequential reading.
+   */
+  private long nextRead;
+
+  /**
+   * Number of sequential reads in a row.
+   */
+  private int sequentialReads;
+
+  /**
+   * Pages up to this index have been scheduled for prefetching.
+   */
+  private long prefetchedTo;
+
+  /**
+   * Time of the last read, in nanoseconds.
+   */
+  private long lastReadTime;
+
+  /**
+   * Average number of bytes read per nanosecond when reading sequentially.
+   */
+  private double readRate;
+
+  /**
+   * Time of the last use, in milliseconds.
+   */
+  private volatile long lastUse;
+
+  /**
+   * Compaction continues from this index.
+   */
+  private long compactFrom;
+
+  /**
+   * Compacts this handler in the compactor thread.
+   */
+  private CompactTask compactTask;
+
+  /**
+   * Creates a new <code>MemoryHandler</code> for data of single bytes.
+   */
+  public MemoryHandler()
+  {
+    this(1, 1);
+  }
+
+  /**
+   * Creates a new <code>MemoryHandler</code> for interleaved samples. Page
+   * boundaries are multiples of <code>sampleBytes * channels</code>. Memory
+   * budget, page size and replacement policy are taken from the configuration.
+   * 
+   * @param sampleBytes Bytes per sample.
+   * @param channels Number of channels.
+   */
+  public MemoryHandler(int sampleBytes, int channels)
+  {
+    Config config = Config.getInstance();
+    int frameSize;
+
+    synchronized(frameLock)
+    {
+      if(frameTable == null)
+      {
+        // A page must fit in a frame and in a segment of the swap file
+        int pageSize = Math.max(4096, Math.min(config.getIntOption("memory_page_size"), SwapFile.SEGMENT_SIZE));
+
+        // The budget is spent on buffers of one page each. One in five is a
+        // spare, for pages on their way to disk and pages read ahead.
+        int buffers = Math.max(5, config.getIntOption("memory_budget") / pageSize);
+        int frames = buffers - buffers / 5;
+
+        BufferPool.getInstance().configure(pageSize, buffers, Math.max(1, buffers / 10));
+
+        frameTable = new Frame[frames];
+        for(int i = 0; i < frames; i++)
+          frameTable[i] = new Frame(i);
+
+        policy = createPolicy(config.getOption("memory_policy"), frames);
+      }
+
+      FRAME_NUM = frameTable.length;
+      frameSize = BufferPool.getInstance().getCapacity();
+    }
+
+    SAMPLE_BYTES = Math.max(sampleBytes, 1);
+    CHANNELS = Math.max(channels, 1);
+    ALIGNMENT = SAMPLE_BYTES * CHANNELS;
+    PAGE_SIZE = Math.max(ALIGNMENT, frameSize - frameSize % ALIGNMENT);
+    MIN_PAGE_SIZE = PAGE_SIZE / 2;
+    RESIDENT_LIMIT = config.getIntOption("memory_resident_limit");
+    paged = RESIDENT_LIMIT <= 0;
+    compactTask = new CompactTask();
+    pageTable = new PageTree<Piece>();
+    lock = new ReentrantReadWriteLock();
+    priority = Priority.NORMAL;
+    statistics = new MemoryStatistics(total);
+  }
+
+  /**
+   * Sets how willingly pages of this handler are evicted. Pages of handlers
+   * with a lower priority are always evicted before those with a higher, as
+   * long as there are any.
+   * 
+   * @param priority The priority.
+   */
+  public void setPriority(Priority priority)
+  {
+    synchronized(frameLock)
+    {
+      if(this.priority == priority)
+        return;
+
+      for(Frame frame : frameTable)
+      {
+        if(frame.owner == this)
+        {
+          resident[this.priority.ordinal()]--;
+          resident[priority.ordinal()]++;
+        }
+      }
+
+      this.priority = priority;
+    }
+  }
+
+  /**
+   * Returns the priority of this handler.
+   * 
+   * @return The priority.
+   */
+  public Priority getPriority()
+  {
+    synchronized(frameLock)
+    {
+      return priority;
+    }
+  }
+
+  /**
+   * Returns the statistics of this handler.
+   * 
+   * @return The statistics.
+   */
+  public MemoryStatistics getStatistics()
+  {
+    return statistics;
+  }
+
+  /**
+   * Returns the statistics of all handlers together.
+   * 
+   * @return The statistics.
+   */
+  public static MemoryStatistics getTotalStatistics()
+  {
+    return total;
+  }
+
+  /**
+   * Returns the number of bytes in memory, for all handlers.
+   * 
+   * @return Bytes in frames.
+   */
+  public static long getResidentMemory()
+  {
+    long bytes = 0;
+
+    synchronized(frameLock)
+    {
+      if(frameTable != null)
+      {
+        for(Frame frame : frameTable)
+        {
+          if(frame.page != null)
+            bytes += frame.page.length;
+        }
+      }
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Returns a replacement policy.
+   * 
+   * @param name Name of policy, "clock", "2q" or "slru".
+   * @param frames Number of frames.
+   * @return The policy. Unknown names give CLOCK.
+   */
+  private static ReplacementPolicy createPolicy(String name, int frames)
+  {
+    if("2q".equals(name))
+      return new TwoQueuePolicy(frames);
+    if("slru".equals(name))
+      return new SegmentedLruPolicy(frames);
+
+    return new ClockPolicy(frames);
+  }
+
+  /**
+   * Returns the store that pages are swapped out to. Decided by the
+   * "memory_compression" option the first time it is called: "off" stores
+   * pages as they are, "fast" and "best" compress them, favouring speed or
+   * size. The statistics of a compressed store are registered with JMX.
+   * 
+   * @return The store.
+   * @throws IOException If the swap file could not be created.
+   */
+  public static synchronized PageStore getPageStore() throws IOException
+  {
+    if(store == null)
+    {
+      String compression = Config.getInstance().getOption("memory_compression");
+
+      if("fast".equals(compression) || "best".equals(compression))
+      {
+        CompressedPageStore compressed = new CompressedPageStore(new RiceCodec("best".equals(compression)));
+
+        compressed.register();
+        store = compressed;
+      }
+      else
+        store = new RawPageStore();
+    }
+
+    return store;
+  }
+
+  /**
+   * Creates a page of <code>length</code> bytes for the data of this handler.
+   * 
+   * @param length Length of page.
+   * @return The page.
+   * @throws IOException IOException
+   */
+  private Page newPage(long length) throws IOException
+  {
+    if(paged)
+      return new Page(length, SAMPLE_BYTES, CHANNELS);
+
+    Page page = new Page(length);
+    new Frame(-1).load(page, null);
+
+    return page;
+  }
+
+  /**
+   * Makes the handler paged if it will be larger than
+   * {@link #RESIDENT_LIMIT} bytes. All pages that only this handler uses are
+   * given to the page store. The write lock must be held.
+   * 
+   * @param length The coming length of the handler.
+   * @throws IOException IOException
+   */
+  private void grow(long length) throws IOException
+  {
+    if(paged || length <= RESIDENT_LIMIT)
+      return;
+
+    paged = true;
+
+    for(PageTree.Entry<Piece> entry : pageTable.entries(0, pageTable.length()))
+    {
+      Page page = entry.getValue().page;
+
+      if(!page.isShared())
+        page.page(SAMPLE_BYTES, CHANNELS);
+    }
+  }
+
+  /**
+   * Inserts <code>length</code> bytes of <code>file</code>, starting at
+   * <code>offset</code>, at <code>index</code>. Nothing is read until the
+   * data is used. The file must not change while the handler uses it.
+   * 
+   * @param index Position in memory where to insert the data.
+   * @param file The file.
+   * @param offset Offset in the file of the first byte.
+   * @param length Amount of bytes, should be a multiple of the alignment.
+   * @return Returns true if the data was inserted, otherwise false.
+   * @throws IOException If the file could not be mapped.
+   */
+  public boolean map(long index, File file, long offset, long length) throws IOException
+  {
+    if(length <= 0)
+      return false;
+
+    MappedFile base = new MappedFile(file, offset, length);
+
+    lock.writeLock().lock();
+    try
+    {
+      if(index < 0 || index > pageTable.length())
+        return false;
+
+      grow(pageTable.length() + length);
+      split(index);
+
+      // Pages like those of createPages
+      for(long at = 0; at < length;)
+      {
+        long size = Math.min(length - at, PAGE_SIZE);
+
+        pageTable.insert(index + at, new Piece(new Page(base, at, size, SAMPLE_BYTES, CHANNELS), 0, size), size);
+        at += size;
+      }
+
+      used();
+      return true;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns true if the handler is paged, false if all its data is kept in
+   * memory.
+   * 
+   * @return True if paged.
+   */
+  public boolean isPaged()
+  {
+    lock.readLock().lock();
+    try
+    {
+      return paged;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the size of a full page. New pages start at multiples of it, so
+   * ranges that are cut there share few pages.
+   * 
+   * @return Page size in bytes.
+   */
+  public int getPageSize()
+  {
+    return PAGE_SIZE;
+  }
+
+  public long getUsedMemory()
+  {
+    lock.readLock().lock();
+    try
+    {
+      return pageTable.length();
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  public boolean free(long index, long bytes) throws IOException
+  {
+    lock.writeLock().lock();
+    try
+    {
+      if(index < 0 || index + bytes > pageTable.length() || bytes <= 0)
+        return false;
+
+      split(index);
+      split(index + bytes);
+
+      for(Piece piece : pageTable.remove(index, bytes))
+      {
+        piece.page.release();
+      }
+
+      used();
+      return true;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Allocates new memory and effectively inserts it at the given index.
+   * Inserted data is to be considered uninitialized.
+   * 
+   * @param index Position in memory where to add new memory.
+   * @param bytes Amount of data to allocate, in INTEGER_BYTES.
+   * @return Returns true if allocation succeeded, otherwise false.
+   * @throws IOException IOException
+   */
+  public boolean malloc(long index, long bytes) throws IOException
+  {
+    lock.writeLock().lock();
+    try
+    {
+      if(index < 0 || index > pageTable.length() || bytes <= 0)
+        return false;
+
+      grow(pageTable.length() + bytes);
+      split(index);
+      createPages(index, bytes);
+
+      used();
+      return true;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Makes sure that <code>index</code> is on a piece boundary by splitting the
+   * piece containing it in two. Both halves refer to the same page. The write
+   * lock must be held.
+   * 
+   * @param index The index to split at.
+   */
+  private void split(long index)
+  {
+    PageTree.Entry<Piece> entry = pageTable.find(index);
+
+    if(entry == null || entry.getStart() == index)
+      return;
+
+    Piece piece = entry.getValue();
+    long fstSize = index - entry.getStart();
+
+    pageTable.remove(entry.getStart(), entry.getLength());
+    pageTable.insert(entry.getStart(), new Piece(piece.page, piece.offset, fstSize), fstSize);
+    pageTable.insert(index, new Piece(piece.page, piece.offset + (int)fstSize, entry.getLength() - fstSize), entry.getLength() - fstSize);
+
+    // One more piece refers to the page
+    piece.page.retain();
+  }
+
+  /**
+   * Creates pages for <code>amount</code> bytes and inserts them at
+   * <code>index</code>, which must be on a piece boundary.
+   * 
+   * @param index Where to insert the pages.
+   * @param amount Amount of bytes.
+   * @throws IOException IOException
+   */
+  private void createPages(long index, long amount) throws IOException
+  {
+    if(amount < 1 || index < 0)
+      return;
+
+    // Pages fill a frame each, the last one takes the rest
+    for(long at = 0; at < amount; at += PAGE_SIZE)
+    {
+      long size = Math.min(amount - at, PAGE_SIZE);
+      pageTable.insert(index + at, new Piece(newPage(size), 0, size), size);
+    }
+  }
+
+  /**
+   * Makes sure that <code>piece</code> is the only user of its page, by
+   * copying the part of the page it refers to into a new page if it is shared.
+   * The write lock must be held.
+   * 
+   * @param piece The piece that is to be written to.
+   * @throws IOException IOException
+   */
+  private void unshare(Piece piece) throws IOException
+  {
+    if(!piece.page.isShared())
+      return;
+
+    // Nobody else knows about the new page yet
+    Page page = newPage(piece.length);
+
+    // A page that is not in memory is copied within the store, otherwise
+    // from frame to frame
+    if(!piece.page.copyTo(page, piece.offset))
+    {
+      Frame target = pin(page);
+      Frame frame = pin(piece.page);
+      piece.page.lock().readLock().lock();
+      try
+      {
+        target.put(0, frame.view(piece.offset, (int)piece.length));
+        target.dirty(0, (int)piece.length);
+      }
+      finally
+      {
+        piece.page.lock().readLock().unlock();
+        unpin(frame);
+        unpin(target);
+      }
+    }
+
+    piece.page.release();
+    piece.page = page;
+    piece.offset = 0;
+  }
+
+  public byte[] read(long index, int amount) throws IOException
+  {
+    byte[] buf = new byte[amount];
+    if(!read(index, buf, 0, amount))
+      return null;
+
+    return buf;
+  }
+
+  /**
+   * Reads <code>amount</code> bytes at <code>index</code> into
+   * <code>buf</code>, starting at <code>start</code>.
+   * 
+   * @param index Index of the first byte.
+   * @param buf Array to read into.
+   * @param start Index in <code>buf</code> of the first byte.
+   * @param amount Amount of bytes.
+   * @return True if the bytes were read, false if they are out of range.
+   * @throws IOException IOException
+   */
+  public boolean read(long index, byte[] buf, int start, int amount) throws IOException
+  {
+    return read(index, ByteBuffer.wrap(buf, start, amount));
+  }
+
+  /**
+   * Reads bytes at <code>index</code> into <code>target</code> until it is
+   * full. The position of <code>target</code> is advanced.
+   * 
+   * @param index Index of the first byte.
+   * @param target Buffer to read into.
+   * @return True if the bytes were read, false if they are out of range.
+   * @throws IOException IOException
+   */
+  public boolean read(long index, ByteBuffer target) throws IOException
+  {
+    lock.readLock().lock();
+    try
+    {
+      if(index < 0 || index + target.remaining() > pageTable.length())
+        return false;
+
+      readAhead(index, target.remaining());
+      lastUse = System.currentTimeMillis();
+
+      while(target.hasRemaining())
+      {
+        PageTree.Entry<Piece> entry = pageTable.find(index);
+        Piece piece = entry.getValue();
+        Frame frame = pin(piece.page);
+
+        int offset = piece.offset + (int)(index - entry.getStart());
+        int length = (int)Math.min(entry.getEnd() - index, target.remaining());
+
+        piece.page.lock().readLock().lock();
+        try
+        {
+          target.put(frame.view(offset, length));
+        }
+        finally
+        {
+          piece.page.lock().readLock().unlock();
+          unpin(frame);
+        }
+
+        index += length;
+      }
+
+      return true;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * <p>
+   * Returns a read-only view of the bytes at <code>index</code>, without
+   * copying them. The view ends at the end of the page holding
+   * <code>index</code>, so it may be shorter than <code>amount</code>.
+   * </p>
+   * <p>
+   * The frame behind the view is pinned and its page kept until the slice is
+   * closed, which must be done when the view is no longer used. The view does
+   * not change if the data is written to meanwhile, the writer gets a copy of
+   * the page instead.
+   * </p>
+   * 
+   * @param index Index of the first byte.
+   * @param amount Largest number of bytes wanted.
+   * @return The slice, or null if <code>index</code> is out of range.
+   * @throws IOException IOException
+   */
+  public Slice slice(long index, long amount) throws IOException
+  {
+    lock.readLock().lock();
+    try
+    {
+      if(index < 0 || index >= pageTable.length() || amount < 1)
+        return null;
+
+      PageTree.Entry<Piece> entry = pageTable.find(index);
+      Piece piece = entry.getValue();
+
+      int offset = piece.offset + (int)(index - entry.getStart());
+      int length = (int)Math.min(entry.getEnd() - index, amount);
+
+      Frame frame = pin(piece.page);
+
+      // Writes must copy the page while the view uses it
+      piece.page.retain();
+      Slice slice = new Slice(piece.page, frame, offset, length);
+
+      readAhead(index, length);
+      return slice;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Writes <code>amount</code> bytes at <code>index</code> to
+   * <code>channel</code>. Pages that are not in memory are written straight
+   * from the page store or mapped file when the store can do that, without
+   * being swapped in.
+   * 
+   * @param index Index of the first byte.
+   * @param amount Amount of bytes.
+   * @param channel The channel to write to.
+   * @return True if the data was written, false if out of range.
+   * @throws IOException If the channel could not be written to.
+   */
+  public boolean transferTo(long index, long amount, WritableByteChannel channel) throws IOException
+  {
+    lock.readLock().lock();
+    try
+    {
+      if(index < 0 || amount < 0 || index + amount > pageTable.length())
+        return false;
+
+      for(PageTree.Entry<Piece> entry : pageTable.entries(index, amount))
+      {
+        Piece piece = entry.getValue();
+
+        long start = Math.max(index, entry.getStart());
+        int offset = piece.offset + (int)(start - entry.getStart());
+        int length = (int)(Math.min(index + amount, entry.getEnd()) - start);
+
+        if(piece.page.transferTo(offset, length, channel))
+          continue;
+
+        Frame frame = pin(piece.page);
+        piece.page.lock().readLock().lock();
+        try
+        {
+          ByteBuffer view = frame.view(offset, length);
+          while(view.hasRemaining())
+            channel.write(view);
+        }
+        finally
+        {
+          piece.page.lock().readLock().unlock();
+          unpin(frame);
+        }
+      }
+
+      return true;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  public void write(long index, byte[] data) throws IOException
+  {
+    write(index, data, 0, data.length);
+  }
+
+  /**
+   * Writes <code>amount</code> bytes of <code>data</code>, starting at
+   * <code>start</code>, to <code>index</code>.
+   * 
+   * @param index Index of the first byte.
+   * @param data Array to write from.
+   * @param start Index in <code>data</code> of the first byte.
+   * @param amount Amount of bytes.
+   * @throws IOException IOException
+   */
+  public void write(long index, byte[] data, int start, int amount) throws IOException
+  {
+    if(amount < 1)
+      return;
+
+    lock.readLock().lock();
+    try
+    {
+      if(index < 0 || index + amount > pageTable.length())
+        return;
+
+      lastUse = System.currentTimeMillis();
+      int offset = start;
+      int end = start + amount;
+      int targetPos;
+
+      while(offset < end)
+      {
+        PageTree.Entry<Piece> entry = pageTable.find(index);
+        if(entry == null)
+          return;
+
+        Piece piece = entry.getValue();
+        if(piece.page.isShared())
+        {
+          unshareAt(index);
+          continue;
+        }
+
+        Frame frame = pin(piece.page);
+        targetPos = (int)(index - entry.getStart());
+
+        int length = (int)Math.min(piece.length - targetPos, end - offset);
+
+        piece.page.lock().writeLock().lock();
+        try
+        {
+          frame.put(piece.offset + targetPos, data, offset, length);
+          frame.dirty(piece.offset + targetPos, piece.offset + targetPos + length);
+        }
+        finally
+        {
+          piece.page.lock().writeLock().unlock();
+          unpin(frame);
+        }
+
+        index += length;
+        offset += length;
+      }
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Unshares the piece at <code>index</code>. Must be called with the read
+   * lock held, which is let go while the write lock is taken.
+   * 
+   * @param index Index in the piece.
+   * @throws IOException IOException
+   */
+  private void unshareAt(long index) throws IOException
+  {
+    lock.readLock().unlock();
+    lock.writeLock().lock();
+    try
+    {
+      // The piece may have changed while no lock was held
+      PageTree.Entry<Piece> entry = pageTable.find(index);
+      if(entry != null)
+        unshare(entry.getValue());
+    }
+    finally
+    {
+      lock.readLock().lock();
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Frees all memory. The handler is empty once this returns, but the pages
+   * are let go of by the {@link Reaper}, so this takes the same short time
+   * however large the handler is. The handler may be used again afterwards.
+   */
+  public void dispose()
+  {
+    PageTree<Piece> pieces;
+
+    lock.writeLock().lock();
+    try
+    {
+      pieces = pageTable;
+      pageTable = new PageTree<Piece>();
+      nextRead = 0;
+      prefetchedTo = 0;
+      compactFrom = 0;
+
+      used();
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+
+    if(!pieces.isEmpty())
+      Reaper.getInstance().schedule(new ReapTask(pieces));
+  }
+
+  /**
+   * Inserts <code>amount</code> bytes from <code>source</code>, starting at
+   * <code>start</code>, at <code>putAt</code>. The data is not copied, both
+   * handlers will share the pages until either writes to them.
+   * 
+   * @param source The handler to take data from.
+   * @param start Index in <code>source</code> of the first byte.
+   * @param amount Amount of bytes.
+   * @param putAt Index in this handler where to put the data.
+   * @return False if either range is out of bounds, true otherwise.
+   * @throws IOException If this handler could not grow.
+   */
+  public boolean transfer(MemoryHandler source, long start, long amount, long putAt) throws IOException
+  {
+    if(start < 0 || amount < 0 || putAt < 0)
+      return false;
+
+    List<Piece> pieces = new ArrayList<Piece>();
+
+    // Only one handler is locked at a time, so handlers that transfer to each
+    // other can not deadlock
+    source.lock.writeLock().lock();
+    try
+    {
+      if(source.pageTable.length() < start + amount)
+        return false;
+
+      source.split(start);
+      source.split(start + amount);
+
+      for(PageTree.Entry<Piece> entry : source.pageTable.entries(start, amount))
+      {
+        Piece piece = entry.getValue();
+        piece.page.retain();
+
+        pieces.add(new Piece(piece.page, piece.offset, piece.length));
+      }
+
+      source.used();
+    }
+    finally
+    {
+      source.lock.writeLock().unlock();
+    }
+
+    boolean inserted = false;
+
+    lock.writeLock().lock();
+    try
+    {
+      if(putAt > pageTable.length())
+        return false;
+
+      grow(pageTable.length() + amount);
+      split(putAt);
+
+      for(Piece piece : pieces)
+      {
+        pageTable.insert(putAt, piece, piece.length);
+        putAt += piece.length;
+      }
+
+      inserted = true;
+      used();
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+
+      // The pages are only kept by the pieces that were inserted
+      if(!inserted)
+      {
+        for(Piece piece : pieces)
+          piece.page.release();
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Marks the handler as used and schedules it for compaction, since the
+   * piece table may have been split.
+   */
+  private void used()
+  {
+    lastUse = System.currentTimeMillis();
+    statistics.layout(pageTable.size(), pageTable.length(), PAGE_SIZE);
+    Compactor.getInstance().schedule(compactTask);
+  }
+
+  /**
+   * Merges small pieces, looking at no more than {@link #COMPACT_STEP}
+   * pieces. Neighbouring pieces that follow each other in the same page are
+   * joined, other runs of pieces that fit in one page are copied into a new
+   * page if any of them is smaller than {@link #MIN_PAGE_SIZE}. Pieces of
+   * pages that are shared or in a mapped file are never copied, since the
+   * copy would be kept in memory next to the page instead of replacing it.
+   * The write lock must be held.
+   * 
+   * @return False if the whole handler has been compacted, true otherwise.
+   * @throws IOException IOException
+   */
+  private boolean compact() throws IOException
+  {
+    long index = compactFrom;
+
+    for(int step = 0; step < COMPACT_STEP; step++)
+    {
+      PageTree.Entry<Piece> entry = pageTable.find(index);
+      if(entry == null)
+      {
+        compactFrom = 0;
+        return false;
+      }
+
+      Piece piece = entry.getValue();
+      PageTree.Entry<Piece> next = pageTable.find(entry.getEnd());
+
+      // The pieces were split from each other and can just be joined
+      if(next != null && next.getValue().page == piece.page && piece.offset + piece.length == next.getValue().offset)
+      {
+        pageTable.remove(index, entry.getLength() + next.getLength());
+        pageTable.insert(index, new Piece(piece.page, piece.offset, piece.length + next.getLength()), piece.length + next.getLength());
+        piece.page.release();
+        continue;
+      }
+
+      // Find the pieces that fit in one page together with this one
+      long end = entry.getEnd();
+      boolean small = entry.getLength() < MIN_PAGE_SIZE;
+      int count = 1;
+
+      if(!piece.page.isMovable())
+        next = null;
+
+      while(next != null && next.getEnd() - index <= PAGE_SIZE && next.getValue().page.isMovable())
+      {
+        small |= next.getLength() < MIN_PAGE_SIZE;
+        end = next.getEnd();
+        count++;
+
+        next = pageTable.find(end);
+      }
+
+      if(count > 1 && small)
+        merge(index, end - index);
+
+      index = end;
+    }
+
+    compactFrom = index;
+    return true;
+  }
+
+  /**
+   * Copies the pieces in [index, index + length) into one new page. The
+   * write lock must be held.
+   * 
+   * @param index Index of the first piece.
+   * @param length Length of the pieces.
+   * @throws IOException IOException
+   */
+  private void merge(long index, long length) throws IOException
+  {
+    byte[] data = new byte[(int)length];
+
+    for(PageTree.Entry<Piece> entry : pageTable.entries(index, length))
+    {
+      Piece piece = entry.getValue();
+      Frame frame = pin(piece.page);
+
+      piece.page.lock().readLock().lock();
+      try
+      {
+        frame.get(piece.offset, data, (int)(entry.getStart() - index), (int)piece.length);
+      }
+      finally
+      {
+        piece.page.lock().readLock().unlock();
+        unpin(frame);
+      }
+    }
+
+    Page page = newPage(length);
+    Frame frame = pin(page);
+    frame.put(0, data, 0, data.length);
+    frame.dirty(0, data.length);
+    unpin(frame);
+
+    for(Piece piece : pageTable.remove(index, length))
+      piece.page.release();
+
+    pageTable.insert(index, new Piece(page, 0, length), length);
+  }
+
+  /**
+   * Detects sequential reading and schedules the pages after the read for
+   * prefetching. How far ahead depends on how fast the data is consumed
+   * compared to how long it takes to fetch a page.
+   * 
+   * @param index Index of the read.
+   * @param amount Amount of bytes read.
+   */
+  private synchronized void readAhead(long index, int amount)
+  {
+    long now = System.nanoTime();
+
+    if(index != nextRead)
+    {
+      sequentialReads = 0;
+      prefetchedTo = 0;
+    }
+    else
+    {
+      sequentialReads++;
+
+      long elapsed = now - lastReadTime;
+      if(elapsed > 0)
+        readRate = (readRate * 3 + amount / (double)elapsed) / 4;
+    }
+
+    nextRead = index + amount;
+    lastReadTime = now;
+
+    if(sequentialReads < 2)
+      return;
+
+    // Pages needed while one page is fetched, with some margin
+    long loadTime = Prefetcher.getInstance().getLoadTime();
+    int depth = (int)Math.ceil(readRate * loadTime / PAGE_SIZE) * 2 + 2;
+    depth = Math.min(depth, Math.max(2, FRAME_NUM / 4));
+
+    long windowEnd = nextRead + depth * (long)PAGE_SIZE;
+
+    // Wait until half the window is used
+    if(prefetchedTo >= nextRead + depth * (long)PAGE_SIZE / 2)
+      return;
+
+    long from = Math.max(prefetchedTo, nextRead);
+    for(PageTree.Entry<Piece> entry : pageTable.entries(from, windowEnd - from))
+    {
+      Page page = entry.getValue().page;
+
+      synchronized(page)
+      {
+        if(page.frame != null || page.fresh || page.prefetching || page.prefetched != null)
+          continue;
+
+        page.prefetching = true;
+        Prefetcher.getInstance().schedule(new PrefetchTask(page, page.version));
+      }
+    }
+
+    prefetchedTo = windowEnd;
+  }
+
+  /**
+   * Returns the frame holding <code>page</code>, swapping it in if it is not
+   * in memory. The frame is pinned and will not be evicted until
+   * {@link MemoryHandler#unpin unpin} is called.
+   * 
+   * @param page The page.
+   * @return The frame.
+   * @throws IOException IOException
+   */
+  private Frame pin(Page page) throws IOException
+  {
+    long start = System.nanoTime();
+    Frame frame;
+
+    synchronized(frameLock)
+    {
+      frame = page.frame;
+
+      // Another thread is swapping the page in, or out of its frame
+      while(frame != null && frame.loading)
+      {
+        awaitFrame();
+        frame = page.frame;
+      }
+
+      if(frame != null)
+      {
+        hit(frame);
+        frame.pins++;
+
+        return frame;
+      }
+
+      frame = reserve(page);
+    }
+
+    // The frame is reserved, so the old page is written back and the new one
+    // read without holding up other threads
+    MemoryStatistics previous = frame.statistics();
+    boolean evicted = false;
+    boolean loaded = false;
+
+    try
+    {
+      frame.evict();
+      evicted = true;
+
+      frame.fill(page, statistics);
+      loaded = true;
+    }
+    finally
+    {
+      synchronized(frameLock)
+      {
+        if(loaded)
+        {
+          if(frame.page != null)
+            previous.evicted();
+
+          frame.attach(page, this);
+          frame.clean();
+          policy.loaded(frame.index, page);
+        }
+        else
+        {
+          page.frame = null;
+          frame.pins--;
+
+          // The old page is kept if it could not be written back, otherwise
+          // the frame is given back empty
+          if(evicted)
+          {
+            frame.attach(null, null);
+            policy.freed(frame.index);
+          }
+          else
+            policy.reinstate(frame.index, frame.page);
+        }
+
+        frame.loading = false;
+        frameLock.notifyAll();
+      }
+    }
 
-  private final int FRAME_NUM = 100;
+    statistics.miss(System.nanoTime() - start);
+    return frame;
+  }
+
+  /**
+   * Lets <code>frame</code> be evicted again.
+   * 
+   * @param frame The frame.
+   */
+  private void unpin(Frame frame)
+  {
+    synchronized(frameLock)
+    {
+      frame.pins--;
+    }
+  }
 
-  private long usedMemory = 0;
+  /**
+   * Tells the policy that <code>frame</code> is used by this handler. The
+   * frame lock must be held.
+   * 
+   * @param frame The frame.
+   */
+  private void hit(Frame frame)
+  {
+    // Pages of small handlers are always in memory
+    if(frame.index < 0)
+      return;
 
-  private Frame[] frameTable;
+    // A shared page is kept as long as its most important user needs it
+    if(priority.compareTo(frame.owner.priority) > 0)
+      frame.own(this);
 
-  private List<Page> pageTable;
+    policy.accessed(frame.index);
+    statistics.hit();
+  }
 
-  public MemoryHandler()
+  /**
+   * Picks a frame to swap <code>page</code> into and reserves it. The frame
+   * is pinned and marked as loading, and both its page and <code>page</code>
+   * refer to it, so other threads wait for it instead of using or evicting
+   * it. The frame lock must be held.
+   * 
+   * @param page The page.
+   * @return The frame, still holding its old page.
+   * @throws IOException If all frames are pinned.
+   */
+  private Frame reserve(Page page) throws IOException
   {
-    frameTable = new Frame[FRAME_NUM];
-    pageTable = new LinkedList<Page>();
-    for(int i = 0; i < FRAME_NUM; i++)
-      frameTable[i] = new Frame();
+    final Priority lowest = lowestResident();
+
+    // Frames that are being copied to or from, and frames of handlers with a
+    // higher priority than needed, are passed over. If there is no other way,
+    // any frame that is not pinned is taken.
+    int index = policy.victim(i -> frameTable[i].pins == 0 && (frameTable[i].owner == null || frameTable[i].owner.priority == lowest));
+    if(index < 0)
+      index = policy.victim(i -> frameTable[i].pins == 0);
+    if(index < 0)
+      throw new IOException("All frames are in use");
+
+    Frame frame = frameTable[index];
+    frame.pins++;
+    frame.loading = true;
+    page.frame = frame;
+
+    return frame;
   }
 
-  public long getUsedMemory()
+  /**
+   * Waits until a frame that is loading is done. The frame lock must be held.
+   * 
+   * @throws IOException If interrupted.
+   */
+  private static void awaitFrame() throws IOException
   {
-    return usedMemory;
+    try
+    {
+      frameLock.wait();
+    }
+    catch(InterruptedException e)
+    {
+      throw new InterruptedIOException("Interrupted while waiting for a frame");
+    }
   }
 
-  public boolean free(long index, long bytes) throws IOException
+  /**
+   * Returns the lowest priority of any handler with pages in memory.
+   */
+  private static Priority lowestResident()
   {
-    if(index < 0 || index + bytes > usedMemory || bytes <= 0)
-      return false;
+    for(Priority priority : Priority.values())
+    {
+      if(resident[priority.ordinal()] > 0)
+        return priority;
+    }
+
+    return Priority.LOW;
+  }
 
-    int frameF = find(index);
-    int frameL = find(index + bytes - 1);
+  /**
+   * How willingly the pages of a handler are evicted when a frame is needed.
+   */
+  public enum Priority
+  {
+    /**
+     * Data that is seldom used, such as the clipboard and undo history.
+     */
+    LOW,
+
+    /**
+     * Open files that are not shown.
+     */
+    NORMAL,
+
+    /**
+     * The file that is shown and played.
+     */
+    HIGH
+  }
 
-    // Find new size
-    Frame fstFrame = (frameF == -1 ? swap(index) : frameTable[frameF]);
-    Frame lstFrame = (frameL == -1 ? swap(index + bytes - 1) : frameTable[frameL]);
+  /**
+   * A read-only view of data in a frame, see
+   * {@link MemoryHandler#slice slice}. The frame is pinned until the slice is
+   * closed.
+   */
+  public static class Slice implements Closeable
+  {
+    private Page page;
 
-    long firstIndex = fstFrame.page.index;
-    int fstSize = (int)(index - firstIndex);
-    int lstSize = (int)((lstFrame.data.length + lstFrame.page.index) - (index + bytes));
+    private Frame frame;
 
-    int size = fstSize + lstSize;
+    private ByteBuffer view;
 
-    // Destroy pages
-    List<Page> doomed = new ArrayList<Page>();
-    for(Page p : pageTable)
-      if(p.index >= firstIndex && p.index < index + bytes)
-        doomed.add(p);
-    
-    for(Page p : doomed)
+    private Slice(Page page, Frame frame, int offset, int length)
     {
-      destroyPage(p);
+      this.page = page;
+      this.frame = frame;
+      this.view = frame.view(offset, length);
     }
 
-    doomed.clear();
+    /**
+     * Returns the view. It may not be used after the slice is closed.
+     * 
+     * @return The view.
+     */
+    public ByteBuffer getBuffer()
+    {
+      return view;
+    }
 
-    if(size != 0)
+    /**
+     * Unpins the frame and lets go of the page. Does nothing if already
+     * closed.
+     * 
+     * @throws IOException IOException
+     */
+    public void close() throws IOException
     {
-      // Create pages
-      createPages(firstIndex, size);
-      byte[] data = new byte[size];
-      // Copy arrays
-      System.arraycopy(fstFrame.data, 0, data, 0, fstSize);
-      System.arraycopy(lstFrame.data, lstFrame.data.length - lstSize, data, fstSize, lstSize);
+      if(frame == null)
+        return;
+
+      synchronized(frameLock)
+      {
+        frame.pins--;
+      }
 
-      // Copy data
-      write(firstIndex, data);
+      page.release();
+
+      page = null;
+      frame = null;
+      view = null;
     }
-    
-    return true;
   }
 
-  /**
-   * Allocates new memory and effectively inserts it at the given index.
-   * Inserted data is to be considered uninitialized.
-   * 
-   * @param index Position in memory where to add new memory.
-   * @param bytes Amount of data to allocate, in INTEGER_BYTES.
-   * @return Returns true if allocation succeeded, otherwise false.
-   * @throws IOException IOException
-   */
-  // TODO: Fix small files.
-  public boolean malloc(long index, long bytes) throws IOException
+  private static class Frame
   {
-    if(index < 0 || index > usedMemory || bytes <= 0)
-      return false;
+    private Page page;
 
-    int frameI = find(index);
-    Frame frame;
-    // Not in memory
-    if(frameI == -1)
+    /**
+     * The handler that loaded the page, or null if the frame is empty.
+     */
+    private MemoryHandler owner;
+
+    /**
+     * Data of the page. Frames in the frame table always have a buffer from
+     * the {@link BufferPool}, other frames only while they hold a page.
+     */
+    private ByteBuffer data;
+
+    /**
+     * Index in the frame table, or -1 if the frame holds a page that is never
+     * evicted.
+     */
+    private final int index;
+
+    /**
+     * The range [dirtyStart, dirtyEnd) of <code>data</code> that has been
+     * changed since the page was loaded. Empty if dirtyStart >= dirtyEnd.
+     */
+    private int dirtyStart, dirtyEnd;
+
+    /**
+     * Number of threads using the frame. A pinned frame is never evicted.
+     */
+    private int pins;
+
+    /**
+     * True while the frame is reserved for a page that is being swapped in.
+     * Until then it may still hold the data of the page it had before.
+     */
+    private boolean loading;
+
+    public Frame(int index)
+    {
+      this.index = index;
+      clean();
+
+      if(index >= 0)
+        data = BufferPool.getInstance().acquire();
+    }
+
+    /**
+     * Writes the page of the frame back. If anything has changed, the buffer
+     * is handed to the write behind thread and a spare is taken from the pool
+     * in its place. The frame must be loaded with a new page afterwards.
+     */
+    private void evict() throws IOException
     {
-      // Doesn't exist
-      if((frame = swap(index)) == null)
+      if(page == null)
+        return;
+
+      // Nothing of a new page is on disk. It is not marked as written until
+      // the write is scheduled, so the store is never used before that.
+      boolean fresh;
+      synchronized(page)
       {
-        createPages(index, bytes);
-        return true;
+        fresh = page.fresh;
       }
-    }
-    else
-      frame = frameTable[frameI];
 
-    long firstIndex = frame.page.index;
-    long index1 = index + bytes;
+      if(fresh)
+      {
+        dirtyStart = 0;
+        dirtyEnd = (int)page.length;
+      }
 
-    if(frame.page.index == index)
-    {
-      createPages(index, bytes);
-      return true;
-    }
-    // Destroy old page
-    destroyPage(frame.page);
+      // A changed page of a mapped file is moved to the page store
+      if(dirtyStart < dirtyEnd && page.detach())
+      {
+        dirtyStart = 0;
+        dirtyEnd = (int)page.length;
+      }
 
-    // Create pages
-    createPages(firstIndex, bytes + frame.data.length);
+      if(dirtyStart < dirtyEnd)
+      {
+        PageStore store = getPageStore();
 
-    byte[] fst = new byte[(int)(index - firstIndex)];
-    byte[] lst = new byte[frame.data.length - fst.length];
+        if(store.wholePages())
+        {
+          dirtyStart = 0;
+          dirtyEnd = (int)page.length;
+        }
 
-    System.arraycopy(frame.data, 0, fst, 0, fst.length);
-    System.arraycopy(frame.data, fst.length, lst, 0, lst.length);
+        statistics().written(dirtyEnd - dirtyStart);
+        WriteBehind.getInstance().write(store, page.slot, data, dirtyStart, dirtyEnd, (int)page.length);
 
-    write(firstIndex, fst);
-    write(index1, lst);
+        data = index >= 0 ? BufferPool.getInstance().acquire() : null;
+      }
+      else if(index < 0)
+        data = null;
 
-    return true;
-  }
+      if(fresh)
+      {
+        synchronized(page)
+        {
+          page.fresh = false;
+        }
+      }
 
-  private Page[] createPages(long index, long amount) throws IOException
-  {
-    if(amount < 1 || index < 0)
-      return null;
+      clean();
+    }
+
+    /**
+     * Loads a new page that is kept in memory for good, in a buffer of its
+     * own. Such a frame is not in the frame table.
+     * 
+     * @param page The page, which must be new.
+     * @param owner The handler of the page, or null.
+     */
+    public void load(Page page, MemoryHandler owner)
+    {
+      attach(page, owner);
+
+      // New buffers are all zeros, just like the page
+      data = BufferPool.getInstance().allocate((int)page.length);
+      clean();
+    }
 
-    // Update indexes of pages after insertion point.
-    for(Page page : pageTable)
+    /**
+     * Makes the frame hold <code>page</code> instead of the page it held
+     * before, which is then swapped out. Only the references are changed.
+     * 
+     * @param page The new page, or null.
+     * @param owner The handler that loaded the page, or null.
+     */
+    private void attach(Page page, MemoryHandler owner)
     {
-      if(page.index >= index)
+      if(this.page != null && this.page.frame == this)
+        this.page.frame = null;
+
+      this.page = page;
+      if(page != null)
+        page.frame = this;
+
+      own(owner);
+    }
+
+    /**
+     * Reads <code>page</code> into the buffer of the frame. If the prefetcher
+     * has read the page already, its buffer is used instead and the buffer of
+     * the frame goes back to the pool.
+     * 
+     * @param page The page.
+     * @param statistics Where the read is counted.
+     * @throws IOException IOException
+     */
+    private void fill(Page page, MemoryStatistics statistics) throws IOException
+    {
+      ByteBuffer prefetched;
+      synchronized(page)
+      {
+        prefetched = page.prefetched;
+        page.prefetched = null;
+        page.version++;
+      }
+
+      if(prefetched != null)
+      {
+        BufferPool.getInstance().release(data);
+        data = prefetched;
+        statistics.read(page.length);
+        statistics.prefetched();
+        return;
+      }
+
+      data.clear();
+      if(page.fresh)
+        zero(data, (int)page.length);
+      else
       {
-        page.index += amount;
+        page.read(data);
+        statistics.read(page.length);
       }
     }
 
-    if(amount <= PAGE_SIZE)
+    /**
+     * Returns a read-only view of <code>length</code> bytes at
+     * <code>offset</code> in the frame.
+     */
+    public ByteBuffer view(int offset, int length)
     {
-      Page[] pages = new Page[1];
+      ByteBuffer view = data.asReadOnlyBuffer();
+      view.limit(offset + length);
+      view.position(offset);
+
+      return view.slice();
+    }
 
-      Page page = new Page(amount);
-      page.index = index;
+    /**
+     * Copies <code>length</code> bytes at <code>offset</code> in the frame
+     * into <code>target</code>, starting at <code>start</code>.
+     */
+    public void get(int offset, byte[] target, int start, int length)
+    {
+      ByteBuffer view = data.duplicate();
+      view.position(offset);
+      view.get(target, start, length);
+    }
 
-      pages[0] = page;
-      pageTable.add(page);
+    /**
+     * Copies <code>length</code> bytes from <code>source</code>, starting at
+     * <code>start</code>, to <code>offset</code> in the frame.
+     */
+    public void put(int offset, byte[] source, int start, int length)
+    {
+      ByteBuffer view = data.duplicate();
+      view.position(offset);
+      view.put(source, start, length);
+    }
 
-      usedMemory += amount;
+    /**
+     * Copies all of <code>source</code> to <code>offset</code> in the frame.
+     */
+    public void put(int offset, ByteBuffer source)
+    {
+      ByteBuffer view = data.duplicate();
+      view.position(offset);
+      view.put(source);
+    }
 
-      return pages;
+    /**
+     * Fills the first <code>length</code> bytes of <code>data</code> with
+     * zeros.
+     */
+    private static void zero(ByteBuffer data, int length)
+    {
+      ByteBuffer view = data.duplicate();
+      view.clear();
+      view.limit(length);
+
+      while(view.remaining() >= 8)
+        view.putLong(0);
+      while(view.hasRemaining())
+        view.put((byte)0);
     }
 
-    // Create and add pages
-    int numPages = (int)(amount / PAGE_SIZE);
-    Page[] pages = new Page[numPages];
-    for(int i = 0; i < pages.length - 1; i++)
+    /**
+     * Marks [start, end) as changed.
+     * 
+     * @param start First changed byte.
+     * @param end Byte after the last changed byte.
+     */
+    public void dirty(int start, int end)
     {
-      Page page = new Page(PAGE_SIZE);
-      // Set index
-      page.index = index + i * PAGE_SIZE;
+      dirtyStart = Math.min(dirtyStart, start);
+      dirtyEnd = Math.max(dirtyEnd, end);
+    }
 
-      // Add pages
-      pages[i] = page;
-      pageTable.add(page);
+    private void clean()
+    {
+      dirtyStart = Integer.MAX_VALUE;
+      dirtyEnd = 0;
     }
 
-    Page page = new Page(PAGE_SIZE + (amount % PAGE_SIZE));
-    page.index = index + (pages.length - 1) * PAGE_SIZE;
+    /**
+     * Empties the frame without writing it back.
+     */
+    public void clear()
+    {
+      if(index < 0)
+        data = null;
+
+      page.frame = null;
+      page = null;
+      own(null);
+
+      if(index >= 0)
+        policy.freed(index);
+    }
 
-    pageTable.add(page);
-    pages[pages.length - 1] = page;
+    /**
+     * Returns the statistics of the owner, or of all handlers if there is
+     * none.
+     */
+    private MemoryStatistics statistics()
+    {
+      return owner != null ? owner.statistics : total;
+    }
 
-    usedMemory += amount;
+    /**
+     * Makes <code>handler</code> the owner of the frame, whose priority then
+     * decides when the frame is evicted.
+     * 
+     * @param handler The new owner, or null.
+     */
+    public void own(MemoryHandler handler)
+    {
+      if(owner != null)
+        resident[owner.priority.ordinal()]--;
+      if(handler != null)
+        resident[handler.priority.ordinal()]++;
 
-    return pages;
+      owner = handler;
+    }
   }
 
   /**
-   * Removes a page from the system.
-   * 
-   * @param page Page to remove.
-   * @return The frame which contained the specified page. If no such frame
-   *         exists, returns null.
-   * @throws IOException IOException
+   * Compacts the handler a little at a time, when it is not in use.
    */
-  private Frame destroyPage(Page page) throws IOException
+  private class CompactTask implements Compactor.Task
   {
-    // Remove from page table
-    if(!pageTable.remove(page))
-      return null;
-    usedMemory -= page.tempFile.length();
-    
-    // Update indexes that comes after the one that was removed.
-    for(Page pageX : pageTable)
+    public boolean compact()
     {
-      if(pageX.index > page.index)
+      if(System.currentTimeMillis() - lastUse < Compactor.IDLE_TIME)
+        return true;
+
+      // Try again later rather than hold up the user
+      if(!lock.writeLock().tryLock())
+        return true;
+
+      try
+      {
+        boolean more = MemoryHandler.this.compact();
+
+        statistics.layout(pageTable.size(), pageTable.length(), PAGE_SIZE);
+        return more;
+      }
+      catch(IOException e)
       {
-        pageX.index -= page.tempFile.length();
+        e.printStackTrace();
+        return false;
       }
-    }
-    
-    // Close file.
-    page.file.close();
-    page.tempFile.delete();
-    
-    for(Frame f : frameTable)
-    {
-      if(f.page == page)
+      finally
       {
-        f.page = null;
-        f.timeStamp = Long.MIN_VALUE;
-
-        return f;
+        lock.writeLock().unlock();
       }
     }
-
-    return null;
   }
 
-  public byte[] read(long index, int amount) throws IOException
+  /**
+   * Releases the pages of a disposed handler in the reaper thread.
+   */
+  private static class ReapTask implements Reaper.Task
   {
-    Frame frame = null;
-    int frameI;
-    byte[] buf = new byte[amount];
-    int prevEndPos = 0;
+    /**
+     * The pieces that were in the handler. Nothing else refers to them.
+     */
+    private PageTree<Piece> pieces;
 
-    while(amount > 0)
+    public ReapTask(PageTree<Piece> pieces)
     {
-      frameI = find(index);
-
-      frame = (frameI == -1 ? swap(index) : frameTable[frameI]);
-
-      int offset = (int)(index - frame.page.index);
-      int length = frame.data.length - offset;
+      this.pieces = pieces;
+    }
 
-      if(length > amount)
-        length = amount;
-      System.arraycopy(frame.data, offset, buf, prevEndPos, length);
+    public void reap() throws IOException
+    {
+      for(Piece piece : pieces.values())
+        piece.page.release();
 
-      index += length;
-      prevEndPos += length;
-      amount -= length;
+      pieces = null;
     }
-    frame.timeStamp = System.currentTimeMillis();
-    return buf;
   }
 
-  public void write(long index, byte[] data) throws IOException
+  /**
+   * Fetches a page in the prefetcher thread. The data is only kept if the page
+   * has not been loaded or freed in the meantime.
+   */
+  private static class PrefetchTask implements Prefetcher.Task
   {
+    private Page page;
 
-    if(index < 0 || index + data.length > usedMemory || data.length < 1)
-      return;
-    Frame frame = null;
-    int frameI;
-    int offset = 0;
-    int targetPos;
+    /**
+     * Version of the page when the task was scheduled.
+     */
+    private int version;
 
-    while(offset < data.length)
-    {
-      frameI = find(index);
-      frame = (frameI == -1 ? swap(index) : frameTable[frameI]);
-      targetPos = (int)(index - frame.page.index);
+    private ByteBuffer data;
 
-      int length = Math.min(frame.data.length - targetPos, data.length - offset);
+    public PrefetchTask(Page page, int version)
+    {
+      this.page = page;
+      this.version = version;
+    }
 
-      System.arraycopy(data, offset, frame.data, targetPos, length);
+    public void fetch() throws IOException
+    {
+      // Pages are not read ahead when the spare buffers are needed for
+      // evictions
+      data = BufferPool.getInstance().tryAcquire();
+      boolean read = false;
+
+      // The buffer is given back and the page may be read ahead again,
+      // whatever happens
+      try
+      {
+        if(data != null)
+        {
+          page.read(data);
+          read = true;
+        }
+      }
+      finally
+      {
+        synchronized(page)
+        {
+          if(read && page.version == version && page.frame == null)
+          {
+            page.prefetched = data;
+          }
+          else if(data != null)
+          {
+            BufferPool.getInstance().release(data);
+            data = null;
+          }
+
+          page.prefetching = false;
+        }
+      }
+    }
 
-      index += length;
-      offset += length;
+    public void drop()
+    {
+      synchronized(page)
+      {
+        if(data != null && page.prefetched == data)
+        {
+          page.prefetched = null;
+          BufferPool.getInstance().release(data);
+        }
+      }
     }
-    frame.timeStamp = System.currentTimeMillis();
   }
 
-  public void dispose()
+  /**
+   * A range of a page.
+   */
+  private static class Piece
   {
-    try
-    {
-      free(0, usedMemory);
-    }
-    catch(Exception e)
+    private Page page;
+
+    /**
+     * Offset of the first byte in the page.
+     */
+    private int offset;
+
+    /**
+     * Length of piece in bytes.
+     */
+    private long length;
+
+    public Piece(Page page, int offset, long length)
     {
-      e.printStackTrace();
+      this.page = page;
+      this.offset = offset;
+      this.length = length;
     }
   }
 
   /**
-   * @param source
-   * @param start
-   * @param stop
-   * @param putAt
+   * A block of data in a slot of the page store, or in a mapped file. A page
+   * is shared by all pieces that refer to it, possibly in different handlers,
+   * and is removed when the last of them is gone.
    */
-  public void transfer(MemoryHandler source, long start, long amount, long putAt)
+  private static class Page
   {
-    if(start < 0 || source.usedMemory < start + amount || putAt > usedMemory)
-      return;
-
-    // Allocate memory
-    try
+    /**
+     * The slot in the page store, or -1 if the page is only in memory. The
+     * offset in <code>base</code> if that is set.
+     */
+    private long slot;
+
+    /**
+     * The mapped file holding the data of the page until it is changed, or
+     * null.
+     */
+    private MappedFile base;
+
+    /**
+     * Bytes per sample and number of channels of the data.
+     */
+    private int sampleBytes, channels;
+
+    /**
+     * Length of page in bytes.
+     */
+    private long length;
+
+    /**
+     * The frame holding this page, or null if swapped out.
+     */
+    private Frame frame;
+
+    /**
+     * Number of pieces referring to this page.
+     */
+    private int references;
+
+    /**
+     * True until the page has been written to the swap file the first time.
+     * Until then its content is all zeros.
+     */
+    private boolean fresh;
+
+    /**
+     * Data read by the prefetcher, or null.
+     */
+    private ByteBuffer prefetched;
+
+    /**
+     * True while a prefetch of this page is scheduled.
+     */
+    private boolean prefetching;
+
+    /**
+     * Changed each time the page is loaded or freed, so that the prefetcher
+     * can tell if the data it read is still valid.
+     */
+    private int version;
+
+    public Page(long l, int sampleBytes, int channels) throws IOException
     {
-      malloc(putAt, amount);
+      this(l);
+      this.sampleBytes = sampleBytes;
+      this.channels = channels;
+      slot = getPageStore().allocate(l, sampleBytes, channels);
+    }
 
-      // Copy memory
-      int rest = (int)amount;
-      for(int i = 0; i < amount; i += PAGE_SIZE)
-      {
-        int chunkSize = (int)Math.min(rest, PAGE_SIZE);
-        byte[] chunk = source.read(start + i, chunkSize);
-        write(putAt + i, chunk);
-        rest -= chunkSize;
-      }
+    /**
+     * Creates a page of the data at <code>offset</code> in <code>base</code>.
+     * 
+     * @param base The mapped file.
+     * @param offset Offset of the page in the file.
+     * @param l Length of page.
+     * @param sampleBytes Bytes per sample.
+     * @param channels Number of channels.
+     */
+    public Page(MappedFile base, long offset, long l, int sampleBytes, int channels)
+    {
+      this(l);
+      this.base = base;
+      this.sampleBytes = sampleBytes;
+      this.channels = channels;
+      slot = offset;
+      fresh = false;
     }
-    catch(Exception e)
+
+    /**
+     * Creates a page that is only in memory. It must be given a frame at
+     * once, which it keeps until it is paged.
+     * 
+     * @param l Length of page.
+     */
+    public Page(long l)
     {
-      e.printStackTrace();
+      slot = -1;
+      base = null;
+      length = l;
+      references = 1;
+      fresh = true;
     }
-  }
 
-  private Frame swap(long index) throws IOException
-  {
-    long timeStamp = Long.MAX_VALUE;
-    Frame evicted = null;
-    for(Frame frame : frameTable)
+    /**
+     * Gives a page that is only in memory a slot in the page store and lets
+     * its frame go, through the write behind thread. Only the handler of the
+     * page may use it meanwhile.
+     * 
+     * @param sampleBytes Bytes per sample.
+     * @param channels Number of channels.
+     * @throws IOException IOException
+     */
+    public void page(int sampleBytes, int channels) throws IOException
     {
-      if(frame.page == null)
+      if(slot >= 0)
+        return;
+
+      slot = getPageStore().allocate(length, sampleBytes, channels);
+      this.sampleBytes = sampleBytes;
+      this.channels = channels;
+
+      Frame resident = frame;
+      resident.evict();
+
+      synchronized(frameLock)
       {
-        evicted = frame;
-        timeStamp = frame.timeStamp;
-        break;
+        resident.page = null;
+        frame = null;
       }
+    }
+
+    public void read(ByteBuffer data) throws IOException
+    {
+      MappedFile file;
+      long offset;
 
-      if(frame.timeStamp < timeStamp)
+      synchronized(this)
       {
-        evicted = frame;
-        timeStamp = frame.timeStamp;
+        file = base;
+        offset = slot;
       }
+
+      if(file != null)
+        file.read(offset, data, (int)length);
+      else
+        WriteBehind.getInstance().read(getPageStore(), offset, data, (int)length);
     }
-    for(Page page : pageTable)
+
+    /**
+     * Copies <code>target.length</code> bytes at <code>offset</code> in this
+     * page to <code>target</code>, within the page store, if this page is not
+     * in memory. The target must be a new page in the page store.
+     * 
+     * @param target The page to copy to.
+     * @param offset Offset in this page.
+     * @return True if the data was copied, false if it must be copied through
+     *         frames.
+     * @throws IOException IOException
+     */
+    public boolean copyTo(Page target, int offset) throws IOException
     {
-      if(page.index <= index && (page.index + page.tempFile.length()) > index)
+      if(target.slot < 0 || !inStore())
+        return false;
+
+      MappedFile file;
+      long from;
+
+      synchronized(this)
       {
-        evicted.writeAll();
-        evicted.load(page);
-        evicted.timeStamp = System.currentTimeMillis();
-        return evicted;
+        // A new page is all zeros, just like the target
+        if(fresh)
+          return true;
+
+        file = base;
+        from = slot;
       }
-    }
 
-    return null;
-  }
+      int amount = (int)target.length;
 
-  private int find(long index) throws IOException
-  {
-    for(int i = 0; i < frameTable.length; i++)
-    {
-      Frame f = frameTable[i];
-      if(f.page != null && (f.page.index <= index) && (f.page.index + f.page.tempFile.length() > index))
+      if(file != null)
+      {
+        ByteBuffer view = file.view(from + offset, amount);
+        if(view == null)
+          return false;
+
+        getPageStore().write(target.slot, view, 0, amount);
+      }
+      else if(WriteBehind.getInstance().isPending(from) || !getPageStore().copy(from, offset, target.slot, amount))
       {
-        return i;
+        return false;
       }
+
+      synchronized(target)
+      {
+        target.fresh = false;
+      }
+
+      return true;
     }
 
-    return -1;
-  }
+    /**
+     * Writes <code>amount</code> bytes at <code>offset</code> in this page to
+     * <code>channel</code>, from the page store or mapped file, if this page
+     * is not in memory.
+     * 
+     * @param offset Offset in this page.
+     * @param amount Amount of bytes.
+     * @param channel The channel to write to.
+     * @return True if the data was written, false if it must be written from
+     *         a frame.
+     * @throws IOException If the channel could not be written to.
+     */
+    public boolean transferTo(int offset, int amount, WritableByteChannel channel) throws IOException
+    {
+      if(!inStore())
+        return false;
 
-  private class Frame
-  {
-    private Page page;
+      MappedFile file;
+      long from;
 
-    byte[] data;
+      synchronized(this)
+      {
+        if(fresh)
+          return false;
 
-    private long timeStamp;
+        file = base;
+        from = slot;
+      }
 
-    private void writeAll() throws IOException
-    {
-      if(page != null)
-        page.write(data);
+      if(file != null)
+      {
+        ByteBuffer view = file.view(from + offset, amount);
+        if(view == null)
+          return false;
+
+        while(view.hasRemaining())
+          channel.write(view);
+
+        return true;
+      }
+
+      return !WriteBehind.getInstance().isPending(from) && getPageStore().transferTo(from, offset, amount, channel);
     }
 
-    public void load(Page page) throws IOException
+    /**
+     * Returns true if the latest data of the page is not in a frame, that is,
+     * it is in the page store or the mapped file.
+     */
+    private boolean inStore()
     {
-      if(this.page != null)
+      synchronized(frameLock)
       {
-        this.page.file.close();
+        return frame == null && slot >= 0;
       }
-      
-      this.page = page;
-      
-      page.file = new RandomAccessFile(page.tempFile, "rw");
-      
-      data = new byte[(int)page.tempFile.length()];
-      page.read(data);
     }
 
-  }
+    /**
+     * Moves a page of a mapped file to a new slot in the page store. The data
+     * must be written to the slot before the page is read again.
+     * 
+     * @return True if the page was moved, false if it was not in a file.
+     * @throws IOException IOException
+     */
+    public boolean detach() throws IOException
+    {
+      if(base == null)
+        return false;
 
-  private class Page
-  {
-    private RandomAccessFile file;
+      long newSlot = getPageStore().allocate(length, sampleBytes, channels);
 
-    private File tempFile;
+      synchronized(this)
+      {
+        base = null;
+        slot = newSlot;
+      }
 
-    private long index;
+      return true;
+    }
 
-    public Page(long l) throws IOException
+    public synchronized boolean isShared()
     {
-      tempFile = File.createTempFile("apes", "page");
-      tempFile.deleteOnExit();
-      file = new RandomAccessFile(tempFile, "rw");
-      file.setLength(l);
-      setIndex(pageTable.size());
+      return references > 1;
     }
 
-    public void read(byte[] data) throws IOException
+    /**
+     * Returns true if the page may be copied into another when compacting,
+     * that is, if it is used by one piece only and is not in a mapped file.
+     * 
+     * @return True if the page may be copied.
+     */
+    public synchronized boolean isMovable()
     {
-      file.seek(0);
-      file.read(data);
+      return references == 1 && base == null;
     }
 
-    public void write(byte[] data) throws IOException
+    public synchronized void retain()
     {
-      file.seek(0);
-      file.write(data);
+      references++;
     }
 
-    public void setIndex(long index)
+    /**
+     * Returns the lock guarding the data of this page.
+     * 
+     * @return The lock.
+     */
+    public ReadWriteLock lock()
     {
-      this.index = index;
+      return stripes[(System.identityHashCode(this) & 0x7fffffff) % STRIPES];
     }
 
-    public long getIndex()
+    /**
+     * Drops one reference to the page, and gives its slot back to the swap
+     * file if it was the last.
+     * 
+     * @throws IOException IOException
+     */
+    public void release() throws IOException
     {
-      return index;
+      synchronized(this)
+      {
+        if(--references > 0)
+          return;
+
+        if(prefetched != null)
+          BufferPool.getInstance().release(prefetched);
+
+        prefetched = null;
+        version++;
+      }
+
+      // The frame must be gone before the slot is, or it could be written back
+      synchronized(frameLock)
+      {
+        while(frame != null && frame.loading)
+          awaitFrame();
+
+        if(frame != null)
+          frame.clear();
+      }
+
+      synchronized(this)
+      {
+        if(slot < 0 || base != null)
+          return;
+      }
+
+      WriteBehind.getInstance().cancel(slot);
+      getPageStore().free(slot, length);
     }
   }
 }
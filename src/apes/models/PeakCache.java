@@ -0,0 +1,263 @@
+package apes.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * <p>
+ * Keeps the peaks of opened files in the folder <code>~/.apes/cache</code>,
+ * so that a file that is opened again can be drawn at once instead of after
+ * all its samples have been read, see {@link PeakPyramid}.
+ * </p>
+ * <p>
+ * The key of a file is the SHA-1 hash of its size, the time it was last
+ * modified, its first {@link PeakCache#HASH_SIZE} bytes (64 KiB) and its last
+ * {@link PeakCache#HASH_SIZE} bytes, and its peaks are kept in a file named
+ * after the key. A file that is changed gets a new key, unless it keeps its
+ * size and modification time and is only changed between the first and last
+ * 64 KiB, in which case it gets the peaks of what it was before. A cache file
+ * starts with {@link PeakCache#MAGIC}, its version and the size and
+ * modification time of the file, followed by the blocks, see
+ * {@link PeakPyramid#write write}.
+ * </p>
+ * <p>
+ * Cache files are never changed, only replaced, so their modification time is
+ * set when they are used. Every time peaks are saved, cache files not used for
+ * {@link PeakCache#MAX_AGE} are removed, and then the least recently used
+ * until all fit in {@link PeakCache#MAX_SIZE}.
+ * </p>
+ */
+public class PeakCache
+{
+  /**
+   * First bytes of a cache file.
+   */
+  public static final int MAGIC = 0x41504b53;
+
+  /**
+   * Version of the format of the cache files.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Number of bytes hashed at the start and at the end of a file.
+   */
+  public static final int HASH_SIZE = 65536;
+
+  /**
+   * Largest number of bytes the cache files may take together.
+   */
+  public static final long MAX_SIZE = 256L * 1024 * 1024;
+
+  /**
+   * Cache files not used for this many milliseconds are removed.
+   */
+  public static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+  /**
+   * Loads the peaks of <code>file</code>, which holds the samples of
+   * <code>internalFormat</code>, if they are in the cache.
+   * 
+   * @param internalFormat The internal format.
+   * @param file The file.
+   * @return The peaks, or null if they are not in the cache.
+   */
+  public static PeakPyramid load(InternalFormat internalFormat, File file)
+  {
+    try
+    {
+      File cacheFile = getCacheFile(file);
+      if(!cacheFile.isFile())
+        return null;
+
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+
+      try
+      {
+        if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != file.length() || in.readLong() != file.lastModified())
+          return null;
+
+        PeakPyramid peaks = new PeakPyramid(internalFormat, in);
+        cacheFile.setLastModified(System.currentTimeMillis());
+
+        return peaks;
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch(IOException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Saves <code>peaks</code> as the peaks of <code>file</code>. The cache
+   * file is written under another name and then renamed, so that a cache file
+   * is never read half written. The cache is then pruned, see
+   * {@link PeakCache#prune prune}.
+   * 
+   * @param file The file.
+   * @param peaks The peaks.
+   * @return True if the peaks were saved, false otherwise.
+   */
+  public static boolean save(File file, PeakPyramid peaks)
+  {
+    try
+    {
+      File cacheFile = getCacheFile(file);
+      File folder = cacheFile.getParentFile();
+
+      if(!folder.isDirectory() && !folder.mkdirs())
+        return false;
+
+      File tmp = File.createTempFile("peaks", ".tmp", folder);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+      try
+      {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(file.length());
+        out.writeLong(file.lastModified());
+        peaks.write(out);
+      }
+      finally
+      {
+        out.close();
+      }
+
+      boolean saved = tmp.renameTo(cacheFile);
+      if(!saved)
+        tmp.delete();
+
+      prune(folder, MAX_SIZE, MAX_AGE);
+      return saved;
+    }
+    catch(IOException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Removes the cache files in <code>folder</code> that have not been used
+   * for <code>maxAge</code> milliseconds, and then the least recently used
+   * until the rest take no more than <code>maxSize</code> bytes. Files left
+   * by saves that failed are only removed by age.
+   * 
+   * @param folder The folder.
+   * @param maxSize Largest number of bytes to keep.
+   * @param maxAge Largest age in milliseconds.
+   */
+  public static void prune(File folder, long maxSize, long maxAge)
+  {
+    File[] files = folder.listFiles();
+    if(files == null)
+      return;
+
+    // The most recently used first, by times read once as they may change
+    Map<File, Long> used = new HashMap<File, Long>();
+    for(File cacheFile : files)
+      used.put(cacheFile, cacheFile.lastModified());
+
+    Arrays.sort(files, (a, b) -> Long.compare(used.get(b), used.get(a)));
+
+    long now = System.currentTimeMillis();
+    long size = 0;
+
+    for(File cacheFile : files)
+    {
+      String name = cacheFile.getName();
+      if(!name.endsWith(".peaks") && !name.endsWith(".tmp"))
+        continue;
+
+      long age = now - used.get(cacheFile);
+
+      if(name.endsWith(".peaks"))
+        size += cacheFile.length();
+
+      if(age > maxAge || (name.endsWith(".peaks") && size > maxSize))
+        cacheFile.delete();
+    }
+  }
+
+  /**
+   * Returns the folder the cache files are kept in.
+   * 
+   * @return The folder.
+   */
+  public static File getCacheFolder()
+  {
+    return new File(System.getProperty("user.home") + File.separator + ".apes", "cache");
+  }
+
+  /**
+   * Returns the cache file for the peaks of <code>file</code>.
+   * 
+   * @param file The file.
+   * @return The cache file.
+   * @throws IOException If <code>file</code> could not be read.
+   */
+  public static File getCacheFile(File file) throws IOException
+  {
+    MessageDigest digest;
+
+    try
+    {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch(NoSuchAlgorithmException e)
+    {
+      throw new IOException(e);
+    }
+
+    long size = file.length();
+    long modified = file.lastModified();
+
+    for(int i = 0; i < 8; i++)
+    {
+      digest.update((byte)(size >>> (i * 8)));
+      digest.update((byte)(modified >>> (i * 8)));
+    }
+
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+
+    try
+    {
+      byte[] buffer = new byte[(int)Math.min(HASH_SIZE, size)];
+
+      in.readFully(buffer);
+      digest.update(buffer);
+
+      in.seek(Math.max(size - buffer.length, 0));
+      in.readFully(buffer);
+      digest.update(buffer);
+    }
+    finally
+    {
+      in.close();
+    }
+
+    StringBuilder name = new StringBuilder();
+    for(byte b : digest.digest())
+      name.append(String.format("%02x", b));
+
+    return new File(getCacheFolder(), name.append(".peaks").toString());
+  }
+}
@@ -0,0 +1,672 @@
+package apes.models;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * <p>
+ * Summaries of the samples of an internal format, so that a view of any part
+ * of it can be drawn without reading the samples. For each block of about
+ * {@link PeakPyramid#BLOCK_SIZE} samples, the smallest and largest sample and
+ * the sum of the squared samples of each channel are kept. Up to
+ * {@link PeakPyramid#FANOUT} blocks are summarized again in a level above, and
+ * so on, so that a column of a view is summarized from a handful of blocks
+ * however many samples it covers.
+ * </p>
+ * <p>
+ * The blocks are kept up to date as the samples change, see
+ * {@link PeakPyramid#replace replace}. Only the blocks that were changed are
+ * read again, and only the blocks above them are recomputed. A block above
+ * summarizes between one and {@link PeakPyramid#FANOUT} blocks, so blocks
+ * away from a change stay under the block above they were under. Each level
+ * is kept with a gap at its last change, so that changes close to each other
+ * move few blocks. Samples are given as values between -1 and 1.
+ * </p>
+ */
+public class PeakPyramid
+{
+  /**
+   * Number of samples in a block of the lowest level.
+   */
+  public static final int BLOCK_SIZE = 1024;
+
+  /**
+   * Number of blocks summarized by a block of the level above.
+   */
+  public static final int FANOUT = 8;
+
+  /**
+   * The internal format summarized.
+   */
+  private InternalFormat internalFormat;
+
+  private int channels;
+
+  /**
+   * Number of samples summarized.
+   */
+  private long length;
+
+  /**
+   * All levels, the lowest first. There is always at least one.
+   */
+  private Level[] levels;
+
+  /**
+   * Creates a new <code>PeakPyramid</code> of all samples in
+   * <code>internalFormat</code>, reading them all once.
+   * 
+   * @param internalFormat The internal format.
+   */
+  public PeakPyramid(InternalFormat internalFormat)
+  {
+    this.internalFormat = internalFormat;
+    this.channels = internalFormat.getNumChannels();
+    this.length = 0;
+
+    Level blocks = new Level(null, 16);
+    levels = new Level[] { blocks };
+
+    replace(0, 0, internalFormat.getSampleAmount());
+  }
+
+  /**
+   * Creates a new <code>PeakPyramid</code> of <code>internalFormat</code>
+   * from blocks written by {@link PeakPyramid#write write}, without reading
+   * any samples.
+   * 
+   * @param internalFormat The internal format.
+   * @param in The stream to read the blocks from.
+   * @throws IOException If the blocks could not be read, or if they do not
+   *           match <code>internalFormat</code>.
+   */
+  public PeakPyramid(InternalFormat internalFormat, DataInputStream in) throws IOException
+  {
+    this.internalFormat = internalFormat;
+    this.channels = internalFormat.getNumChannels();
+
+    if(in.readInt() != channels)
+      throw new IOException("Wrong number of channels");
+
+    int size = in.readInt();
+    if(size < 0)
+      throw new IOException("Wrong number of blocks");
+
+    Level blocks = new Level(null, size);
+    blocks.insert(0, size);
+
+    for(int i = 0; i < size; i++)
+    {
+      blocks.setStart(i, length);
+      length += in.readInt();
+    }
+
+    if(length != internalFormat.getSampleAmount())
+      throw new IOException("Wrong number of samples");
+
+    for(int c = 0; c < channels; c++)
+    {
+      for(int i = 0; i < size; i++)
+      {
+        blocks.min[c][i] = in.readFloat();
+        blocks.max[c][i] = in.readFloat();
+        blocks.squares[c][i] = in.readFloat();
+      }
+    }
+
+    levels = new Level[] { blocks };
+    resize();
+  }
+
+  /**
+   * Writes the blocks of the lowest level to <code>out</code>, so that the
+   * pyramid can be created again without reading the samples. Each block is
+   * written as its length, and the smallest and largest sample and the sum of
+   * squares of each channel as floats.
+   * 
+   * @param out The stream to write to.
+   * @throws IOException If the blocks could not be written.
+   */
+  public synchronized void write(DataOutputStream out) throws IOException
+  {
+    Level blocks = levels[0];
+
+    out.writeInt(channels);
+    out.writeInt(blocks.size);
+
+    for(int i = 0; i < blocks.size; i++)
+      out.writeInt((int)blocks.samples(i));
+
+    for(int c = 0; c < channels; c++)
+    {
+      for(int i = 0; i < blocks.size; i++)
+      {
+        int p = blocks.index(i);
+
+        out.writeFloat(blocks.min[c][p]);
+        out.writeFloat(blocks.max[c][p]);
+        out.writeFloat((float)blocks.squares[c][p]);
+      }
+    }
+  }
+
+  /**
+   * Tells the pyramid that the samples from <code>from</code> to
+   * <code>oldTo</code> have been replaced by the samples from
+   * <code>from</code> to <code>newTo</code>. Inserting is replacing an empty
+   * range, removing is replacing with an empty range, and changing samples is
+   * replacing a range with one of the same length.
+   * 
+   * @param from The first sample changed.
+   * @param oldTo The sample after the last changed, before the change.
+   * @param newTo The sample after the last changed, after the change.
+   */
+  public synchronized void replace(long from, long oldTo, long newTo)
+  {
+    Level blocks = levels[0];
+    long delta = newTo - oldTo;
+
+    // The blocks touched by the change
+    int first = blocks.find(from);
+    int last = from == oldTo ? first : blocks.find(oldTo - 1) + 1;
+
+    if(from == oldTo && first < blocks.size && blocks.start(first) < from)
+      last = first + 1;
+
+    // Small blocks are merged with their neighbours
+    if(first > 0 && blocks.samples(first - 1) < BLOCK_SIZE)
+      first--;
+    if(last < blocks.size && blocks.samples(last) < BLOCK_SIZE)
+      last++;
+
+    long start = first < blocks.size ? blocks.start(first) : length;
+    long end = (last < blocks.size ? blocks.start(last) : length) + delta;
+
+    // The blocks above the touched ones, and the first block below them
+    int[] lo = new int[levels.length];
+    int[] hi = new int[levels.length];
+    int[] child = new int[levels.length];
+
+    lo[0] = first;
+    hi[0] = last;
+
+    for(int l = 1; l < levels.length; l++)
+    {
+      Level level = levels[l];
+      int a = level.parent(lo[l - 1]);
+      int b = level.parent(Math.max(hi[l - 1] - 1, lo[l - 1])) + 1;
+
+      // Small blocks are merged with their neighbours here too
+      if(a > 0 && level.children(a - 1) < FANOUT / 2)
+        a--;
+      if(b < level.size && level.children(b) < FANOUT / 2)
+        b++;
+
+      lo[l] = a;
+      hi[l] = b;
+      child[l] = level.first(a);
+    }
+
+    // From the top, so that each level is changed while the one below is
+    // as it was
+    for(int l = levels.length - 1; l >= 0; l--)
+      levels[l].remove(lo[l], hi[l] - lo[l]);
+
+    length += delta;
+
+    int count = (int)((end - start + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    blocks.insert(first, count);
+    summarize(blocks, first, count, start, end);
+
+    for(int l = 1; l < levels.length; l++)
+    {
+      Level level = levels[l];
+      int to = lo[l] < level.size ? level.first(lo[l]) : level.below.size;
+
+      group(level, lo[l], child[l], to);
+    }
+
+    resize();
+  }
+
+  /**
+   * Summarizes <code>length</code> samples of <code>channel</code>, starting
+   * at <code>start</code>, in <code>columns</code> columns. The smallest and
+   * largest sample and the root mean square of each column is put in
+   * <code>min</code>, <code>max</code> and <code>rms</code>. Blocks at the
+   * edge of a column are counted in full, so a column may include a little of
+   * its neighbours.
+   * 
+   * @param channel The channel.
+   * @param start The first sample.
+   * @param length Amount of samples.
+   * @param columns Number of columns.
+   * @param min Array for the smallest samples.
+   * @param max Array for the largest samples.
+   * @param rms Array for the root mean squares, or null.
+   */
+  public synchronized void getPeaks(int channel, long start, long length, int columns, float[] min, float[] max, float[] rms)
+  {
+    // The highest level with at least two blocks per column
+    int l = 0;
+    while(l + 1 < levels.length && levels[l + 1].size * (length / (double)columns) >= this.length * 2)
+      l++;
+
+    Level level = levels[l];
+    int i = level.find(start);
+
+    for(int column = 0; column < columns; column++)
+    {
+      long from = start + length * column / columns;
+      long to = start + length * (column + 1) / columns;
+
+      while(i + 1 < level.size && level.start(i + 1) <= from)
+        i++;
+
+      float lo = Float.MAX_VALUE;
+      float hi = -Float.MAX_VALUE;
+      double squares = 0;
+      long samples = 0;
+
+      for(int j = i; j < level.size && level.start(j) < Math.max(to, from + 1); j++)
+      {
+        int p = level.index(j);
+
+        lo = Math.min(lo, level.min[channel][p]);
+        hi = Math.max(hi, level.max[channel][p]);
+        squares += level.squares[channel][p];
+        samples += level.samples(j);
+      }
+
+      if(samples == 0)
+      {
+        lo = 0;
+        hi = 0;
+      }
+
+      min[column] = lo;
+      max[column] = hi;
+      if(rms != null)
+        rms[column] = samples == 0 ? 0 : (float)Math.sqrt(squares / samples);
+    }
+  }
+
+  /**
+   * Returns the number of samples summarized.
+   * 
+   * @return Amount of samples.
+   */
+  public synchronized long length()
+  {
+    return length;
+  }
+
+  /**
+   * Reads the samples from <code>start</code> to <code>end</code> and puts
+   * their summaries in <code>count</code> blocks from <code>index</code>.
+   */
+  private void summarize(Level blocks, int index, int count, long start, long end)
+  {
+    float[][] samples = new float[channels][BLOCK_SIZE];
+
+    for(int b = 0; b < count; b++)
+    {
+      long from = start + (long)b * BLOCK_SIZE;
+      int n = (int)Math.min(BLOCK_SIZE, end - from);
+      int i = index + b;
+      int p = blocks.index(i);
+
+      blocks.setStart(i, from);
+
+      // Samples that can not be read are counted as silence
+      if(!internalFormat.getBlock(from, samples, 0, n))
+        for(int c = 0; c < channels; c++)
+          Arrays.fill(samples[c], 0, n, 0);
+
+      for(int c = 0; c < channels; c++)
+      {
+        float[] s = samples[c];
+        float lo = s[0];
+        float hi = s[0];
+        double squares = 0;
+
+        for(int k = 0; k < n; k++)
+        {
+          float v = s[k];
+          if(v < lo)
+            lo = v;
+          if(v > hi)
+            hi = v;
+          squares += v * v;
+        }
+
+        blocks.min[c][p] = lo;
+        blocks.max[c][p] = hi;
+        blocks.squares[c][p] = squares;
+      }
+    }
+  }
+
+  /**
+   * Puts blocks summarizing the blocks from <code>from</code> to
+   * <code>to</code> of the level below <code>level</code> at
+   * <code>index</code>, at most {@link PeakPyramid#FANOUT} in each.
+   */
+  private void group(Level level, int index, int from, int to)
+  {
+    Level below = level.below;
+    int count = (to - from + FANOUT - 1) / FANOUT;
+
+    level.insert(index, count);
+
+    for(int g = 0; g < count; g++)
+    {
+      int i = index + g;
+      int p = level.index(i);
+      int a = from + (int)((long)(to - from) * g / count);
+      int b = from + (int)((long)(to - from) * (g + 1) / count);
+
+      level.setStart(i, below.start(a));
+      level.setFirst(i, a);
+
+      for(int c = 0; c < channels; c++)
+      {
+        float lo = Float.MAX_VALUE;
+        float hi = -Float.MAX_VALUE;
+        double squares = 0;
+
+        for(int j = a; j < b; j++)
+        {
+          int q = below.index(j);
+
+          lo = Math.min(lo, below.min[c][q]);
+          hi = Math.max(hi, below.max[c][q]);
+          squares += below.squares[c][q];
+        }
+
+        level.min[c][p] = lo;
+        level.max[c][p] = hi;
+        level.squares[c][p] = squares;
+      }
+    }
+  }
+
+  /**
+   * Adds or removes levels at the top, so that there is a level above each
+   * level with more than {@link PeakPyramid#FANOUT} blocks, and no other.
+   */
+  private void resize()
+  {
+    int count = levels.length;
+    while(count > 1 && levels[count - 2].size <= FANOUT)
+      count--;
+
+    levels = Arrays.copyOf(levels, count);
+
+    while(levels[levels.length - 1].size > FANOUT)
+    {
+      Level top = levels[levels.length - 1];
+      Level level = new Level(top, (top.size + FANOUT - 1) / FANOUT);
+
+      group(level, 0, 0, top.size);
+
+      levels = Arrays.copyOf(levels, levels.length + 1);
+      levels[levels.length - 1] = level;
+    }
+  }
+
+  /**
+   * <p>
+   * The blocks of one level, in order, kept in arrays with a gap where blocks
+   * are inserted and removed. The gap is moved to each change, so only the
+   * blocks between two changes are moved.
+   * </p>
+   * <p>
+   * Blocks before the gap keep their first sample and their first block
+   * below as they are. Blocks after the gap keep them relative to the length
+   * of the pyramid and to the number of blocks below, so they stay right when
+   * blocks before them change length or are inserted or removed.
+   * </p>
+   */
+  private class Level
+  {
+    /**
+     * Number of blocks.
+     */
+    private int size;
+
+    /**
+     * Index of the first block after the gap.
+     */
+    private int gap;
+
+    /**
+     * The level below, or null for the lowest.
+     */
+    private Level below;
+
+    /**
+     * First sample of each block.
+     */
+    private long[] starts;
+
+    /**
+     * First block below of each block, or null for the lowest level.
+     */
+    private int[] firsts;
+
+    /**
+     * Smallest and largest sample of each block, per channel.
+     */
+    private float[][] min, max;
+
+    /**
+     * Sum of squared samples of each block, per channel.
+     */
+    private double[][] squares;
+
+    public Level(Level below, int capacity)
+    {
+      capacity = Math.max(capacity, 1);
+
+      this.below = below;
+      starts = new long[capacity];
+      if(below != null)
+        firsts = new int[capacity];
+      min = new float[channels][capacity];
+      max = new float[channels][capacity];
+      squares = new double[channels][capacity];
+    }
+
+    /**
+     * Returns the index in the arrays of block <code>i</code>.
+     */
+    public int index(int i)
+    {
+      return i < gap ? i : i + starts.length - size;
+    }
+
+    /**
+     * Returns the first sample of block <code>i</code>.
+     */
+    public long start(int i)
+    {
+      return i < gap ? starts[i] : starts[index(i)] + length;
+    }
+
+    public void setStart(int i, long start)
+    {
+      if(i < gap)
+        starts[i] = start;
+      else
+        starts[index(i)] = start - length;
+    }
+
+    /**
+     * Returns the first block below of block <code>i</code>.
+     */
+    public int first(int i)
+    {
+      return i < gap ? firsts[i] : firsts[index(i)] + below.size;
+    }
+
+    public void setFirst(int i, int first)
+    {
+      if(i < gap)
+        firsts[i] = first;
+      else
+        firsts[index(i)] = first - below.size;
+    }
+
+    /**
+     * Returns the number of samples in block <code>i</code>.
+     */
+    public long samples(int i)
+    {
+      return (i + 1 < size ? start(i + 1) : length) - start(i);
+    }
+
+    /**
+     * Returns the number of blocks below summarized by block <code>i</code>.
+     */
+    public int children(int i)
+    {
+      return (i + 1 < size ? first(i + 1) : below.size) - first(i);
+    }
+
+    /**
+     * Returns the block containing <code>sample</code>, or the last if it is
+     * after the last.
+     */
+    public int find(long sample)
+    {
+      int lo = 0;
+      int hi = size - 1;
+
+      if(size == 0 || sample < start(0))
+        return 0;
+
+      while(lo < hi)
+      {
+        int mid = (lo + hi + 1) >>> 1;
+        if(start(mid) <= sample)
+          lo = mid;
+        else
+          hi = mid - 1;
+      }
+
+      return lo;
+    }
+
+    /**
+     * Returns the block summarizing block <code>block</code> of the level
+     * below, or the last if it is after the last.
+     */
+    public int parent(int block)
+    {
+      int lo = 0;
+      int hi = size - 1;
+
+      while(lo < hi)
+      {
+        int mid = (lo + hi + 1) >>> 1;
+        if(first(mid) <= block)
+          lo = mid;
+        else
+          hi = mid - 1;
+      }
+
+      return Math.max(lo, 0);
+    }
+
+    /**
+     * Makes room for <code>count</code> blocks at <code>index</code>.
+     */
+    public void insert(int index, int count)
+    {
+      if(size + count > starts.length)
+      {
+        // Grown with the gap at the end, where the room is added
+        move(size);
+
+        int capacity = Math.max(size + count, starts.length * 3 / 2);
+
+        starts = Arrays.copyOf(starts, capacity);
+        if(firsts != null)
+          firsts = Arrays.copyOf(firsts, capacity);
+        for(int c = 0; c < min.length; c++)
+        {
+          min[c] = Arrays.copyOf(min[c], capacity);
+          max[c] = Arrays.copyOf(max[c], capacity);
+          squares[c] = Arrays.copyOf(squares[c], capacity);
+        }
+      }
+
+      move(index);
+      size += count;
+      gap += count;
+    }
+
+    /**
+     * Removes <code>count</code> blocks at <code>index</code>.
+     */
+    public void remove(int index, int count)
+    {
+      move(index + count);
+      size -= count;
+      gap -= count;
+    }
+
+    /**
+     * Moves the gap to before block <code>index</code>.
+     */
+    private void move(int index)
+    {
+      int room = starts.length - size;
+
+      if(index > gap)
+      {
+        copy(gap + room, gap, index - gap);
+        shift(gap, index, 1);
+      }
+      else if(index < gap)
+      {
+        copy(index, index + room, gap - index);
+        shift(index + room, gap + room, -1);
+      }
+
+      gap = index;
+    }
+
+    private void copy(int from, int to, int count)
+    {
+      System.arraycopy(starts, from, starts, to, count);
+      if(firsts != null)
+        System.arraycopy(firsts, from, firsts, to, count);
+      for(int c = 0; c < min.length; c++)
+      {
+        System.arraycopy(min[c], from, min[c], to, count);
+        System.arraycopy(max[c], from, max[c], to, count);
+        System.arraycopy(squares[c], from, squares[c], to, count);
+      }
+    }
+
+    /**
+     * Makes the starts and firsts from <code>from</code> to <code>to</code>
+     * in the arrays absolute if <code>sign</code> is 1, or relative if it is
+     * -1.
+     */
+    private void shift(int from, int to, int sign)
+    {
+      for(int p = from; p < to; p++)
+      {
+        starts[p] += sign * length;
+        if(firsts != null)
+          firsts[p] += sign * below.size;
+      }
+    }
+  }
+}
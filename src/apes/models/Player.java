@@ -1,6 +1,6 @@
 package apes.models;
 
-import java.awt.Point;
+import java.nio.ByteBuffer;
 import java.util.Observable;
 
 import javax.sound.sampled.SourceDataLine;
@@ -44,17 +44,17 @@ public class Player extends Observable implements Runnable
   /**
    * What sample (not samples are we on).
    */
-  private int currentSample;
+  private volatile long currentSample;
 
   /**
    * The fixed position.
    */
-  private int fixed;
+  private long fixed;
 
   /**
    * The moving position.
    */
-  private int moving;
+  private long moving;
 
   /**
    * Tells how long a wind should be. The larger value, the less wind amount.
@@ -67,6 +67,11 @@ public class Player extends Observable implements Runnable
    */
   private Thread thread;
 
+  /**
+   * Buffer that each chunk is read into before it is written to the line.
+   */
+  private ByteBuffer chunkBuffer;
+
   /**
    * Creates a new <code>Player</code>.
    * 
@@ -118,10 +123,10 @@ public class Player extends Observable implements Runnable
    */
   public void forward()
   {
-    int temp = currentSample + getWindLength();
-    int start = getStart();
-    int stop = getStop();
-    int max = stop;
+    long temp = currentSample + getWindLength();
+    long start = getStart();
+    long stop = getStop();
+    long max = stop;
 
     if(stop == 0 || start == stop)
     {
@@ -136,10 +141,10 @@ public class Player extends Observable implements Runnable
    */
   public void backward()
   {
-    int temp = currentSample - getWindLength();
-    int start = getStart();
-    int stop = getStop();
-    int min = start;
+    long temp = currentSample - getWindLength();
+    long start = getStart();
+    long stop = getStop();
+    long min = start;
 
     if(start == stop)
     {
@@ -154,19 +159,19 @@ public class Player extends Observable implements Runnable
    * 
    * @return The wins length.
    */
-  private int getWindLength()
+  private long getWindLength()
   {
     return getSampleAmount() / wind;
   }
 
   /**
-   * Returns the selection as a point. x is start and y i stop.
+   * Returns the selection.
    * 
    * @return The selection.
    */
-  public Point getSelection()
+  public Selection getSelection()
   {
-    return new Point(getStart(), getStop());
+    return new Selection(getStart(), getStop());
   }
 
   /**
@@ -232,7 +237,7 @@ public class Player extends Observable implements Runnable
    * 
    * @return The number of samples.
    */
-  public int getSampleAmount()
+  public long getSampleAmount()
   {
     return internalFormat.getSampleAmount() - 1;
   }
@@ -242,7 +247,7 @@ public class Player extends Observable implements Runnable
    * 
    * @return currentSample.
    */
-  public int getCurrentSample()
+  public long getCurrentSample()
   {
     return currentSample;
   }
@@ -252,7 +257,7 @@ public class Player extends Observable implements Runnable
    * 
    * @param currentSample The position.
    */
-  public void setCurrentSample(int currentSample)
+  public void setCurrentSample(long currentSample)
   {
     this.currentSample = currentSample;
 
@@ -264,7 +269,7 @@ public class Player extends Observable implements Runnable
    * 
    * @return The start position.
    */
-  public int getStart()
+  public long getStart()
   {
     return Math.min(fixed, moving);
   }
@@ -274,7 +279,7 @@ public class Player extends Observable implements Runnable
    * 
    * @param start the start position.
    */
-  public void setStart(int start)
+  public void setStart(long start)
   {
     if(moving < fixed)
     {
@@ -293,7 +298,7 @@ public class Player extends Observable implements Runnable
    * 
    * @return The stop position.
    */
-  public int getStop()
+  public long getStop()
   {
     return Math.max(fixed, moving);
   }
@@ -303,7 +308,7 @@ public class Player extends Observable implements Runnable
    * 
    * @param stop the stop position.
    */
-  public void setStop(int stop)
+  public void setStop(long stop)
   {
     if(moving > fixed)
     {
@@ -322,7 +327,7 @@ public class Player extends Observable implements Runnable
    * 
    * @param mark The <code>mark</code>.
    */
-  public void setMark(int mark)
+  public void setMark(long mark)
   {
     moving = mark;
 
@@ -334,14 +339,14 @@ public class Player extends Observable implements Runnable
    * 
    * @param mark The mark.
    */
-  public void setClosestMark(int mark)
+  public void setClosestMark(long mark)
   {
-    int fromMoving = Math.abs(mark - moving);
-    int fromFixed = Math.abs(mark - fixed);
+    long fromMoving = Math.abs(mark - moving);
+    long fromFixed = Math.abs(mark - fixed);
 
     if(fromMoving > fromFixed)
     {
-      int temp = fixed;
+      long temp = fixed;
       fixed = moving;
       moving = temp;
     }
@@ -354,7 +359,7 @@ public class Player extends Observable implements Runnable
    * 
    * @param mark The mark.
    */
-  public void setAllMarks(int mark)
+  public void setAllMarks(long mark)
   {
     moving = mark;
     fixed = mark;
@@ -388,8 +393,8 @@ public class Player extends Observable implements Runnable
    */
   private boolean playingAllowed()
   {
-    int start = getStart();
-    int stop = getStop();
+    long start = getStart();
+    long stop = getStop();
 
     if((stop != 0 && start != stop && currentSample > stop) || (currentSample > getSampleAmount()))
       return false;
@@ -413,10 +418,14 @@ public class Player extends Observable implements Runnable
           {
             int chunk = CHUNK_SIZE;
             if(getSampleAmount() < currentSample + CHUNK_SIZE)
-              chunk = getSampleAmount() - currentSample;
-            byte[] data = internalFormat.getChunk(currentSample, chunk);
-
-            line.write(data, 0, data.length);
+              chunk = (int)(getSampleAmount() - currentSample);
+            int bytes = (int)internalFormat.samplesToBytes(CHUNK_SIZE);
+            if(chunkBuffer == null || chunkBuffer.capacity() < bytes)
+              chunkBuffer = ByteBuffer.allocate(bytes);
+
+            chunkBuffer.clear();
+            if(internalFormat.getChunk(currentSample, chunk, chunkBuffer))
+              line.write(chunkBuffer.array(), 0, chunkBuffer.position());
 
             increaseCurrentSample();
           }
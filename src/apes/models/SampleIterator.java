@@ -3,32 +3,57 @@ package apes.models;
 import java.util.NoSuchElementException;
 
 
+/**
+ * Iterates over the samples of one channel of an internal format. Samples are
+ * read a block at a time with {@link InternalFormat#getBlock getBlock}, so
+ * each step is only an array access. Samples are given as the values they
+ * have in the sample format.
+ * 
+ * @author Daniel Kvick (kvick@student.chalmers.se)
+ */
 public class SampleIterator
 {
+  /**
+   * Samples read at a time.
+   */
+  public static final int BLOCK_SIZE = 4096;
+
   /**
    * The internal format the iterator is bound to.
    */
-  InternalFormat intForm;
+  private InternalFormat intForm;
 
   /**
-   * Current index.
+   * The channel iterated over.
+   */
+  private int channel;
+
+  /**
+   * Index of the next sample.
    */
   private long samplesIndex;
 
+  /**
+   * Samples read ahead.
+   */
+  private int[] block;
+
+  /**
+   * Index in <code>block</code> of the next sample, and the number of samples
+   * in it.
+   */
+  private int blockPos, blockEnd;
+
   /**
    * Consists a SampleIterator iterating over all samples in the given
    * <code>Channel</code>.
    * 
-   * @param c The <code>Channel</code> to iterate over.
+   * @param iF Internal format to iterate over.
+   * @param c The channel to iterate over. The first if out of range.
    */
   public SampleIterator(InternalFormat iF, int c)
   {
-    intForm = iF;
-
-    if(c < iF.getNumChannels())
-      samplesIndex = c;
-    else
-      samplesIndex = 0;
+    this(iF, c, 0);
   }
 
   /**
@@ -37,20 +62,15 @@ public class SampleIterator
    * of the channel.
    * 
    * @param iF Internal format to iterate over.
-   * @param c Channel of iteration.
+   * @param c Channel of iteration. The first if out of range.
    * @param i Index to start at.
    */
-  public SampleIterator(InternalFormat iF, int c, int i)
+  public SampleIterator(InternalFormat iF, int c, long i)
   {
     intForm = iF;
-
-    if(c < iF.getNumChannels())
-      samplesIndex = c;
-    else
-      samplesIndex = 0;
-
-    if(i < iF.getSampleAmount())
-      samplesIndex *= i;
+    channel = c >= 0 && c < iF.getNumChannels() ? c : 0;
+    samplesIndex = i >= 0 && i < iF.getSampleAmount() ? i : 0;
+    block = new int[BLOCK_SIZE];
   }
 
   /**
@@ -59,7 +79,7 @@ public class SampleIterator
    */
   public boolean hasNext()
   {
-    return samplesIndex < intForm.getSampleAmount();
+    return blockPos < blockEnd || samplesIndex < intForm.getSampleAmount();
   }
 
   /**
@@ -67,16 +87,39 @@ public class SampleIterator
    */
   public int next()
   {
-    if(hasNext())
-    {
-      byte[] bytes = intForm.getChunk((int)samplesIndex, 1);
-      samplesIndex += intForm.getNumChannels();
-      int amplitude = 0;
-      for(int i = 0; i < intForm.bytesPerSample; i++)
-        amplitude += bytes[i] << (i * 8);
-      return amplitude;
-    }
-    throw new NoSuchElementException();
+    if(blockPos == blockEnd && !fill())
+      throw new NoSuchElementException();
+
+    return block[blockPos++];
+  }
+
+  /**
+   * Returns the index of the sample that {@link #next} returns.
+   * 
+   * @return The index.
+   */
+  public long getIndex()
+  {
+    return samplesIndex - (blockEnd - blockPos);
+  }
+
+  /**
+   * Reads the next block.
+   * 
+   * @return False if there are no more samples.
+   */
+  private boolean fill()
+  {
+    int n = (int)Math.min(BLOCK_SIZE, intForm.getSampleAmount() - samplesIndex);
+
+    if(n < 1 || !intForm.getBlock(channel, samplesIndex, block, 0, n))
+      return false;
+
+    samplesIndex += n;
+    blockPos = 0;
+    blockEnd = n;
+
+    return true;
   }
 
   /**
@@ -0,0 +1,156 @@
+package apes.models;
+
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+
+/**
+ * <p>
+ * A spliterator over the samples of one channel of an internal format, so
+ * that the samples can be used as an <code>IntStream</code>, see
+ * {@link InternalFormat#stream stream}. Samples are read a block at a time
+ * and given as the values they have in the sample format.
+ * </p>
+ * <p>
+ * Splits are made on page boundaries, so that parallel streams do not read
+ * the same pages from several threads. The internal format must not be
+ * changed while the samples are streamed.
+ * </p>
+ */
+public class SampleSpliterator implements Spliterator.OfInt
+{
+  /**
+   * Largest number of samples read at a time.
+   */
+  public static final int BLOCK_SIZE = 4096;
+
+  private InternalFormat internalFormat;
+
+  private int channel;
+
+  /**
+   * Index of the next sample, and of the sample after the last.
+   */
+  private long index, end;
+
+  /**
+   * Number of samples in a page. Splits are made at multiples of it.
+   */
+  private long pageSamples;
+
+  /**
+   * Samples read ahead, or null before the first read.
+   */
+  private int[] block;
+
+  /**
+   * Index in <code>block</code> of the next sample, and the number of samples
+   * in it.
+   */
+  private int blockPos, blockEnd;
+
+  /**
+   * Creates a new <code>SampleSpliterator</code> over the samples from
+   * <code>start</code> to <code>end</code>.
+   * 
+   * @param internalFormat The internal format.
+   * @param channel The channel.
+   * @param start Index of the first sample.
+   * @param end Index of the sample after the last.
+   * @param pageSamples Number of samples in a page.
+   */
+  public SampleSpliterator(InternalFormat internalFormat, int channel, long start, long end, long pageSamples)
+  {
+    this.internalFormat = internalFormat;
+    this.channel = channel;
+    this.index = start;
+    this.end = end;
+    this.pageSamples = Math.max(pageSamples, 1);
+  }
+
+  public boolean tryAdvance(IntConsumer action)
+  {
+    if(blockPos == blockEnd && !fill())
+      return false;
+
+    action.accept(block[blockPos++]);
+    return true;
+  }
+
+  public void forEachRemaining(IntConsumer action)
+  {
+    do
+    {
+      int[] samples = block;
+      for(int i = blockPos, n = blockEnd; i < n; i++)
+        action.accept(samples[i]);
+
+      blockPos = blockEnd;
+    }
+    while(fill());
+  }
+
+  public Spliterator.OfInt trySplit()
+  {
+    long from = index;
+    long mid = from + (end - from) / 2;
+    mid -= mid % pageSamples;
+
+    if(mid <= from)
+      return null;
+
+    SampleSpliterator prefix = new SampleSpliterator(internalFormat, channel, from, mid, pageSamples);
+
+    // Samples already read come first, so they go with the prefix
+    prefix.block = block;
+    prefix.blockPos = blockPos;
+    prefix.blockEnd = blockEnd;
+
+    index = mid;
+    block = null;
+    blockPos = 0;
+    blockEnd = 0;
+
+    return prefix;
+  }
+
+  public long estimateSize()
+  {
+    return end - index + (blockEnd - blockPos);
+  }
+
+  public int characteristics()
+  {
+    return ORDERED | SIZED | SUBSIZED | NONNULL;
+  }
+
+  /**
+   * Reads the next block, which never crosses a page boundary.
+   * 
+   * @return False if there are no more samples.
+   */
+  private boolean fill()
+  {
+    long pageEnd = (index / pageSamples + 1) * pageSamples;
+    int n = (int)Math.min(BLOCK_SIZE, Math.min(end, pageEnd) - index);
+
+    if(n < 1)
+      return false;
+
+    if(block == null)
+      block = new int[BLOCK_SIZE];
+
+    // The samples are gone if the internal format was changed
+    if(!internalFormat.getBlock(channel, index, block, 0, n))
+    {
+      index = end;
+      return false;
+    }
+
+    index += n;
+    blockPos = 0;
+    blockEnd = n;
+
+    return true;
+  }
+}
@@ -0,0 +1,84 @@
+package apes.models;
+
+/**
+ * A selected range of samples. Both start and stop are included and counted
+ * in samples, so a selection can cover any part of an internal format, no
+ * matter how long it is.
+ */
+public class Selection
+{
+  /**
+   * First selected sample.
+   */
+  private final long start;
+
+  /**
+   * Last selected sample.
+   */
+  private final long stop;
+
+  /**
+   * Creates a new <code>Selection</code>.
+   * 
+   * @param start First selected sample.
+   * @param stop Last selected sample.
+   */
+  public Selection(long start, long stop)
+  {
+    this.start = start;
+    this.stop = stop;
+  }
+
+  /**
+   * Returns the first selected sample.
+   * 
+   * @return The start.
+   */
+  public long getStart()
+  {
+    return start;
+  }
+
+  /**
+   * Returns the last selected sample.
+   * 
+   * @return The stop.
+   */
+  public long getStop()
+  {
+    return stop;
+  }
+
+  /**
+   * Returns true if start and stop are the same. That is the case when only a
+   * mark has been set, and nothing has been selected.
+   * 
+   * @return True if empty. False otherwise.
+   */
+  public boolean isEmpty()
+  {
+    return start == stop;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if(!(o instanceof Selection))
+      return false;
+
+    Selection other = (Selection)o;
+    return start == other.start && stop == other.stop;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return (int)(start ^ (start >>> 32)) * 31 + (int)(stop ^ (stop >>> 32));
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[" + start + ", " + stop + "]";
+  }
+}
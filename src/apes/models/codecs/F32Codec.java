@@ -0,0 +1,74 @@
+package apes.models.codecs;
+
+import apes.interfaces.SampleCodec;
+
+
+/**
+ * Codec for 32 bit floating point samples. Floats are not clipped, since the
+ * format can hold values above 1. As ints the samples are given scaled to 32
+ * bits, like {@link S32Codec}.
+ */
+public class F32Codec implements SampleCodec
+{
+  private static final float SCALE = 2147483648f;
+
+  public int getBytesPerSample()
+  {
+    return 4;
+  }
+
+  public void decode(byte[] data, int index, int stride, float[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index);
+  }
+
+  public void decode(byte[] data, int index, int stride, short[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+    {
+      // Casting to int saturates, so only the range of a short is checked
+      int v = Math.round(get(data, index) * 32768f);
+      target[i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+    }
+  }
+
+  public void decode(byte[] data, int index, int stride, int[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = Math.round(get(data, index) * SCALE);
+  }
+
+  public void encode(float[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, source[i]);
+  }
+
+  public void encode(short[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, source[i] / 32768f);
+  }
+
+  public void encode(int[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, source[i] / SCALE);
+  }
+
+  private static float get(byte[] data, int index)
+  {
+    return Float.intBitsToFloat((data[index] & 0xff) | ((data[index + 1] & 0xff) << 8) | ((data[index + 2] & 0xff) << 16) | (data[index + 3] << 24));
+  }
+
+  private static void put(byte[] data, int index, float value)
+  {
+    int bits = Float.floatToRawIntBits(value);
+
+    data[index] = (byte)bits;
+    data[index + 1] = (byte)(bits >> 8);
+    data[index + 2] = (byte)(bits >> 16);
+    data[index + 3] = (byte)(bits >> 24);
+  }
+}
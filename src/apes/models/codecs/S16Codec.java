@@ -0,0 +1,67 @@
+package apes.models.codecs;
+
+import apes.interfaces.SampleCodec;
+
+
+/**
+ * Codec for signed 16 bit samples.
+ */
+public class S16Codec implements SampleCodec
+{
+  private static final float SCALE = 32768f;
+
+  public int getBytesPerSample()
+  {
+    return 2;
+  }
+
+  public void decode(byte[] data, int index, int stride, float[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index) / SCALE;
+  }
+
+  public void decode(byte[] data, int index, int stride, short[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index);
+  }
+
+  public void decode(byte[] data, int index, int stride, int[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index);
+  }
+
+  public void encode(float[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+    {
+      float v = source[i] * SCALE;
+      put(data, index, (int)(v < 0 ? Math.max(v - 0.5f, Short.MIN_VALUE) : Math.min(v + 0.5f, Short.MAX_VALUE)));
+    }
+  }
+
+  public void encode(short[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, source[i]);
+  }
+
+  public void encode(int[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, source[i])));
+  }
+
+  private static short get(byte[] data, int index)
+  {
+    return (short)((data[index] & 0xff) | (data[index + 1] << 8));
+  }
+
+  private static void put(byte[] data, int index, int value)
+  {
+    data[index] = (byte)value;
+    data[index + 1] = (byte)(value >> 8);
+  }
+}
@@ -0,0 +1,72 @@
+package apes.models.codecs;
+
+import apes.interfaces.SampleCodec;
+
+
+/**
+ * Codec for signed 24 bit samples, packed in three bytes.
+ */
+public class S24Codec implements SampleCodec
+{
+  private static final float SCALE = 8388608f;
+
+  private static final int MIN = -8388608;
+
+  private static final int MAX = 8388607;
+
+  public int getBytesPerSample()
+  {
+    return 3;
+  }
+
+  public void decode(byte[] data, int index, int stride, float[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index) / SCALE;
+  }
+
+  public void decode(byte[] data, int index, int stride, short[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = (short)(get(data, index) >> 8);
+  }
+
+  public void decode(byte[] data, int index, int stride, int[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index);
+  }
+
+  public void encode(float[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+    {
+      float v = source[i] * SCALE;
+      put(data, index, (int)(v < 0 ? Math.max(v - 0.5f, MIN) : Math.min(v + 0.5f, MAX)));
+    }
+  }
+
+  public void encode(short[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, source[i] << 8);
+  }
+
+  public void encode(int[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, Math.max(MIN, Math.min(MAX, source[i])));
+  }
+
+  private static int get(byte[] data, int index)
+  {
+    return (data[index] & 0xff) | ((data[index + 1] & 0xff) << 8) | (data[index + 2] << 16);
+  }
+
+  private static void put(byte[] data, int index, int value)
+  {
+    data[index] = (byte)value;
+    data[index + 1] = (byte)(value >> 8);
+    data[index + 2] = (byte)(value >> 16);
+  }
+}
@@ -0,0 +1,69 @@
+package apes.models.codecs;
+
+import apes.interfaces.SampleCodec;
+
+
+/**
+ * Codec for signed 32 bit samples.
+ */
+public class S32Codec implements SampleCodec
+{
+  private static final double SCALE = 2147483648.0;
+
+  public int getBytesPerSample()
+  {
+    return 4;
+  }
+
+  public void decode(byte[] data, int index, int stride, float[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = (float)(get(data, index) / SCALE);
+  }
+
+  public void decode(byte[] data, int index, int stride, short[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = (short)(get(data, index) >> 16);
+  }
+
+  public void decode(byte[] data, int index, int stride, int[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index);
+  }
+
+  public void encode(float[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+    {
+      double v = source[i] * SCALE;
+      put(data, index, (int)(v < 0 ? Math.max(v - 0.5, Integer.MIN_VALUE) : Math.min(v + 0.5, Integer.MAX_VALUE)));
+    }
+  }
+
+  public void encode(short[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, source[i] << 16);
+  }
+
+  public void encode(int[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, source[i]);
+  }
+
+  private static int get(byte[] data, int index)
+  {
+    return (data[index] & 0xff) | ((data[index + 1] & 0xff) << 8) | ((data[index + 2] & 0xff) << 16) | (data[index + 3] << 24);
+  }
+
+  private static void put(byte[] data, int index, int value)
+  {
+    data[index] = (byte)value;
+    data[index + 1] = (byte)(value >> 8);
+    data[index + 2] = (byte)(value >> 16);
+    data[index + 3] = (byte)(value >> 24);
+  }
+}
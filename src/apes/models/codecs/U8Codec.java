@@ -0,0 +1,67 @@
+package apes.models.codecs;
+
+import apes.interfaces.SampleCodec;
+
+
+/**
+ * Codec for unsigned 8 bit samples, where 128 is silence. As ints the samples
+ * are given as signed values, from -128 to 127.
+ */
+public class U8Codec implements SampleCodec
+{
+  private static final float SCALE = 128f;
+
+  public int getBytesPerSample()
+  {
+    return 1;
+  }
+
+  public void decode(byte[] data, int index, int stride, float[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index) / SCALE;
+  }
+
+  public void decode(byte[] data, int index, int stride, short[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = (short)(get(data, index) << 8);
+  }
+
+  public void decode(byte[] data, int index, int stride, int[] target, int offset, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      target[i] = get(data, index);
+  }
+
+  public void encode(float[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+    {
+      float v = source[i] * SCALE;
+      put(data, index, (int)(v < 0 ? Math.max(v - 0.5f, Byte.MIN_VALUE) : Math.min(v + 0.5f, Byte.MAX_VALUE)));
+    }
+  }
+
+  public void encode(short[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, source[i] >> 8);
+  }
+
+  public void encode(int[] source, int offset, byte[] data, int index, int stride, int amount)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++, index += stride)
+      put(data, index, Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, source[i])));
+  }
+
+  private static int get(byte[] data, int index)
+  {
+    return (data[index] & 0xff) - 128;
+  }
+
+  private static void put(byte[] data, int index, int value)
+  {
+    data[index] = (byte)(value + 128);
+  }
+}
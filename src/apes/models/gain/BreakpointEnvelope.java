@@ -0,0 +1,61 @@
+package apes.models.gain;
+
+import java.util.Arrays;
+
+
+/**
+ * Envelope that goes in straight lines between breakpoints. Before the first
+ * breakpoint and after the last the gain stays at theirs.
+ */
+public class BreakpointEnvelope extends Envelope
+{
+  /**
+   * Positions of the breakpoints, in order.
+   */
+  private double[] positions;
+
+  /**
+   * Gains at the breakpoints.
+   */
+  private float[] gains;
+
+  /**
+   * Creates a new <code>BreakpointEnvelope</code>.
+   * 
+   * @param positions Positions of the breakpoints, from 0 to 1 and in order.
+   * @param gains Gains at the breakpoints.
+   * @throws IllegalArgumentException If there are no breakpoints, if the
+   *           arrays differ in length or if the positions are not in order.
+   */
+  public BreakpointEnvelope(double[] positions, float[] gains)
+  {
+    if(positions.length == 0 || positions.length != gains.length)
+      throw new IllegalArgumentException("Need as many gains as positions");
+
+    for(int i = 1; i < positions.length; i++)
+      if(positions[i] < positions[i - 1])
+        throw new IllegalArgumentException("Positions are not in order");
+
+    this.positions = positions.clone();
+    this.gains = gains.clone();
+  }
+
+  @Override
+  public float getGain(double position)
+  {
+    int i = Arrays.binarySearch(positions, position);
+    if(i >= 0)
+      return gains[i];
+
+    // The breakpoint after the position
+    i = -i - 1;
+
+    if(i == 0)
+      return gains[0];
+    if(i == positions.length)
+      return gains[gains.length - 1];
+
+    double t = (position - positions[i - 1]) / (positions[i] - positions[i - 1]);
+    return (float)(gains[i - 1] + (gains[i] - gains[i - 1]) * t);
+  }
+}
@@ -0,0 +1,31 @@
+package apes.models.gain;
+
+/**
+ * Envelope with the same gain everywhere.
+ */
+public class ConstantEnvelope extends Envelope
+{
+  private float gain;
+
+  /**
+   * Creates a new <code>ConstantEnvelope</code>.
+   * 
+   * @param gain The gain.
+   */
+  public ConstantEnvelope(float gain)
+  {
+    this.gain = gain;
+  }
+
+  @Override
+  public float getGain(double position)
+  {
+    return gain;
+  }
+
+  @Override
+  public boolean isConstant()
+  {
+    return true;
+  }
+}
@@ -0,0 +1,60 @@
+package apes.models.gain;
+
+/**
+ * <p>
+ * A gain curve over a range of samples. The gain is given for a position in
+ * the range, from 0 at the first sample to 1 at the last, so the same
+ * envelope can be applied to a range of any length, see
+ * {@link apes.models.InternalFormat#applyEnvelope applyEnvelope}.
+ * </p>
+ * <p>
+ * Subclasses give the gain at a position. The gains of a block are filled in
+ * at once by {@link Envelope#fill fill}, which subclasses may override when
+ * they can do it faster.
+ * </p>
+ */
+public abstract class Envelope
+{
+  /**
+   * Returns the gain at <code>position</code>.
+   * 
+   * @param position Position in the range, from 0 to 1.
+   * @return The gain.
+   */
+  public abstract float getGain(double position);
+
+  /**
+   * Returns true if the gain is the same at all positions.
+   * 
+   * @return True if the envelope is constant.
+   */
+  public boolean isConstant()
+  {
+    return false;
+  }
+
+  /**
+   * Puts the gains of <code>amount</code> samples, starting with sample
+   * <code>index</code> of a range of <code>length</code> samples, in
+   * <code>gains</code>. Each gain is repeated once for each channel, so that
+   * it lines up with interleaved samples.
+   * 
+   * @param index Index in the range of the first sample.
+   * @param length Amount of samples in the range.
+   * @param gains Array for the gains.
+   * @param channels Number of channels.
+   * @param amount Amount of samples.
+   */
+  public void fill(long index, long length, float[] gains, int channels, int amount)
+  {
+    double step = length > 1 ? 1.0 / (length - 1) : 0;
+
+    for(int i = 0, g = 0; i < amount; i++)
+    {
+      float gain = getGain((index + i) * step);
+
+      for(int c = 0; c < channels; c++, g++)
+        gains[g] = gain;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package apes.models.gain;
+
+/**
+ * Envelope that changes slowly where the gain is low and fast where it is
+ * high, which is heard as an even change in loudness. The curve covers
+ * {@link ExponentialEnvelope#RANGE} dB, so a fade from or to 0 spends most of
+ * its time near silence and still ends exactly at 0.
+ */
+public class ExponentialEnvelope extends Envelope
+{
+  /**
+   * Decibels covered by the curve.
+   */
+  public static final double RANGE = 60;
+
+  /**
+   * The ratio between the gain at the top and at the bottom of the curve.
+   */
+  private static final double RATIO = Math.pow(10, RANGE / 20);
+
+  private float from, to;
+
+  /**
+   * Creates a new <code>ExponentialEnvelope</code>.
+   * 
+   * @param from Gain at the first sample.
+   * @param to Gain at the last sample.
+   */
+  public ExponentialEnvelope(float from, float to)
+  {
+    this.from = from;
+    this.to = to;
+  }
+
+  @Override
+  public float getGain(double position)
+  {
+    // The curve is steepest at the louder end
+    if(from <= to)
+      return (float)(from + (to - from) * curve(position));
+
+    return (float)(to + (from - to) * curve(1 - position));
+  }
+
+  /**
+   * Goes from 0 to 1, slowly at first.
+   */
+  private static double curve(double position)
+  {
+    return (Math.pow(RATIO, position) - 1) / (RATIO - 1);
+  }
+}
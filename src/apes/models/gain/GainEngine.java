@@ -0,0 +1,259 @@
+package apes.models.gain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import apes.interfaces.GainKernel;
+import apes.interfaces.SampleCodec;
+import apes.models.MemoryHandler;
+
+
+/**
+ * <p>
+ * Changes the gain of samples in a memory handler, following an
+ * {@link Envelope}. The samples are split in blocks on multiples of the page
+ * size, and the blocks are decoded, scaled and encoded in parallel on the
+ * common fork-join pool, so each sample is read and written once whatever the
+ * envelope. Results are clipped, so integer samples saturate instead of
+ * wrapping around.
+ * </p>
+ * <p>
+ * The scaling is done by a {@link GainKernel}. When the module
+ * <code>jdk.incubator.vector</code> is added the vector kernel is used,
+ * otherwise the scalar one. This class uses the Singleton pattern.
+ * </p>
+ */
+public class GainEngine
+{
+  /**
+   * An instance of this class.
+   */
+  private static GainEngine instance = null;
+
+  /**
+   * The kernel used for all scaling.
+   */
+  private GainKernel kernel;
+
+  /**
+   * The pool the blocks are scaled on.
+   */
+  private ForkJoinPool pool;
+
+  /**
+   * Creates a new <code>GainEngine</code>.
+   */
+  private GainEngine()
+  {
+    kernel = createKernel();
+    pool = ForkJoinPool.commonPool();
+  }
+
+  /**
+   * Returns the vector kernel if it can be loaded, and the scalar kernel
+   * otherwise.
+   * 
+   * @return The kernel.
+   */
+  private static GainKernel createKernel()
+  {
+    try
+    {
+      return (GainKernel)Class.forName("apes.models.gain.VectorGainKernel").getDeclaredConstructor().newInstance();
+    }
+    catch(Exception | LinkageError e)
+    {
+      return new ScalarGainKernel();
+    }
+  }
+
+  /**
+   * Returns the kernel used for scaling.
+   * 
+   * @return The kernel.
+   */
+  public GainKernel getKernel()
+  {
+    return kernel;
+  }
+
+  /**
+   * Multiplies the samples from byte <code>startB</code> to byte
+   * <code>endB</code> of <code>memoryHandler</code> by the gains of
+   * <code>envelope</code>, clipping them to between <code>min</code> and
+   * <code>max</code>. The envelope spans the whole range. Both bytes must be
+   * on sample boundaries.
+   * 
+   * @param memoryHandler The memory handler.
+   * @param codec The codec of the samples.
+   * @param frameSize Bytes of one sample in all channels.
+   * @param startB The first byte.
+   * @param endB The byte after the last.
+   * @param envelope The gains.
+   * @param min The smallest value allowed.
+   * @param max The largest value allowed.
+   * @throws IOException If the samples could not be read or written.
+   */
+  public void apply(MemoryHandler memoryHandler, SampleCodec codec, int frameSize, long startB, long endB, Envelope envelope, float min, float max) throws IOException
+  {
+    if(startB >= endB)
+      return;
+
+    int blockB = Math.max(1, memoryHandler.getPageSize() / frameSize) * frameSize;
+    Job job = new Job(memoryHandler, codec, kernel, frameSize, startB, endB, envelope, min, max);
+    ScaleTask task = new ScaleTask(job, blockB, startB, endB);
+
+    try
+    {
+      // One block is not worth handing over to the pool
+      if(task.isBlock())
+        task.compute();
+      else
+        pool.invoke(task);
+    }
+    catch(UncheckedIOException e)
+    {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Returns an instance of this class.
+   * 
+   * @return The instance.
+   */
+  public static synchronized GainEngine getInstance()
+  {
+    if(instance == null)
+    {
+      instance = new GainEngine();
+    }
+
+    return instance;
+  }
+
+  /**
+   * What is to be done, shared by all tasks of one call to
+   * {@link GainEngine#apply apply}.
+   */
+  private static class Job
+  {
+    private final MemoryHandler memoryHandler;
+
+    private final SampleCodec codec;
+
+    private final GainKernel kernel;
+
+    private final int frameSize;
+
+    private final long startB, endB;
+
+    private final Envelope envelope;
+
+    private final float min, max;
+
+    public Job(MemoryHandler memoryHandler, SampleCodec codec, GainKernel kernel, int frameSize, long startB, long endB, Envelope envelope, float min, float max)
+    {
+      this.memoryHandler = memoryHandler;
+      this.codec = codec;
+      this.kernel = kernel;
+      this.frameSize = frameSize;
+      this.startB = startB;
+      this.endB = endB;
+      this.envelope = envelope;
+      this.min = min;
+      this.max = max;
+    }
+  }
+
+  /**
+   * Scales the bytes from <code>from</code> to <code>to</code>, by splitting
+   * them in halves on block boundaries until they are within one block.
+   */
+  private static class ScaleTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final Job job;
+
+    private final int blockB;
+
+    private final long from, to;
+
+    public ScaleTask(Job job, int blockB, long from, long to)
+    {
+      this.job = job;
+      this.blockB = blockB;
+      this.from = from;
+      this.to = to;
+    }
+
+    /**
+     * Returns true if the bytes are within one block.
+     */
+    public boolean isBlock()
+    {
+      return from / blockB == (to - 1) / blockB;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if(isBlock())
+      {
+        scaleBlock();
+        return;
+      }
+
+      long mid = (from + (to - from) / 2) / blockB * blockB;
+      if(mid <= from)
+        mid += blockB;
+
+      invokeAll(new ScaleTask(job, blockB, from, mid), new ScaleTask(job, blockB, mid, to));
+    }
+
+    private void scaleBlock()
+    {
+      SampleCodec codec = job.codec;
+      int bytesPerSample = codec.getBytesPerSample();
+      int lengthB = (int)(to - from);
+      int amount = lengthB / bytesPerSample;
+
+      byte[] data = new byte[lengthB];
+      float[] values = new float[amount];
+
+      try
+      {
+        if(!job.memoryHandler.read(from, data, 0, lengthB))
+          throw new IOException("Could not read samples at " + from);
+
+        // The samples of all channels are interleaved, as are the gains
+        codec.decode(data, 0, bytesPerSample, values, 0, amount);
+
+        if(job.envelope.isConstant())
+        {
+          job.kernel.apply(values, 0, amount, job.envelope.getGain(0), job.min, job.max);
+        }
+        else
+        {
+          float[] gains = new float[amount];
+          long index = (from - job.startB) / job.frameSize;
+          long length = (job.endB - job.startB) / job.frameSize;
+
+          job.envelope.fill(index, length, gains, job.frameSize / bytesPerSample, lengthB / job.frameSize);
+          job.kernel.apply(values, gains, 0, amount, job.min, job.max);
+        }
+
+        codec.encode(values, 0, data, 0, bytesPerSample, amount);
+
+        job.memoryHandler.write(from, data, 0, lengthB);
+      }
+      catch(IOException e)
+      {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
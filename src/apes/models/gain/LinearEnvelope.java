@@ -0,0 +1,27 @@
+package apes.models.gain;
+
+/**
+ * Envelope that goes in a straight line from one gain to another.
+ */
+public class LinearEnvelope extends Envelope
+{
+  private float from, to;
+
+  /**
+   * Creates a new <code>LinearEnvelope</code>.
+   * 
+   * @param from Gain at the first sample.
+   * @param to Gain at the last sample.
+   */
+  public LinearEnvelope(float from, float to)
+  {
+    this.from = from;
+    this.to = to;
+  }
+
+  @Override
+  public float getGain(double position)
+  {
+    return (float)(from + (to - from) * position);
+  }
+}
@@ -0,0 +1,28 @@
+package apes.models.gain;
+
+/**
+ * Envelope that starts and ends its change slowly, following half a period
+ * of a cosine.
+ */
+public class SCurveEnvelope extends Envelope
+{
+  private float from, to;
+
+  /**
+   * Creates a new <code>SCurveEnvelope</code>.
+   * 
+   * @param from Gain at the first sample.
+   * @param to Gain at the last sample.
+   */
+  public SCurveEnvelope(float from, float to)
+  {
+    this.from = from;
+    this.to = to;
+  }
+
+  @Override
+  public float getGain(double position)
+  {
+    return (float)(from + (to - from) * (1 - Math.cos(Math.PI * position)) / 2);
+  }
+}
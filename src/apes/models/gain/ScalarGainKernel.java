@@ -0,0 +1,23 @@
+package apes.models.gain;
+
+import apes.interfaces.GainKernel;
+
+
+/**
+ * Gain kernel that works on one sample at a time. Used where the vector API
+ * is not available.
+ */
+public class ScalarGainKernel implements GainKernel
+{
+  public void apply(float[] values, int offset, int amount, float gain, float min, float max)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++)
+      values[i] = Math.max(min, Math.min(max, values[i] * gain));
+  }
+
+  public void apply(float[] values, float[] gains, int offset, int amount, float min, float max)
+  {
+    for(int i = offset, end = offset + amount; i < end; i++)
+      values[i] = Math.max(min, Math.min(max, values[i] * gains[i]));
+  }
+}
@@ -0,0 +1,51 @@
+package apes.models.gain;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import apes.interfaces.GainKernel;
+
+
+/**
+ * Gain kernel that works on as many samples at a time as the processor can,
+ * with the incubating vector API. The class can only be loaded when the
+ * module <code>jdk.incubator.vector</code> is added, see
+ * {@link GainEngine}.
+ */
+public class VectorGainKernel implements GainKernel
+{
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  public void apply(float[] values, int offset, int amount, float gain, float min, float max)
+  {
+    int i = offset;
+    int end = offset + amount;
+    int bound = offset + SPECIES.loopBound(amount);
+
+    FloatVector lo = FloatVector.broadcast(SPECIES, min);
+    FloatVector hi = FloatVector.broadcast(SPECIES, max);
+
+    for(; i < bound; i += SPECIES.length())
+      FloatVector.fromArray(SPECIES, values, i).mul(gain).max(lo).min(hi).intoArray(values, i);
+
+    // The samples that do not fill a vector
+    for(; i < end; i++)
+      values[i] = Math.max(min, Math.min(max, values[i] * gain));
+  }
+
+  public void apply(float[] values, float[] gains, int offset, int amount, float min, float max)
+  {
+    int i = offset;
+    int end = offset + amount;
+    int bound = offset + SPECIES.loopBound(amount);
+
+    FloatVector lo = FloatVector.broadcast(SPECIES, min);
+    FloatVector hi = FloatVector.broadcast(SPECIES, max);
+
+    for(; i < bound; i += SPECIES.length())
+      FloatVector.fromArray(SPECIES, values, i).mul(FloatVector.fromArray(SPECIES, gains, i)).max(lo).min(hi).intoArray(values, i);
+
+    for(; i < end; i++)
+      values[i] = Math.max(min, Math.min(max, values[i] * gains[i]));
+  }
+}
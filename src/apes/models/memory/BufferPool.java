@@ -0,0 +1,193 @@
+package apes.models.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Set;
+
+
+/**
+ * <p>
+ * A pool of direct (off-heap) buffers that frames keep their data in. All
+ * buffers have the same capacity, one page, and are allocated up front by
+ * {@link BufferPool#configure configure} when the frame table is created, so
+ * the pool never grows past the memory budget and loading a page never
+ * allocates anything.
+ * </p>
+ * <p>
+ * Each frame holds one buffer. The rest are spares, which a frame takes when
+ * it hands its buffer to the write behind thread and which the prefetcher
+ * reads pages into. The prefetcher may not take the last
+ * <code>reserved</code> spares, so evictions always get a buffer once the
+ * writes in progress are done. Buffers that did not come from the pool, such
+ * as those of pages that are never swapped, are not kept when given back.
+ * This class uses the Singleton pattern.
+ * </p>
+ */
+public class BufferPool
+{
+  /**
+   * An instance of this class.
+   */
+  private static BufferPool instance = null;
+
+  /**
+   * Free buffers.
+   */
+  private LinkedList<ByteBuffer> free;
+
+  /**
+   * All buffers of the pool.
+   */
+  private Set<ByteBuffer> owned;
+
+  /**
+   * Capacity of each buffer.
+   */
+  private int capacity;
+
+  /**
+   * Number of free buffers that only {@link #acquire} may take.
+   */
+  private int reserved;
+
+  /**
+   * Number of bytes allocated.
+   */
+  private long allocated;
+
+  private BufferPool()
+  {
+    free = new LinkedList<ByteBuffer>();
+    owned = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+  }
+
+  /**
+   * Allocates <code>buffers</code> buffers of <code>capacity</code> bytes.
+   * Only the first call does anything.
+   * 
+   * @param capacity Capacity of each buffer.
+   * @param buffers Number of buffers.
+   * @param reserved Number of free buffers {@link #tryAcquire} leaves.
+   */
+  public synchronized void configure(int capacity, int buffers, int reserved)
+  {
+    if(this.capacity > 0)
+      return;
+
+    this.capacity = capacity;
+    this.reserved = reserved;
+
+    for(int i = 0; i < buffers; i++)
+    {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+      owned.add(buffer);
+      free.add(buffer);
+    }
+
+    allocated = (long)capacity * buffers;
+  }
+
+  /**
+   * Returns a cleared buffer, waiting for one to be given back if there is
+   * none free. Its content is undefined.
+   * 
+   * @return The buffer.
+   */
+  public synchronized ByteBuffer acquire()
+  {
+    while(free.isEmpty())
+    {
+      try
+      {
+        wait();
+      }
+      catch(InterruptedException e)
+      {
+        e.printStackTrace();
+      }
+    }
+
+    ByteBuffer buffer = free.removeFirst();
+    buffer.clear();
+
+    return buffer;
+  }
+
+  /**
+   * Returns a cleared buffer if more than the reserved number are free,
+   * otherwise null. Its content is undefined.
+   * 
+   * @return The buffer, or null.
+   */
+  public synchronized ByteBuffer tryAcquire()
+  {
+    if(free.size() <= reserved)
+      return null;
+
+    return acquire();
+  }
+
+  /**
+   * Returns a new buffer of <code>capacity</code> bytes that is not part of
+   * the pool, for data that is kept in memory for good.
+   * 
+   * @param capacity The capacity.
+   * @return The buffer.
+   */
+  public ByteBuffer allocate(int capacity)
+  {
+    return ByteBuffer.allocateDirect(capacity);
+  }
+
+  /**
+   * Gives <code>buffer</code> back to the pool. It may not be used afterwards.
+   * 
+   * @param buffer The buffer.
+   */
+  public synchronized void release(ByteBuffer buffer)
+  {
+    if(!owned.contains(buffer))
+      return;
+
+    free.add(buffer);
+    notifyAll();
+  }
+
+  /**
+   * Returns the capacity of the buffers, which is the largest page that fits
+   * in a frame.
+   * 
+   * @return Capacity in bytes.
+   */
+  public synchronized int getCapacity()
+  {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of bytes allocated by the pool.
+   * 
+   * @return Bytes allocated.
+   */
+  public synchronized long getAllocated()
+  {
+    return allocated;
+  }
+
+  /**
+   * Will return an instance of this class.
+   * 
+   * @return An instance of this class.
+   */
+  public static synchronized BufferPool getInstance()
+  {
+    if(instance == null)
+    {
+      instance = new BufferPool();
+    }
+
+    return instance;
+  }
+}
@@ -0,0 +1,104 @@
+package apes.models.memory;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.function.IntPredicate;
+
+import apes.interfaces.ReplacementPolicy;
+
+
+/**
+ * The CLOCK replacement policy. Each frame has a reference bit that is set
+ * when the frame is used. A hand sweeps over the frames, clearing bits, and
+ * evicts the first frame whose bit already was cleared.
+ */
+public class ClockPolicy implements ReplacementPolicy
+{
+  /**
+   * Reference bit of each frame.
+   */
+  private boolean[] referenced;
+
+  /**
+   * Empty frames.
+   */
+  private LinkedList<Integer> empty;
+
+  /**
+   * The clock hand.
+   */
+  private int hand;
+
+  /**
+   * Creates a new <code>ClockPolicy</code>.
+   * 
+   * @param frames Number of frames.
+   */
+  public ClockPolicy(int frames)
+  {
+    referenced = new boolean[frames];
+    empty = new LinkedList<Integer>();
+    for(int i = 0; i < frames; i++)
+      empty.add(i);
+  }
+
+  public void accessed(int frame)
+  {
+    referenced[frame] = true;
+  }
+
+  public void loaded(int frame, Object page)
+  {
+    referenced[frame] = true;
+  }
+
+  public void freed(int frame)
+  {
+    referenced[frame] = false;
+    if(!empty.contains(frame))
+      empty.add(frame);
+  }
+
+  public int victim()
+  {
+    return victim(frame -> true);
+  }
+
+  public int victim(IntPredicate evictable)
+  {
+    for(Iterator<Integer> it = empty.iterator(); it.hasNext();)
+    {
+      int frame = it.next();
+      if(evictable.test(frame))
+      {
+        it.remove();
+        return frame;
+      }
+    }
+
+    // The first round may only clear reference bits. Frames that are passed
+    // over keep their bit.
+    for(int i = 0; i < referenced.length * 2; i++)
+    {
+      int frame = hand;
+      hand = (hand + 1) % referenced.length;
+
+      if(!evictable.test(frame))
+        continue;
+
+      if(!referenced[frame])
+        return frame;
+
+      referenced[frame] = false;
+    }
+
+    return -1;
+  }
+
+  public void reinstate(int frame, Object page)
+  {
+    // A full frame never leaves the clock
+    if(page == null && !empty.contains(frame))
+      empty.addFirst(frame);
+  }
+}
@@ -0,0 +1,135 @@
+package apes.models.memory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * <p>
+ * Merges small pages back together in a background thread. Editing splits
+ * pages, and after a while the memory handlers are full of tiny pages. A
+ * handler schedules a {@link Compactor.Task Task} when it has been split, and
+ * the task is then run a little at a time until it has nothing more to do.
+ * </p>
+ * <p>
+ * Tasks are run every {@link Compactor#INTERVAL} milliseconds. A task is
+ * expected to do nothing while its handler is in use, see
+ * {@link Compactor#IDLE_TIME}. This class uses the Singleton pattern.
+ * </p>
+ */
+public class Compactor implements Runnable
+{
+  /**
+   * Milliseconds between runs.
+   */
+  public static final long INTERVAL = 250;
+
+  /**
+   * Milliseconds a handler must have been unused before it is compacted.
+   */
+  public static final long IDLE_TIME = 1000;
+
+  /**
+   * An instance of this class.
+   */
+  private static Compactor instance = null;
+
+  /**
+   * Tasks with work left to do.
+   */
+  private Set<Task> tasks;
+
+  /**
+   * Creates a new <code>Compactor</code> and starts its thread.
+   */
+  private Compactor()
+  {
+    tasks = new LinkedHashSet<Task>();
+
+    Thread thread = new Thread(this, "apes-compactor");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Schedules <code>task</code> to be run until it is done. Scheduling a task
+   * that is already scheduled does nothing.
+   * 
+   * @param task The task.
+   */
+  public synchronized void schedule(Task task)
+  {
+    tasks.add(task);
+    notifyAll();
+  }
+
+  /**
+   * Runs all tasks every {@link Compactor#INTERVAL} milliseconds.
+   */
+  public void run()
+  {
+    while(true)
+    {
+      try
+      {
+        List<Task> pending;
+
+        synchronized(this)
+        {
+          while(tasks.isEmpty())
+            wait();
+
+          pending = new ArrayList<Task>(tasks);
+        }
+
+        Thread.sleep(INTERVAL);
+
+        for(Task task : pending)
+        {
+          if(!task.compact())
+          {
+            synchronized(this)
+            {
+              tasks.remove(task);
+            }
+          }
+        }
+      }
+      catch(InterruptedException e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Will return an instance of this class.
+   * 
+   * @return An instance of this class.
+   */
+  public static synchronized Compactor getInstance()
+  {
+    if(instance == null)
+    {
+      instance = new Compactor();
+    }
+
+    return instance;
+  }
+
+  /**
+   * Something to compact.
+   */
+  public interface Task
+  {
+    /**
+     * Does a bounded amount of compaction. Called in the compactor thread.
+     * 
+     * @return False if there is nothing more to do, true otherwise.
+     */
+    public boolean compact();
+  }
+}
@@ -0,0 +1,292 @@
+package apes.models.memory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import apes.interfaces.CompressedPageStoreMBean;
+import apes.interfaces.PageStore;
+
+
+/**
+ * <p>
+ * Stores pages compressed with a {@link RiceCodec} in the {@link SwapFile}.
+ * Pages are encoded when they are written, which is done in the write behind
+ * thread, and decoded when they are read. A slot in the swap file is only
+ * taken when a page is written, and is as large as the encoded page.
+ * </p>
+ * <p>
+ * Keeps statistics on how many bytes are saved and how long decoding takes,
+ * which can be read from code, or from JMX once
+ * {@link CompressedPageStore#register register} has been called.
+ * </p>
+ */
+public class CompressedPageStore implements PageStore, CompressedPageStoreMBean
+{
+  /**
+   * The JMX name of the statistics, next to those of the memory handlers.
+   */
+  public static final String NAME = MemoryStatistics.NAME + ",name=store";
+
+  /**
+   * The swap file.
+   */
+  private SwapFile swapFile;
+
+  /**
+   * The codec.
+   */
+  private RiceCodec codec;
+
+  /**
+   * All allocated pages by slot.
+   */
+  private Map<Long, Entry> entries;
+
+  /**
+   * The next slot to give out.
+   */
+  private AtomicLong nextSlot;
+
+  /**
+   * Length of all written pages, decoded.
+   */
+  private AtomicLong rawBytes;
+
+  /**
+   * Length of all written pages, encoded.
+   */
+  private AtomicLong storedBytes;
+
+  /**
+   * Number of decoded pages.
+   */
+  private AtomicLong decodes;
+
+  /**
+   * Total time spent decoding, in nanoseconds.
+   */
+  private AtomicLong decodeTime;
+
+  /**
+   * True if the statistics are registered.
+   */
+  private boolean registered;
+
+  /**
+   * Creates a new <code>CompressedPageStore</code>.
+   * 
+   * @param codec The codec to use.
+   * @throws IOException If the swap file could not be created.
+   */
+  public CompressedPageStore(RiceCodec codec) throws IOException
+  {
+    this.codec = codec;
+
+    swapFile = SwapFile.getInstance();
+    entries = new ConcurrentHashMap<Long, Entry>();
+    nextSlot = new AtomicLong();
+    rawBytes = new AtomicLong();
+    storedBytes = new AtomicLong();
+    decodes = new AtomicLong();
+    decodeTime = new AtomicLong();
+  }
+
+  public long allocate(long length, int sampleBytes, int channels)
+  {
+    long slot = nextSlot.getAndIncrement();
+    entries.put(slot, new Entry((int)length, sampleBytes, channels));
+
+    return slot;
+  }
+
+  public void free(long slot, long length)
+  {
+    Entry entry = entries.remove(slot);
+
+    if(entry != null)
+    {
+      synchronized(entry)
+      {
+        entry.replace(-1, 0);
+      }
+    }
+  }
+
+  public void read(long slot, ByteBuffer data, int length)
+  {
+    Entry entry = entries.get(slot);
+    if(entry == null)
+      return;
+
+    synchronized(entry)
+    {
+      if(entry.stored == 0)
+        return;
+
+      long start = System.nanoTime();
+      RiceCodec.decode(swapFile.view(entry.offset, entry.stored), data, length, entry.sampleBytes, entry.channels);
+
+      decodeTime.addAndGet(System.nanoTime() - start);
+      decodes.incrementAndGet();
+    }
+  }
+
+  public void write(long slot, ByteBuffer data, int start, int end) throws IOException
+  {
+    Entry entry = entries.get(slot);
+    if(entry == null)
+      return;
+
+    byte[] encoded = codec.encode(data, entry.length, entry.sampleBytes, entry.channels);
+
+    long offset = swapFile.allocate(encoded.length);
+    swapFile.write(offset, ByteBuffer.wrap(encoded), 0, encoded.length);
+
+    synchronized(entry)
+    {
+      entry.replace(offset, encoded.length);
+    }
+  }
+
+  public boolean copy(long source, int offset, long target, int length)
+  {
+    // Pages must be decoded to be cut
+    return false;
+  }
+
+  public boolean transferTo(long slot, int offset, int length, WritableByteChannel channel)
+  {
+    return false;
+  }
+
+  public boolean wholePages()
+  {
+    return true;
+  }
+
+  /**
+   * Returns the number of bytes saved by compression, for all pages that
+   * are written.
+   * 
+   * @return Bytes saved.
+   */
+  public long getBytesSaved()
+  {
+    return rawBytes.get() - storedBytes.get();
+  }
+
+  /**
+   * Returns the number of bytes the written pages take in the swap file.
+   * 
+   * @return Bytes stored.
+   */
+  public long getStoredBytes()
+  {
+    return storedBytes.get();
+  }
+
+  /**
+   * Returns the number of pages that have been decoded.
+   * 
+   * @return Number of decodes.
+   */
+  public long getDecodes()
+  {
+    return decodes.get();
+  }
+
+  /**
+   * Returns the average time it takes to decode one page.
+   * 
+   * @return Time in nanoseconds.
+   */
+  public long getAverageDecodeTime()
+  {
+    long n = decodes.get();
+
+    return n == 0 ? 0 : decodeTime.get() / n;
+  }
+
+  /**
+   * Makes the statistics visible through JMX, named
+   * {@link CompressedPageStore#NAME}. Does nothing if already registered.
+   */
+  public synchronized void register()
+  {
+    if(registered)
+      return;
+
+    try
+    {
+      StandardMBean bean = new StandardMBean(this, CompressedPageStoreMBean.class);
+
+      ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(NAME));
+      registered = true;
+    }
+    catch(JMException e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Where a page is stored.
+   */
+  private class Entry
+  {
+    private int length;
+
+    private int sampleBytes;
+
+    private int channels;
+
+    /**
+     * Offset of the encoded page in the swap file.
+     */
+    private long offset;
+
+    /**
+     * Length of the encoded page, or 0 if it has not been written.
+     */
+    private int stored;
+
+    public Entry(int length, int sampleBytes, int channels)
+    {
+      this.length = length;
+      this.sampleBytes = sampleBytes;
+      this.channels = channels;
+    }
+
+    /**
+     * Moves the page to a new slot in the swap file and frees the old one.
+     * A length of 0 means no slot.
+     */
+    public void replace(long offset, int stored)
+    {
+      if(this.stored > 0)
+      {
+        swapFile.free(this.offset, this.stored);
+        storedBytes.addAndGet(-this.stored);
+        rawBytes.addAndGet(-length);
+      }
+
+      this.offset = offset;
+      this.stored = stored;
+
+      if(stored > 0)
+      {
+        storedBytes.addAndGet(stored);
+        rawBytes.addAndGet(length);
+      }
+    }
+  }
+}
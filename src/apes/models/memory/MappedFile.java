@@ -0,0 +1,129 @@
+package apes.models.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * <p>
+ * A read-only memory mapping of a range of a file. Opened files are used as
+ * the data of pages directly, so that nothing is copied when a file is
+ * opened and only the parts that are used are ever read from disk.
+ * </p>
+ * <p>
+ * The range is mapped in segments of {@link MappedFile#SEGMENT_SIZE} bytes.
+ * The file must not be changed while it is mapped.
+ * </p>
+ */
+public class MappedFile
+{
+  /**
+   * Size of each mapped segment.
+   */
+  public static final int SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+  /**
+   * The mapped segments, in order.
+   */
+  private MappedByteBuffer[] segments;
+
+  /**
+   * Length of the mapped range.
+   */
+  private long length;
+
+  /**
+   * Maps <code>length</code> bytes of <code>file</code>, starting at
+   * <code>offset</code>.
+   * 
+   * @param file The file.
+   * @param offset Offset of the range in the file.
+   * @param length Length of the range.
+   * @throws IOException If the file could not be mapped.
+   */
+  public MappedFile(File file, long offset, long length) throws IOException
+  {
+    this.length = length;
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try
+    {
+      FileChannel channel = raf.getChannel();
+
+      segments = new MappedByteBuffer[(int)((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for(int i = 0; i < segments.length; i++)
+      {
+        long position = i * (long)SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + position, Math.min(SEGMENT_SIZE, length - position));
+      }
+    }
+    finally
+    {
+      // The mapping stays valid after the file is closed
+      raf.close();
+    }
+  }
+
+  /**
+   * Copies <code>amount</code> bytes at <code>offset</code> in the range into
+   * <code>data</code>, starting at index 0. The position and limit of
+   * <code>data</code> are not changed.
+   * 
+   * @param offset Offset in the range.
+   * @param data Buffer to copy to.
+   * @param amount Amount of bytes.
+   */
+  public void read(long offset, ByteBuffer data, int amount)
+  {
+    ByteBuffer target = data.duplicate();
+    target.clear();
+
+    while(amount > 0)
+    {
+      ByteBuffer source = segments[(int)(offset / SEGMENT_SIZE)].duplicate();
+      source.position((int)(offset % SEGMENT_SIZE));
+
+      int n = Math.min(amount, source.remaining());
+      source.limit(source.position() + n);
+      target.put(source);
+
+      offset += n;
+      amount -= n;
+    }
+  }
+
+  /**
+   * Returns a read-only view of <code>amount</code> bytes at
+   * <code>offset</code> in the range, or null if they are in different
+   * segments.
+   * 
+   * @param offset Offset in the range.
+   * @param amount Amount of bytes.
+   * @return The view, starting at index 0.
+   */
+  public ByteBuffer view(long offset, int amount)
+  {
+    if(offset / SEGMENT_SIZE != (offset + amount - 1) / SEGMENT_SIZE)
+      return null;
+
+    ByteBuffer view = segments[(int)(offset / SEGMENT_SIZE)].asReadOnlyBuffer();
+    view.position((int)(offset % SEGMENT_SIZE));
+    view.limit(view.position() + amount);
+
+    return view.slice();
+  }
+
+  /**
+   * Returns the length of the mapped range.
+   * 
+   * @return Length in bytes.
+   */
+  public long length()
+  {
+    return length;
+  }
+}
@@ -0,0 +1,292 @@
+package apes.models.memory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import apes.interfaces.MemoryStatisticsMBean;
+
+
+/**
+ * <p>
+ * Counts what a memory handler does with its pages. Each handler has one,
+ * and everything counted is also counted in the statistics given to the
+ * constructor, so that there can be one for all handlers together.
+ * </p>
+ * <p>
+ * Counting is done with atomic variables and never takes a lock. The
+ * statistics can be read from code, or from JMX once
+ * {@link MemoryStatistics#register register} has been called.
+ * </p>
+ */
+public class MemoryStatistics implements MemoryStatisticsMBean
+{
+  /**
+   * Domain and type of the JMX names.
+   */
+  public static final String NAME = "apes:type=MemoryHandler";
+
+  /**
+   * Used to name registered statistics.
+   */
+  private static AtomicInteger ids = new AtomicInteger();
+
+  /**
+   * Statistics that everything is counted in as well, or null.
+   */
+  private MemoryStatistics parent;
+
+  private AtomicLong hits, misses, prefetches, evictions, bytesRead, bytesWritten, swapTime;
+
+  /**
+   * Number of pieces, and number of pages needed if they were all full.
+   */
+  private AtomicLong pages, fullPages;
+
+  /**
+   * The JMX name, or null if not registered.
+   */
+  private ObjectName name;
+
+  /**
+   * Creates a new <code>MemoryStatistics</code>.
+   * 
+   * @param parent Statistics to count in as well, or null.
+   */
+  public MemoryStatistics(MemoryStatistics parent)
+  {
+    this.parent = parent;
+
+    hits = new AtomicLong();
+    misses = new AtomicLong();
+    prefetches = new AtomicLong();
+    evictions = new AtomicLong();
+    bytesRead = new AtomicLong();
+    bytesWritten = new AtomicLong();
+    swapTime = new AtomicLong();
+    pages = new AtomicLong();
+    fullPages = new AtomicLong();
+  }
+
+  /**
+   * Counts a page access where the page was in memory.
+   */
+  public void hit()
+  {
+    hits.incrementAndGet();
+    if(parent != null)
+      parent.hit();
+  }
+
+  /**
+   * Counts a page access where the page had to be swapped in.
+   * 
+   * @param time Nanoseconds spent swapping.
+   */
+  public void miss(long time)
+  {
+    misses.incrementAndGet();
+    swapTime.addAndGet(time);
+    if(parent != null)
+      parent.miss(time);
+  }
+
+  /**
+   * Counts a miss where the page had been read ahead.
+   */
+  public void prefetched()
+  {
+    prefetches.incrementAndGet();
+    if(parent != null)
+      parent.prefetched();
+  }
+
+  /**
+   * Counts an evicted page.
+   */
+  public void evicted()
+  {
+    evictions.incrementAndGet();
+    if(parent != null)
+      parent.evicted();
+  }
+
+  /**
+   * Counts bytes swapped in.
+   * 
+   * @param bytes Amount of bytes.
+   */
+  public void read(long bytes)
+  {
+    bytesRead.addAndGet(bytes);
+    if(parent != null)
+      parent.read(bytes);
+  }
+
+  /**
+   * Counts bytes swapped out.
+   * 
+   * @param bytes Amount of bytes.
+   */
+  public void written(long bytes)
+  {
+    bytesWritten.addAndGet(bytes);
+    if(parent != null)
+      parent.written(bytes);
+  }
+
+  /**
+   * Sets the size of the piece table.
+   * 
+   * @param pieces Number of pieces.
+   * @param length Length of the data in bytes.
+   * @param pageSize Size of a full page.
+   */
+  public void layout(long pieces, long length, long pageSize)
+  {
+    long full = (length + pageSize - 1) / pageSize;
+
+    long addedPieces = pieces - pages.getAndSet(pieces);
+    long addedFull = full - fullPages.getAndSet(full);
+
+    if(parent != null)
+      parent.change(addedPieces, addedFull);
+  }
+
+  /**
+   * Adds to the size of the piece tables counted.
+   */
+  private void change(long pieces, long full)
+  {
+    pages.addAndGet(pieces);
+    fullPages.addAndGet(full);
+    if(parent != null)
+      parent.change(pieces, full);
+  }
+
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  public double getHitRate()
+  {
+    long h = hits.get();
+    long total = h + misses.get();
+
+    return total == 0 ? 0 : h / (double)total;
+  }
+
+  public long getPrefetches()
+  {
+    return prefetches.get();
+  }
+
+  public long getEvictions()
+  {
+    return evictions.get();
+  }
+
+  public long getBytesRead()
+  {
+    return bytesRead.get();
+  }
+
+  public long getBytesWritten()
+  {
+    return bytesWritten.get();
+  }
+
+  public long getSwapTime()
+  {
+    return swapTime.get();
+  }
+
+  public long getAverageSwapTime()
+  {
+    long n = misses.get();
+
+    return n == 0 ? 0 : swapTime.get() / n;
+  }
+
+  public long getPages()
+  {
+    return pages.get();
+  }
+
+  public double getFragmentation()
+  {
+    long full = fullPages.get();
+
+    return full == 0 ? 1 : pages.get() / (double)full;
+  }
+
+  public void reset()
+  {
+    hits.set(0);
+    misses.set(0);
+    prefetches.set(0);
+    evictions.set(0);
+    bytesRead.set(0);
+    bytesWritten.set(0);
+    swapTime.set(0);
+  }
+
+  /**
+   * Makes the statistics visible through JMX, named <code>name</code>, or a
+   * number if null. Does nothing if already registered.
+   * 
+   * @param name Name of the statistics, or null.
+   */
+  public synchronized void register(String name)
+  {
+    if(this.name != null)
+      return;
+
+    if(name == null)
+      name = "" + ids.incrementAndGet();
+
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(NAME + ",name=" + ObjectName.quote(name));
+
+      server.registerMBean(new StandardMBean(this, MemoryStatisticsMBean.class), objectName);
+      this.name = objectName;
+    }
+    catch(JMException e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Removes the statistics from JMX.
+   */
+  public synchronized void unregister()
+  {
+    if(name == null)
+      return;
+
+    try
+    {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+    catch(JMException e)
+    {
+      e.printStackTrace();
+    }
+
+    name = null;
+  }
+}
@@ -0,0 +1,429 @@
+package apes.models.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * <p>
+ * An ordered sequence of pages indexed by byte offset. Internally this is a
+ * treap where each node stores the total length of its subtree. That means
+ * that no page ever stores its own absolute offset, so inserting or removing
+ * pages never requires the offsets of the following pages to be updated.
+ * </p>
+ * <p>
+ * Locating the page that contains an offset, inserting a page and removing a
+ * range of pages are all O(log pages) on average. Inserts and removals must
+ * happen on page boundaries. Splitting a page in two is up to the caller.
+ * </p>
+ */
+public class PageTree<T>
+{
+  /**
+   * The root of the tree.
+   */
+  private Node<T> root;
+
+  /**
+   * Used for node priorities.
+   */
+  private Random random;
+
+  /**
+   * Creates a new empty <code>PageTree</code>.
+   */
+  public PageTree()
+  {
+    random = new Random();
+  }
+
+  /**
+   * Returns the sum of the lengths of all pages.
+   * 
+   * @return The length in bytes.
+   */
+  public long length()
+  {
+    return total(root);
+  }
+
+  /**
+   * Returns the number of pages in the tree.
+   * 
+   * @return The number of pages.
+   */
+  public int size()
+  {
+    return count(root);
+  }
+
+  /**
+   * Returns true if there are no pages in the tree.
+   * 
+   * @return True if empty, false otherwise.
+   */
+  public boolean isEmpty()
+  {
+    return root == null;
+  }
+
+  /**
+   * Removes all pages from the tree.
+   */
+  public void clear()
+  {
+    root = null;
+  }
+
+  /**
+   * Returns the page that contains <code>offset</code>.
+   * 
+   * @param offset A byte offset.
+   * @return The entry of the page, or null if <code>offset</code> is outside
+   *         the tree.
+   */
+  public Entry<T> find(long offset)
+  {
+    if(offset < 0 || offset >= length())
+      return null;
+
+    Node<T> node = root;
+    long base = 0;
+
+    while(node != null)
+    {
+      long left = total(node.left);
+
+      if(offset < left)
+      {
+        node = node.left;
+      }
+      else if(offset < left + node.length)
+      {
+        return new Entry<T>(node.value, base + left, node.length);
+      }
+      else
+      {
+        offset -= left + node.length;
+        base += left + node.length;
+        node = node.right;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns true if <code>offset</code> is the start of a page or the end of
+   * the tree.
+   * 
+   * @param offset A byte offset.
+   * @return True if on a page boundary, false otherwise.
+   */
+  public boolean isBoundary(long offset)
+  {
+    if(offset == length())
+      return true;
+
+    Entry<T> entry = find(offset);
+
+    return entry != null && entry.getStart() == offset;
+  }
+
+  /**
+   * Inserts a page at <code>offset</code>. All pages at or after
+   * <code>offset</code> are shifted <code>length</code> bytes.
+   * 
+   * @param offset Where to insert. Must be on a page boundary.
+   * @param value The page.
+   * @param length The length of the page in bytes.
+   */
+  public void insert(long offset, T value, long length)
+  {
+    if(length < 1)
+      throw new IllegalArgumentException("Page length must be positive: " + length);
+
+    checkBoundary(offset);
+
+    Node<T> node = new Node<T>(value, length, random.nextInt());
+    Node<T>[] parts = split(root, offset);
+
+    root = merge(merge(parts[0], node), parts[1]);
+  }
+
+  /**
+   * Removes all pages in the range [<code>offset</code>,
+   * <code>offset + length</code>).
+   * 
+   * @param offset Start of range. Must be on a page boundary.
+   * @param length Length of range. The end must be on a page boundary.
+   * @return The removed pages in order.
+   */
+  public List<T> remove(long offset, long length)
+  {
+    checkBoundary(offset);
+    checkBoundary(offset + length);
+
+    Node<T>[] head = split(root, offset);
+    Node<T>[] tail = split(head[1], length);
+
+    List<T> removed = new ArrayList<T>();
+    collect(tail[0], removed);
+
+    root = merge(head[0], tail[1]);
+
+    return removed;
+  }
+
+  /**
+   * Returns all pages that overlap the range [<code>offset</code>,
+   * <code>offset + length</code>) in order.
+   * 
+   * @param offset Start of range.
+   * @param length Length of range.
+   * @return The entries of the overlapping pages.
+   */
+  public List<Entry<T>> entries(long offset, long length)
+  {
+    List<Entry<T>> entries = new ArrayList<Entry<T>>();
+
+    if(length > 0)
+      collect(root, 0, offset, offset + length, entries);
+
+    return entries;
+  }
+
+  /**
+   * Returns all pages in order.
+   * 
+   * @return A list of all pages.
+   */
+  public List<T> values()
+  {
+    List<T> values = new ArrayList<T>();
+    collect(root, values);
+
+    return values;
+  }
+
+  /**
+   * Throws an exception if <code>offset</code> is not on a page boundary.
+   * 
+   * @param offset A byte offset.
+   */
+  private void checkBoundary(long offset)
+  {
+    if(offset < 0 || offset > length() || !isBoundary(offset))
+      throw new IllegalArgumentException("Offset is not on a page boundary: " + offset);
+  }
+
+  /**
+   * Splits <code>node</code> in two trees, where the first has the length
+   * <code>offset</code>. <code>offset</code> must be on a page boundary.
+   * 
+   * @param node The tree to split.
+   * @param offset Where to split.
+   * @return The two trees.
+   */
+  private Node<T>[] split(Node<T> node, long offset)
+  {
+    if(node == null)
+      return pair(null, null);
+
+    long left = total(node.left);
+
+    if(offset <= left)
+    {
+      Node<T>[] parts = split(node.left, offset);
+      node.left = parts[1];
+      update(node);
+      parts[1] = node;
+
+      return parts;
+    }
+
+    Node<T>[] parts = split(node.right, offset - left - node.length);
+    node.right = parts[0];
+    update(node);
+    parts[0] = node;
+
+    return parts;
+  }
+
+  /**
+   * Returns an array of <code>a</code> and <code>b</code>. Arrays of a
+   * generic type can not be created, so an array of any nodes is cast.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> Node<T>[] pair(Node<T> a, Node<T> b)
+  {
+    return (Node<T>[])new Node<?>[] { a, b };
+  }
+
+  /**
+   * Concatenates two trees.
+   * 
+   * @param a The first tree.
+   * @param b The second tree.
+   * @return The merged tree.
+   */
+  private Node<T> merge(Node<T> a, Node<T> b)
+  {
+    if(a == null)
+      return b;
+    if(b == null)
+      return a;
+
+    if(a.priority > b.priority)
+    {
+      a.right = merge(a.right, b);
+      update(a);
+
+      return a;
+    }
+
+    b.left = merge(a, b.left);
+    update(b);
+
+    return b;
+  }
+
+  /**
+   * Adds all values in <code>node</code> to <code>values</code> in order.
+   */
+  private void collect(Node<T> node, List<T> values)
+  {
+    if(node == null)
+      return;
+
+    collect(node.left, values);
+    values.add(node.value);
+    collect(node.right, values);
+  }
+
+  /**
+   * Adds all entries in <code>node</code> that overlap [<code>from</code>,
+   * <code>to</code>) to <code>entries</code> in order.
+   */
+  private void collect(Node<T> node, long base, long from, long to, List<Entry<T>> entries)
+  {
+    if(node == null || base >= to || base + node.total <= from)
+      return;
+
+    long left = total(node.left);
+    long start = base + left;
+
+    collect(node.left, base, from, to, entries);
+
+    if(start < to && start + node.length > from)
+      entries.add(new Entry<T>(node.value, start, node.length));
+
+    collect(node.right, start + node.length, from, to, entries);
+  }
+
+  /**
+   * Recalculates the cached subtree values of <code>node</code>.
+   */
+  private void update(Node<T> node)
+  {
+    node.total = total(node.left) + node.length + total(node.right);
+    node.count = count(node.left) + 1 + count(node.right);
+  }
+
+  private static long total(Node<?> node)
+  {
+    return node == null ? 0 : node.total;
+  }
+
+  private static int count(Node<?> node)
+  {
+    return node == null ? 0 : node.count;
+  }
+
+  /**
+   * A node in the tree.
+   */
+  private static class Node<T>
+  {
+    private T value;
+
+    private long length;
+
+    private long total;
+
+    private int count;
+
+    private int priority;
+
+    private Node<T> left, right;
+
+    public Node(T value, long length, int priority)
+    {
+      this.value = value;
+      this.length = length;
+      this.priority = priority;
+      this.total = length;
+      this.count = 1;
+    }
+  }
+
+  /**
+   * A page together with its position in the tree.
+   */
+  public static class Entry<T>
+  {
+    private T value;
+
+    private long start;
+
+    private long length;
+
+    public Entry(T value, long start, long length)
+    {
+      this.value = value;
+      this.start = start;
+      this.length = length;
+    }
+
+    /**
+     * Returns the page.
+     * 
+     * @return The page.
+     */
+    public T getValue()
+    {
+      return value;
+    }
+
+    /**
+     * Returns the offset of the first byte of the page.
+     * 
+     * @return The start offset.
+     */
+    public long getStart()
+    {
+      return start;
+    }
+
+    /**
+     * Returns the length of the page.
+     * 
+     * @return The length in bytes.
+     */
+    public long getLength()
+    {
+      return length;
+    }
+
+    /**
+     * Returns the offset after the last byte of the page.
+     * 
+     * @return The end offset.
+     */
+    public long getEnd()
+    {
+      return start + length;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package apes.models.memory;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * <p>
+ * Reads pages from the swap file in a background thread before they are
+ * needed. The memory handlers decide what to read and schedule a
+ * {@link Prefetcher.Task Task} for each page.
+ * </p>
+ * <p>
+ * At most {@link Prefetcher#MAX_PREFETCHED} fetched pages are kept waiting to
+ * be used. When there are more, the oldest are dropped. This class uses the
+ * Singleton pattern.
+ * </p>
+ */
+public class Prefetcher implements Runnable
+{
+  /**
+   * Maximum number of fetched pages waiting to be used.
+   */
+  public static final int MAX_PREFETCHED = 64;
+
+  /**
+   * An instance of this class.
+   */
+  private static Prefetcher instance = null;
+
+  /**
+   * Tasks to run, in order.
+   */
+  private BlockingQueue<Task> queue;
+
+  /**
+   * Tasks that have fetched their page, oldest first.
+   */
+  private LinkedList<Task> fetched;
+
+  /**
+   * Average time in nanoseconds to fetch one page.
+   */
+  private volatile long loadTime;
+
+  /**
+   * Creates a new <code>Prefetcher</code> and starts its thread.
+   */
+  private Prefetcher()
+  {
+    queue = new LinkedBlockingQueue<Task>();
+    fetched = new LinkedList<Task>();
+
+    Thread thread = new Thread(this, "apes-prefetcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Schedules <code>task</code> to be fetched.
+   * 
+   * @param task The task.
+   */
+  public void schedule(Task task)
+  {
+    queue.add(task);
+  }
+
+  /**
+   * Returns the average time it takes to fetch one page.
+   * 
+   * @return Time in nanoseconds.
+   */
+  public long getLoadTime()
+  {
+    return loadTime;
+  }
+
+  /**
+   * Runs tasks as they come.
+   */
+  public void run()
+  {
+    while(true)
+    {
+      try
+      {
+        Task task = queue.take();
+
+        long start = System.nanoTime();
+        task.fetch();
+        loadTime = (loadTime * 7 + (System.nanoTime() - start)) / 8;
+
+        fetched.add(task);
+        while(fetched.size() > MAX_PREFETCHED)
+          fetched.removeFirst().drop();
+      }
+      catch(InterruptedException e)
+      {
+        e.printStackTrace();
+      }
+      catch(Throwable e)
+      {
+        // A task that fails must not stop the thread, or nothing is read
+        // ahead again
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Will return an instance of this class.
+   * 
+   * @return An instance of this class.
+   */
+  public static synchronized Prefetcher getInstance()
+  {
+    if(instance == null)
+    {
+      instance = new Prefetcher();
+    }
+
+    return instance;
+  }
+
+  /**
+   * Something to fetch.
+   */
+  public interface Task
+  {
+    /**
+     * Reads the page. Called in the prefetcher thread.
+     * 
+     * @throws IOException IOException
+     */
+    public void fetch() throws IOException;
+
+    /**
+     * Throws away the fetched data, if it has not been used yet.
+     */
+    public void drop();
+  }
+}
@@ -0,0 +1,67 @@
+package apes.models.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import apes.interfaces.PageStore;
+
+
+/**
+ * Stores pages as they are, each in a slot of the {@link SwapFile}. The slot
+ * number is the offset of the slot in the file.
+ */
+public class RawPageStore implements PageStore
+{
+  /**
+   * The swap file.
+   */
+  private SwapFile swapFile;
+
+  /**
+   * Creates a new <code>RawPageStore</code>.
+   * 
+   * @throws IOException If the swap file could not be created.
+   */
+  public RawPageStore() throws IOException
+  {
+    swapFile = SwapFile.getInstance();
+  }
+
+  public long allocate(long length, int sampleBytes, int channels) throws IOException
+  {
+    return swapFile.allocate(length);
+  }
+
+  public void free(long slot, long length)
+  {
+    swapFile.free(slot, length);
+  }
+
+  public void read(long slot, ByteBuffer data, int length)
+  {
+    swapFile.read(slot, data, 0, length);
+  }
+
+  public void write(long slot, ByteBuffer data, int start, int end)
+  {
+    swapFile.write(slot + start, data, start, end - start);
+  }
+
+  public boolean copy(long source, int offset, long target, int length)
+  {
+    swapFile.copy(source + offset, target, length);
+    return true;
+  }
+
+  public boolean transferTo(long slot, int offset, int length, WritableByteChannel channel) throws IOException
+  {
+    swapFile.transferTo(slot + offset, length, channel);
+    return true;
+  }
+
+  public boolean wholePages()
+  {
+    return false;
+  }
+}
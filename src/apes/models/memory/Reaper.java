@@ -0,0 +1,147 @@
+package apes.models.memory;
+
+import java.util.LinkedList;
+
+
+/**
+ * <p>
+ * Cleans up after disposed memory handlers in a background thread. Letting go
+ * of every page of a large handler takes time, and a handler is often
+ * disposed when a tab is closed. The handler hands its pages over in a
+ * {@link Reaper.Task Task} and is free to go on at once.
+ * </p>
+ * <p>
+ * Tasks are run one at a time, in the order they were scheduled. This class
+ * uses the Singleton pattern.
+ * </p>
+ */
+public class Reaper implements Runnable
+{
+  /**
+   * An instance of this class.
+   */
+  private static Reaper instance = null;
+
+  /**
+   * Tasks not yet run.
+   */
+  private LinkedList<Task> tasks;
+
+  /**
+   * True while a task is being run.
+   */
+  private boolean running;
+
+  /**
+   * Creates a new <code>Reaper</code> and starts its thread.
+   */
+  private Reaper()
+  {
+    tasks = new LinkedList<Task>();
+
+    Thread thread = new Thread(this, "apes-reaper");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Schedules <code>task</code> to be run once.
+   * 
+   * @param task The task.
+   */
+  public synchronized void schedule(Task task)
+  {
+    tasks.add(task);
+    notifyAll();
+  }
+
+  /**
+   * Waits until all scheduled tasks are done.
+   */
+  public synchronized void flush()
+  {
+    while(running || !tasks.isEmpty())
+    {
+      try
+      {
+        wait();
+      }
+      catch(InterruptedException e)
+      {
+        e.printStackTrace();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Runs tasks as they come.
+   */
+  public void run()
+  {
+    while(true)
+    {
+      try
+      {
+        Task task;
+
+        synchronized(this)
+        {
+          while(tasks.isEmpty())
+            wait();
+
+          task = tasks.removeFirst();
+          running = true;
+        }
+
+        try
+        {
+          task.reap();
+        }
+        catch(Exception e)
+        {
+          e.printStackTrace();
+        }
+
+        synchronized(this)
+        {
+          running = false;
+          notifyAll();
+        }
+      }
+      catch(InterruptedException e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Will return an instance of this class.
+   * 
+   * @return An instance of this class.
+   */
+  public static synchronized Reaper getInstance()
+  {
+    if(instance == null)
+    {
+      instance = new Reaper();
+    }
+
+    return instance;
+  }
+
+  /**
+   * Something to clean up.
+   */
+  public interface Task
+  {
+    /**
+     * Does the cleaning up. Called in the reaper thread.
+     * 
+     * @throws Exception If something could not be cleaned up.
+     */
+    public void reap() throws Exception;
+  }
+}
@@ -0,0 +1,514 @@
+package apes.models.memory;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * <p>
+ * Lossless compression of PCM pages. Each channel is predicted from its
+ * previous samples and the difference is written with Rice coding, which is
+ * short for the small differences between neighbouring audio samples.
+ * </p>
+ * <p>
+ * The page is coded in blocks of {@link RiceCodec#BLOCK_SIZE} samples per
+ * channel, each with its own predictor order and Rice parameter. A fast codec
+ * always uses the first order predictor (the delta from the previous sample)
+ * and estimates the parameter, a thorough codec tries all predictors and
+ * parameters near the estimate. Pages that do not get smaller are kept as
+ * they are.
+ * </p>
+ */
+public class RiceCodec
+{
+  /**
+   * Samples per channel in each block.
+   */
+  public static final int BLOCK_SIZE = 1024;
+
+  /**
+   * Quotients this large are written as a raw value instead.
+   */
+  private static final int ESCAPE = 32;
+
+  /**
+   * Bits of an escaped value. Enough for any residual of 32 bit samples.
+   */
+  private static final int RAW_BITS = 40;
+
+  /**
+   * Largest Rice parameter.
+   */
+  private static final int MAX_PARAMETER = 40;
+
+  /**
+   * First byte of a page stored as it is.
+   */
+  private static final int MODE_RAW = 0;
+
+  /**
+   * First byte of a Rice coded page.
+   */
+  private static final int MODE_RICE = 1;
+
+  /**
+   * True if all predictors and parameters are tried.
+   */
+  private final boolean thorough;
+
+  /**
+   * Creates a new <code>RiceCodec</code>.
+   * 
+   * @param thorough True to favour size over speed.
+   */
+  public RiceCodec(boolean thorough)
+  {
+    this.thorough = thorough;
+  }
+
+  /**
+   * Encodes the first <code>length</code> bytes of <code>data</code>.
+   * 
+   * @param data The page.
+   * @param length Length of page.
+   * @param sampleBytes Bytes per sample.
+   * @param channels Number of channels.
+   * @return The encoded page.
+   */
+  public byte[] encode(ByteBuffer data, int length, int sampleBytes, int channels)
+  {
+    int frameBytes = sampleBytes * channels;
+    int frames = length / frameBytes;
+
+    BitWriter out = new BitWriter(length / 2 + 16);
+    out.write(MODE_RICE, 8);
+
+    long[] history = new long[channels * 3];
+    long[] block = new long[BLOCK_SIZE];
+    long[] residuals = new long[BLOCK_SIZE];
+
+    for(int first = 0; first < frames; first += BLOCK_SIZE)
+    {
+      int n = Math.min(BLOCK_SIZE, frames - first);
+
+      for(int c = 0; c < channels; c++)
+      {
+        for(int i = 0; i < n; i++)
+          block[i] = getSample(data, (first + i) * frameBytes + c * sampleBytes, sampleBytes);
+
+        int order = thorough ? bestOrder(block, n, history, c * 3) : 1;
+        residuals(block, n, history, c * 3, order, residuals);
+
+        int k = parameter(residuals, n);
+        if(thorough)
+          k = bestParameter(residuals, n, k);
+
+        out.write(order, 2);
+        out.write(k, 6);
+        for(int i = 0; i < n; i++)
+          writeRice(out, residuals[i], k);
+
+        updateHistory(block, n, history, c * 3);
+      }
+
+      // Not worth going on
+      if(out.length() > length)
+        break;
+    }
+
+    out.align();
+    for(int i = frames * frameBytes; i < length; i++)
+      out.write(data.get(i), 8);
+
+    if(out.length() > length)
+    {
+      byte[] raw = new byte[length + 1];
+      raw[0] = MODE_RAW;
+
+      ByteBuffer view = data.duplicate();
+      view.clear();
+      view.get(raw, 1, length);
+
+      return raw;
+    }
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a page encoded by {@link RiceCodec#encode encode} from
+   * <code>in</code>, starting at its position, into <code>data</code>.
+   * 
+   * @param in The encoded page.
+   * @param data Buffer to decode into, starting at index 0.
+   * @param length Length of page.
+   * @param sampleBytes Bytes per sample.
+   * @param channels Number of channels.
+   */
+  public static void decode(ByteBuffer in, ByteBuffer data, int length, int sampleBytes, int channels)
+  {
+    int start = in.position();
+
+    if(in.get(start) == MODE_RAW)
+    {
+      ByteBuffer source = in.duplicate();
+      source.position(start + 1);
+      source.limit(start + 1 + length);
+
+      ByteBuffer target = data.duplicate();
+      target.clear();
+      target.put(source);
+      return;
+    }
+
+    int frameBytes = sampleBytes * channels;
+    int frames = length / frameBytes;
+
+    BitReader reader = new BitReader(in, start + 1);
+
+    long[] history = new long[channels * 3];
+    long[] block = new long[BLOCK_SIZE];
+
+    for(int first = 0; first < frames; first += BLOCK_SIZE)
+    {
+      int n = Math.min(BLOCK_SIZE, frames - first);
+
+      for(int c = 0; c < channels; c++)
+      {
+        int h = c * 3;
+        int order = (int)reader.read(2);
+        int k = (int)reader.read(6);
+
+        for(int i = 0; i < n; i++)
+        {
+          long u = readRice(reader, k);
+          long residual = (u >>> 1) ^ -(u & 1);
+
+          block[i] = predict(order, previous(block, i, history, h, 1), previous(block, i, history, h, 2), previous(block, i, history, h, 3)) + residual;
+          putSample(data, (first + i) * frameBytes + c * sampleBytes, sampleBytes, block[i]);
+        }
+
+        updateHistory(block, n, history, h);
+      }
+    }
+
+    int position = reader.position();
+    for(int i = frames * frameBytes; i < length; i++)
+      data.put(i, in.get(position++));
+  }
+
+  /**
+   * Returns the predictor order in 0-3 that gives the smallest residuals.
+   */
+  private static int bestOrder(long[] block, int n, long[] history, int h)
+  {
+    long[] sums = new long[4];
+
+    for(int i = 0; i < n; i++)
+    {
+      long x1 = previous(block, i, history, h, 1);
+      long x2 = previous(block, i, history, h, 2);
+      long x3 = previous(block, i, history, h, 3);
+
+      for(int order = 0; order < 4; order++)
+        sums[order] += Math.abs(block[i] - predict(order, x1, x2, x3));
+    }
+
+    int best = 0;
+    for(int order = 1; order < 4; order++)
+      if(sums[order] < sums[best])
+        best = order;
+
+    return best;
+  }
+
+  /**
+   * Puts the zigzag coded residuals of <code>block</code> in
+   * <code>residuals</code>.
+   */
+  private static void residuals(long[] block, int n, long[] history, int h, int order, long[] residuals)
+  {
+    for(int i = 0; i < n; i++)
+    {
+      long residual = block[i] - predict(order, previous(block, i, history, h, 1), previous(block, i, history, h, 2), previous(block, i, history, h, 3));
+      residuals[i] = (residual << 1) ^ (residual >> 63);
+    }
+  }
+
+  /**
+   * Estimates the Rice parameter from the mean of <code>residuals</code>.
+   */
+  private static int parameter(long[] residuals, int n)
+  {
+    long sum = 0;
+    for(int i = 0; i < n; i++)
+      sum += residuals[i];
+
+    long mean = sum / n + 1;
+    return Math.min(MAX_PARAMETER, 63 - Long.numberOfLeadingZeros(mean));
+  }
+
+  /**
+   * Returns the parameter near <code>estimate</code> that gives the fewest
+   * bits.
+   */
+  private static int bestParameter(long[] residuals, int n, int estimate)
+  {
+    int best = estimate;
+    long bestCost = Long.MAX_VALUE;
+
+    for(int k = Math.max(0, estimate - 2); k <= Math.min(MAX_PARAMETER, estimate + 2); k++)
+    {
+      long cost = 0;
+      for(int i = 0; i < n; i++)
+      {
+        long q = residuals[i] >>> k;
+        cost += q < ESCAPE ? q + 1 + k : ESCAPE + RAW_BITS;
+      }
+
+      if(cost < bestCost)
+      {
+        best = k;
+        bestCost = cost;
+      }
+    }
+
+    return best;
+  }
+
+  private static long predict(int order, long x1, long x2, long x3)
+  {
+    switch (order)
+    {
+      case 0:
+        return 0;
+      case 1:
+        return x1;
+      case 2:
+        return 2 * x1 - x2;
+      default:
+        return 3 * x1 - 3 * x2 + x3;
+    }
+  }
+
+  /**
+   * Returns the sample <code>distance</code> before <code>i</code>, looking in
+   * the history of earlier blocks if needed.
+   */
+  private static long previous(long[] block, int i, long[] history, int h, int distance)
+  {
+    return i >= distance ? block[i - distance] : history[h + distance - i - 1];
+  }
+
+  /**
+   * Remembers the last three samples of <code>block</code>.
+   */
+  private static void updateHistory(long[] block, int n, long[] history, int h)
+  {
+    long x1 = previous(block, n, history, h, 1);
+    long x2 = previous(block, n, history, h, 2);
+    long x3 = previous(block, n, history, h, 3);
+
+    history[h] = x1;
+    history[h + 1] = x2;
+    history[h + 2] = x3;
+  }
+
+  private static void writeRice(BitWriter out, long u, int k)
+  {
+    long q = u >>> k;
+
+    if(q < ESCAPE)
+    {
+      out.write((1L << q) - 1, (int)q);
+      out.write(0, 1);
+      out.write(u, k);
+    }
+    else
+    {
+      out.write((1L << ESCAPE) - 1, ESCAPE);
+      out.write(u, RAW_BITS);
+    }
+  }
+
+  private static long readRice(BitReader in, int k)
+  {
+    int q = in.readUnary(ESCAPE);
+
+    if(q == ESCAPE)
+      return in.read(RAW_BITS);
+
+    return ((long)q << k) | in.read(k);
+  }
+
+  /**
+   * Reads a little endian sample. Samples of one byte are unsigned, larger
+   * samples are signed.
+   */
+  private static long getSample(ByteBuffer data, int index, int sampleBytes)
+  {
+    if(sampleBytes == 1)
+      return data.get(index) & 0xff;
+
+    long sample = data.get(index + sampleBytes - 1);
+    for(int i = sampleBytes - 2; i >= 0; i--)
+      sample = (sample << 8) | (data.get(index + i) & 0xff);
+
+    return sample;
+  }
+
+  private static void putSample(ByteBuffer data, int index, int sampleBytes, long sample)
+  {
+    for(int i = 0; i < sampleBytes; i++)
+    {
+      data.put(index + i, (byte)sample);
+      sample >>= 8;
+    }
+  }
+
+  /**
+   * Writes bits to a growing array, most significant bit first.
+   */
+  private static class BitWriter
+  {
+    private byte[] bytes;
+
+    private int length;
+
+    private long bits;
+
+    private int count;
+
+    public BitWriter(int capacity)
+    {
+      bytes = new byte[capacity];
+    }
+
+    /**
+     * Writes the <code>n</code> lowest bits of <code>value</code>, where
+     * <code>n</code> is at most 56.
+     */
+    public void write(long value, int n)
+    {
+      if(n == 0)
+        return;
+
+      bits = (bits << n) | (value & (-1L >>> (64 - n)));
+      count += n;
+
+      while(count >= 8)
+      {
+        count -= 8;
+        put((byte)(bits >>> count));
+      }
+    }
+
+    /**
+     * Pads with zeros to a whole byte.
+     */
+    public void align()
+    {
+      if(count > 0)
+        write(0, 8 - count);
+    }
+
+    /**
+     * Returns the number of whole bytes written.
+     */
+    public int length()
+    {
+      return length;
+    }
+
+    public byte[] toByteArray()
+    {
+      byte[] result = new byte[length];
+      System.arraycopy(bytes, 0, result, 0, length);
+
+      return result;
+    }
+
+    private void put(byte b)
+    {
+      if(length == bytes.length)
+      {
+        byte[] larger = new byte[bytes.length * 2];
+        System.arraycopy(bytes, 0, larger, 0, length);
+        bytes = larger;
+      }
+
+      bytes[length++] = b;
+    }
+  }
+
+  /**
+   * Reads bits written by a {@link BitWriter}.
+   */
+  private static class BitReader
+  {
+    private ByteBuffer in;
+
+    private int position;
+
+    private long bits;
+
+    private int count;
+
+    public BitReader(ByteBuffer in, int position)
+    {
+      this.in = in;
+      this.position = position;
+    }
+
+    /**
+     * Reads <code>n</code> bits, where <code>n</code> is at most 56.
+     */
+    public long read(int n)
+    {
+      if(n == 0)
+        return 0;
+
+      while(count < n)
+      {
+        bits = (bits << 8) | (in.get(position++) & 0xff);
+        count += 8;
+      }
+
+      count -= n;
+      return (bits >>> count) & (-1L >>> (64 - n));
+    }
+
+    /**
+     * Counts one bits up to a zero bit or <code>limit</code> ones. The zero
+     * bit is read as well.
+     */
+    public int readUnary(int limit)
+    {
+      int q = 0;
+
+      while(q < limit)
+      {
+        if(count == 0)
+        {
+          bits = in.get(position++) & 0xff;
+          count = 8;
+        }
+
+        count--;
+        if(((bits >>> count) & 1) == 0)
+          break;
+
+        q++;
+      }
+
+      return q;
+    }
+
+    /**
+     * Returns the index of the first byte that has not been read from.
+     */
+    public int position()
+    {
+      return position;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package apes.models.memory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.function.IntPredicate;
+
+import apes.interfaces.ReplacementPolicy;
+
+
+/**
+ * <p>
+ * Scan resistant LRU (segmented LRU). New pages go into a probation segment
+ * and are only moved to the protected segment if they are used again. Victims
+ * are taken from the probation segment first.
+ * </p>
+ * <p>
+ * A sequential scan, such as playback or export, only touches each page once
+ * and therefore never pushes the pages in the protected segment out.
+ * </p>
+ */
+public class SegmentedLruPolicy implements ReplacementPolicy
+{
+  /**
+   * Pages used once, least recently used first.
+   */
+  private LinkedHashSet<Integer> probation;
+
+  /**
+   * Pages used more than once, least recently used first.
+   */
+  private LinkedHashSet<Integer> protect;
+
+  /**
+   * Empty frames.
+   */
+  private LinkedList<Integer> empty;
+
+  /**
+   * True for frames in the protected segment, also while they are out as
+   * victims.
+   */
+  private boolean[] protectedFrames;
+
+  /**
+   * Maximum size of the protected segment.
+   */
+  private int protectedSize;
+
+  /**
+   * Creates a new <code>SegmentedLruPolicy</code>.
+   * 
+   * @param frames Number of frames.
+   */
+  public SegmentedLruPolicy(int frames)
+  {
+    probation = new LinkedHashSet<Integer>();
+    protect = new LinkedHashSet<Integer>();
+    empty = new LinkedList<Integer>();
+    protectedFrames = new boolean[frames];
+    protectedSize = Math.max(1, frames * 4 / 5);
+
+    for(int i = 0; i < frames; i++)
+      empty.add(i);
+  }
+
+  public void accessed(int frame)
+  {
+    if(protect.remove(frame) || probation.remove(frame))
+    {
+      protect.add(frame);
+      protectedFrames[frame] = true;
+
+      // Demote the least recently used protected page
+      if(protect.size() > protectedSize)
+      {
+        Iterator<Integer> it = protect.iterator();
+        int demoted = it.next();
+        it.remove();
+
+        probation.add(demoted);
+        protectedFrames[demoted] = false;
+      }
+    }
+  }
+
+  public void loaded(int frame, Object page)
+  {
+    probation.add(frame);
+    protectedFrames[frame] = false;
+  }
+
+  public void freed(int frame)
+  {
+    probation.remove(frame);
+    protect.remove(frame);
+    protectedFrames[frame] = false;
+    if(!empty.contains(frame))
+      empty.add(frame);
+  }
+
+  public int victim()
+  {
+    return victim(frame -> true);
+  }
+
+  public int victim(IntPredicate evictable)
+  {
+    for(Iterator<Integer> it = empty.iterator(); it.hasNext();)
+    {
+      int frame = it.next();
+      if(evictable.test(frame))
+      {
+        it.remove();
+        return frame;
+      }
+    }
+
+    for(LinkedHashSet<Integer> segment : Arrays.asList(probation, protect))
+    {
+      for(Iterator<Integer> it = segment.iterator(); it.hasNext();)
+      {
+        int frame = it.next();
+        if(evictable.test(frame))
+        {
+          it.remove();
+          return frame;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  public void reinstate(int frame, Object page)
+  {
+    if(page == null)
+    {
+      if(!empty.contains(frame))
+        empty.addFirst(frame);
+    }
+    else if(protectedFrames[frame])
+      protect.add(frame);
+    else
+      probation.add(frame);
+  }
+}
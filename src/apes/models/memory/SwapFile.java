@@ -0,0 +1,323 @@
+package apes.models.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * <p>
+ * One large memory-mapped file that all pages in the program are stored in.
+ * The file is divided into slots, where each slot holds one page. Freed slots
+ * are reused, and neighbouring free slots are merged.
+ * </p>
+ * <p>
+ * The file is mapped in segments of {@link SwapFile#SEGMENT_SIZE} bytes and a
+ * slot never crosses a segment boundary. This class uses the Singleton
+ * pattern, get the instance with {@link SwapFile#getInstance getInstance}.
+ * </p>
+ */
+public class SwapFile
+{
+  /**
+   * Size of each mapped segment. Also the largest possible slot.
+   */
+  public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * An instance of this class.
+   */
+  private static SwapFile instance = null;
+
+  /**
+   * The file on disk.
+   */
+  private File file;
+
+  /**
+   * The channel of the file.
+   */
+  private FileChannel channel;
+
+  /**
+   * All mapped segments, in order.
+   */
+  private List<MappedByteBuffer> segments;
+
+  /**
+   * Free slots. Maps offset to length.
+   */
+  private TreeMap<Long, Long> freeByOffset;
+
+  /**
+   * Free slots. Maps length to the offsets of all free slots of that length.
+   */
+  private TreeMap<Long, Set<Long>> freeBySize;
+
+  /**
+   * Offset of the first byte that has never been allocated.
+   */
+  private long end;
+
+  /**
+   * Creates a new <code>SwapFile</code> in the temp directory.
+   * 
+   * @throws IOException If the file could not be created.
+   */
+  private SwapFile() throws IOException
+  {
+    file = File.createTempFile("apes", "swap");
+    file.deleteOnExit();
+    channel = new RandomAccessFile(file, "rw").getChannel();
+    segments = new ArrayList<MappedByteBuffer>();
+    freeByOffset = new TreeMap<Long, Long>();
+    freeBySize = new TreeMap<Long, Set<Long>>();
+    end = 0;
+  }
+
+  /**
+   * Allocates a slot of <code>length</code> bytes. The content of the slot is
+   * undefined.
+   * 
+   * @param length Length of slot.
+   * @return Offset of the slot.
+   * @throws IOException If the file could not grow.
+   */
+  public synchronized long allocate(long length) throws IOException
+  {
+    if(length < 1 || length > SEGMENT_SIZE)
+      throw new IllegalArgumentException("Bad slot length: " + length);
+
+    // Best fit among free slots
+    Map.Entry<Long, Set<Long>> fit = freeBySize.ceilingEntry(length);
+    if(fit != null)
+    {
+      long offset = fit.getValue().iterator().next();
+      long size = fit.getKey();
+
+      removeFree(offset, size);
+      if(size > length)
+        addFree(offset + length, size - length);
+
+      return offset;
+    }
+
+    // Slots may not cross segments
+    long segmentEnd = (end / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+    if(end + length > segmentEnd)
+    {
+      free(end, segmentEnd - end);
+      end = segmentEnd;
+    }
+
+    long offset = end;
+    end += length;
+
+    while(segments.size() * (long)SEGMENT_SIZE < end)
+    {
+      long position = segments.size() * (long)SEGMENT_SIZE;
+      segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE));
+    }
+
+    return offset;
+  }
+
+  /**
+   * Frees the slot at <code>offset</code>.
+   * 
+   * @param offset Offset of slot.
+   * @param length Length of slot.
+   */
+  public synchronized void free(long offset, long length)
+  {
+    if(length < 1)
+      return;
+
+    long segmentStart = offset / SEGMENT_SIZE * SEGMENT_SIZE;
+
+    // Merge with the free slot before
+    Map.Entry<Long, Long> before = freeByOffset.floorEntry(offset);
+    if(before != null && before.getKey() + before.getValue() == offset && before.getKey() >= segmentStart)
+    {
+      removeFree(before.getKey(), before.getValue());
+      offset = before.getKey();
+      length += before.getValue();
+    }
+
+    // Merge with the free slot after
+    Long after = freeByOffset.get(offset + length);
+    if(after != null && offset + length < segmentStart + SEGMENT_SIZE)
+    {
+      removeFree(offset + length, after);
+      length += after;
+    }
+
+    addFree(offset, length);
+  }
+
+  /**
+   * Copies <code>length</code> bytes from the file at <code>offset</code> into
+   * <code>data</code>, starting at index <code>start</code>. The position and
+   * limit of <code>data</code> are not changed.
+   * 
+   * @param offset Offset in file.
+   * @param data Buffer to copy to.
+   * @param start Index in <code>data</code> of the first byte.
+   * @param length Amount of bytes.
+   */
+  public void read(long offset, ByteBuffer data, int start, int length)
+  {
+    ByteBuffer source = segment(offset);
+    source.limit(source.position() + length);
+
+    ByteBuffer target = data.duplicate();
+    target.clear();
+    target.position(start);
+    target.put(source);
+  }
+
+  /**
+   * Copies <code>length</code> bytes from <code>data</code>, starting at index
+   * <code>start</code>, into the file at <code>offset</code>. The position and
+   * limit of <code>data</code> are not changed.
+   * 
+   * @param offset Offset in file.
+   * @param data Buffer to copy from.
+   * @param start Index in <code>data</code> of the first byte.
+   * @param length Amount of bytes.
+   */
+  public void write(long offset, ByteBuffer data, int start, int length)
+  {
+    ByteBuffer source = data.duplicate();
+    source.clear();
+    source.position(start);
+    source.limit(start + length);
+
+    segment(offset).put(source);
+  }
+
+  /**
+   * Copies <code>length</code> bytes at <code>source</code> in the file to
+   * <code>target</code>, straight between the mapped segments.
+   * 
+   * @param source Offset to copy from.
+   * @param target Offset to copy to.
+   * @param length Amount of bytes.
+   */
+  public void copy(long source, long target, int length)
+  {
+    segment(target).put(view(source, length));
+  }
+
+  /**
+   * Writes <code>length</code> bytes at <code>offset</code> to
+   * <code>target</code>. The operating system may do this without copying
+   * the data through the program.
+   * 
+   * @param offset Offset in file.
+   * @param length Amount of bytes.
+   * @param target Channel to write to.
+   * @throws IOException If the data could not be written.
+   */
+  public void transferTo(long offset, long length, WritableByteChannel target) throws IOException
+  {
+    while(length > 0)
+    {
+      long n = channel.transferTo(offset, length, target);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Returns a read-only view of <code>length</code> bytes at
+   * <code>offset</code>. The view is positioned at the first byte.
+   * 
+   * @param offset Offset in file.
+   * @param length Amount of bytes.
+   * @return The view.
+   */
+  public ByteBuffer view(long offset, int length)
+  {
+    ByteBuffer view = segment(offset);
+    view.limit(view.position() + length);
+
+    return view.asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the size of the file.
+   * 
+   * @return Size in bytes.
+   */
+  public synchronized long length()
+  {
+    return segments.size() * (long)SEGMENT_SIZE;
+  }
+
+  /**
+   * Returns a view of the segment containing <code>offset</code>, positioned
+   * at <code>offset</code>.
+   */
+  private ByteBuffer segment(long offset)
+  {
+    ByteBuffer buffer;
+
+    synchronized(this)
+    {
+      buffer = segments.get((int)(offset / SEGMENT_SIZE)).duplicate();
+    }
+
+    buffer.position((int)(offset % SEGMENT_SIZE));
+    return buffer;
+  }
+
+  private void addFree(long offset, long length)
+  {
+    freeByOffset.put(offset, length);
+
+    Set<Long> offsets = freeBySize.get(length);
+    if(offsets == null)
+    {
+      offsets = new HashSet<Long>();
+      freeBySize.put(length, offsets);
+    }
+    offsets.add(offset);
+  }
+
+  private void removeFree(long offset, long length)
+  {
+    freeByOffset.remove(offset);
+
+    Set<Long> offsets = freeBySize.get(length);
+    offsets.remove(offset);
+    if(offsets.isEmpty())
+      freeBySize.remove(length);
+  }
+
+  /**
+   * Will return an instance of this class.
+   * 
+   * @return An instance of this class.
+   * @throws IOException If the swap file could not be created.
+   */
+  public static synchronized SwapFile getInstance() throws IOException
+  {
+    if(instance == null)
+    {
+      instance = new SwapFile();
+    }
+
+    return instance;
+  }
+}
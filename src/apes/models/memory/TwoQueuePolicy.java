@@ -0,0 +1,188 @@
+package apes.models.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.function.IntPredicate;
+
+import apes.interfaces.ReplacementPolicy;
+
+
+/**
+ * <p>
+ * The 2Q replacement policy. New pages enter a FIFO queue (A1in). Pages
+ * evicted from it are remembered, without their data, in a ghost queue
+ * (A1out). A page that is loaded again while it is remembered is considered
+ * hot and goes into an LRU queue (Am).
+ * </p>
+ * <p>
+ * Pages only used once never reach Am, so one pass over a long file can not
+ * flush the pages that are used over and over again.
+ * </p>
+ */
+public class TwoQueuePolicy implements ReplacementPolicy
+{
+  /**
+   * Frames with pages used once, oldest first.
+   */
+  private LinkedHashSet<Integer> in;
+
+  /**
+   * Pages recently evicted from <code>in</code>, oldest first.
+   */
+  private LinkedHashSet<Object> out;
+
+  /**
+   * Frames with hot pages, least recently used first.
+   */
+  private LinkedHashSet<Integer> main;
+
+  /**
+   * Empty frames.
+   */
+  private LinkedList<Integer> empty;
+
+  /**
+   * The page in each frame.
+   */
+  private Object[] pages;
+
+  /**
+   * Size of <code>in</code> before it is preferred for eviction.
+   */
+  private int inSize;
+
+  /**
+   * Maximum size of <code>out</code>.
+   */
+  private int outSize;
+
+  /**
+   * Creates a new <code>TwoQueuePolicy</code>.
+   * 
+   * @param frames Number of frames.
+   */
+  public TwoQueuePolicy(int frames)
+  {
+    in = new LinkedHashSet<Integer>();
+    out = new LinkedHashSet<Object>();
+    main = new LinkedHashSet<Integer>();
+    empty = new LinkedList<Integer>();
+    pages = new Object[frames];
+    inSize = Math.max(1, frames / 4);
+    outSize = Math.max(1, frames / 2);
+
+    for(int i = 0; i < frames; i++)
+      empty.add(i);
+  }
+
+  public void accessed(int frame)
+  {
+    if(main.remove(frame))
+      main.add(frame);
+  }
+
+  public void loaded(int frame, Object page)
+  {
+    pages[frame] = page;
+
+    if(out.remove(page))
+      main.add(frame);
+    else
+      in.add(frame);
+  }
+
+  public void freed(int frame)
+  {
+    in.remove(frame);
+    main.remove(frame);
+    pages[frame] = null;
+    if(!empty.contains(frame))
+      empty.add(frame);
+  }
+
+  public int victim()
+  {
+    return victim(frame -> true);
+  }
+
+  public int victim(IntPredicate evictable)
+  {
+    for(Iterator<Integer> it = empty.iterator(); it.hasNext();)
+    {
+      int frame = it.next();
+      if(evictable.test(frame))
+      {
+        it.remove();
+        return frame;
+      }
+    }
+
+    // The other queue is used if nothing in the preferred one is accepted
+    boolean fromIn = in.size() > inSize || main.isEmpty();
+    int frame = first(fromIn ? in : main, evictable);
+    if(frame < 0)
+    {
+      fromIn = !fromIn;
+      frame = first(fromIn ? in : main, evictable);
+      if(frame < 0)
+        return -1;
+    }
+
+    if(fromIn)
+    {
+      in.remove(frame);
+
+      // Remember the page
+      out.add(pages[frame]);
+      if(out.size() > outSize)
+      {
+        Iterator<Object> outIt = out.iterator();
+        outIt.next();
+        outIt.remove();
+      }
+    }
+    else
+    {
+      main.remove(frame);
+    }
+
+    pages[frame] = null;
+
+    return frame;
+  }
+
+  public void reinstate(int frame, Object page)
+  {
+    if(page == null)
+    {
+      if(!empty.contains(frame))
+        empty.addFirst(frame);
+
+      return;
+    }
+
+    pages[frame] = page;
+
+    // Only pages evicted from A1in are remembered
+    if(out.remove(page))
+      in.add(frame);
+    else
+      main.add(frame);
+  }
+
+  /**
+   * Returns the oldest frame in <code>queue</code> that
+   * <code>evictable</code> accepts, or -1 if there is none.
+   */
+  private static int first(LinkedHashSet<Integer> queue, IntPredicate evictable)
+  {
+    for(int frame : queue)
+    {
+      if(evictable.test(frame))
+        return frame;
+    }
+
+    return -1;
+  }
+}
@@ -0,0 +1,394 @@
+package apes.models.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import apes.interfaces.PageStore;
+
+
+/**
+ * <p>
+ * Writes evicted frames back to their {@link PageStore} in a background thread,
+ * so that evicting a frame does not have to wait for the write. Any encoding
+ * the store does is done in that thread as well.
+ * </p>
+ * <p>
+ * Until a write is done, its buffer is kept here and
+ * {@link WriteBehind#read read} puts it on top of what is in the store.
+ * When the write is done, the buffer is given back to the {@link BufferPool}.
+ * When more than {@link WriteBehind#MAX_PENDING} bytes are waiting, new writes
+ * wait for the thread to catch up.
+ * </p>
+ * <p>
+ * A write that fails keeps its buffer and is tried again after
+ * {@link WriteBehind#RETRY_DELAY} milliseconds, so the data is never lost
+ * and reads still see it. Meanwhile the other writes go on. This class uses
+ * the Singleton pattern.
+ * </p>
+ */
+public class WriteBehind implements Runnable
+{
+  /**
+   * Maximum number of bytes waiting to be written.
+   */
+  public static final long MAX_PENDING = 64 * 1024 * 1024;
+
+  /**
+   * Milliseconds to wait before a failed write is tried again.
+   */
+  public static final long RETRY_DELAY = 1000;
+
+  /**
+   * An instance of this class.
+   */
+  private static WriteBehind instance = null;
+
+  /**
+   * Writes to do, in order. A job is not taken before its time.
+   */
+  private BlockingQueue<Job> queue;
+
+  /**
+   * The latest write of each slot that is not done yet.
+   */
+  private Map<Long, Job> pending;
+
+  /**
+   * Number of bytes waiting to be written.
+   */
+  private long pendingBytes;
+
+  /**
+   * Creates a new <code>WriteBehind</code> and starts its thread.
+   */
+  private WriteBehind()
+  {
+    queue = new DelayQueue<Job>();
+    pending = new ConcurrentHashMap<Long, Job>();
+
+    Thread thread = new Thread(this, "apes-write-behind");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Schedules a write of <code>data[start, end)</code> to <code>slot</code>
+   * in <code>store</code>, where <code>data</code> is the whole page. The
+   * buffer is taken over and may not be used by the caller afterwards.
+   * 
+   * @param store The store.
+   * @param slot The slot.
+   * @param data The page data.
+   * @param start First dirty byte.
+   * @param end Byte after the last dirty byte.
+   * @param length Length of page.
+   */
+  public void write(PageStore store, long slot, ByteBuffer data, int start, int end, int length)
+  {
+    waitForRoom(end - start);
+
+    Job job = new Job(store, slot, data, start, end, length);
+    Job previous = pending.put(slot, job);
+
+    // The new page data includes the previous write
+    if(previous != null && previous.cancel())
+    {
+      job.start = Math.min(job.start, previous.start);
+      job.end = Math.max(job.end, previous.end);
+    }
+
+    queue.add(job);
+  }
+
+  /**
+   * Reads the whole page in <code>slot</code> of <code>store</code> into
+   * <code>data</code>, including writes that are not done yet.
+   * 
+   * @param store The store.
+   * @param slot The slot.
+   * @param data Buffer to read into.
+   * @param length Length of page.
+   */
+  public void read(PageStore store, long slot, ByteBuffer data, int length)
+  {
+    // Must be fetched before reading, the job may be done any moment
+    Job job = pending.get(slot);
+
+    store.read(slot, data, length);
+
+    if(job != null)
+      job.overlay(data);
+  }
+
+  /**
+   * Returns true if there is a write to <code>slot</code> that is not done
+   * yet, in which case the store does not hold the latest data.
+   * 
+   * @param slot The slot.
+   * @return True if a write is pending.
+   */
+  public boolean isPending(long slot)
+  {
+    return pending.containsKey(slot);
+  }
+
+  /**
+   * Cancels writes to <code>slot</code>. Must be called before the slot is
+   * freed.
+   * 
+   * @param slot The slot.
+   */
+  public void cancel(long slot)
+  {
+    Job job = pending.remove(slot);
+
+    if(job != null)
+      job.cancel();
+  }
+
+  /**
+   * Waits until all scheduled writes are done.
+   */
+  public synchronized void flush()
+  {
+    while(pendingBytes > 0 || !queue.isEmpty())
+    {
+      try
+      {
+        wait();
+      }
+      catch(InterruptedException e)
+      {
+        e.printStackTrace();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Waits until there is room for <code>bytes</code> more pending bytes.
+   */
+  private synchronized void waitForRoom(long bytes)
+  {
+    while(pendingBytes > 0 && pendingBytes + bytes > MAX_PENDING)
+    {
+      try
+      {
+        wait();
+      }
+      catch(InterruptedException e)
+      {
+        e.printStackTrace();
+        break;
+      }
+    }
+
+    pendingBytes += bytes;
+  }
+
+  /**
+   * Writes jobs as they come. A job that fails is put in the queue again, to
+   * be taken after a while.
+   */
+  public void run()
+  {
+    while(true)
+    {
+      Job job;
+
+      try
+      {
+        job = queue.take();
+      }
+      catch(InterruptedException e)
+      {
+        e.printStackTrace();
+        continue;
+      }
+
+      try
+      {
+        job.write();
+      }
+      catch(Throwable e)
+      {
+        // Reported once, the job is retried until it succeeds or is cancelled
+        if(job.failures++ == 0)
+          e.printStackTrace();
+
+        retry(job);
+        continue;
+      }
+
+      pending.remove(job.slot, job);
+
+      synchronized(this)
+      {
+        pendingBytes -= job.bytes;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Schedules <code>job</code> again, to be taken no sooner than
+   * {@link #RETRY_DELAY} milliseconds from now. Its bytes are still counted
+   * as pending.
+   * 
+   * @param job The job that failed.
+   */
+  private void retry(Job job)
+  {
+    job.time = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY);
+    queue.add(job);
+  }
+
+  /**
+   * Will return an instance of this class.
+   * 
+   * @return An instance of this class.
+   */
+  public static synchronized WriteBehind getInstance()
+  {
+    if(instance == null)
+    {
+      instance = new WriteBehind();
+    }
+
+    return instance;
+  }
+
+  /**
+   * A scheduled write.
+   */
+  private class Job implements Delayed
+  {
+    private PageStore store;
+
+    private long slot;
+
+    private ByteBuffer data;
+
+    private int start;
+
+    private int end;
+
+    /**
+     * Length of the page.
+     */
+    private int length;
+
+    /**
+     * Bytes counted as pending for this job.
+     */
+    private long bytes;
+
+    private boolean cancelled;
+
+    private boolean done;
+
+    /**
+     * Number of times the write has failed.
+     */
+    private int failures;
+
+    /**
+     * When the job may be taken from the queue, as given by
+     * {@link System#nanoTime}.
+     */
+    private long time;
+
+    public Job(PageStore store, long slot, ByteBuffer data, int start, int end, int length)
+    {
+      this.store = store;
+      this.slot = slot;
+      this.data = data;
+      this.start = start;
+      this.end = end;
+      this.length = length;
+      this.bytes = end - start;
+      this.time = System.nanoTime();
+    }
+
+    public long getDelay(TimeUnit unit)
+    {
+      return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public int compareTo(Delayed other)
+    {
+      return Long.compare(time, ((Job)other).time);
+    }
+
+    /**
+     * Writes the data, unless cancelled, and gives the buffer back. If the
+     * write fails, the buffer is kept so that it can be tried again.
+     * 
+     * @throws IOException If the data could not be written.
+     */
+    public synchronized void write() throws IOException
+    {
+      if(!cancelled)
+        store.write(slot, data, start, end);
+
+      done = true;
+      recycle();
+    }
+
+    /**
+     * Copies the range of this job into <code>target</code>. If the buffer
+     * has already been given back, the job is written and the page is read
+     * from the store again.
+     * 
+     * @param target Buffer holding the whole page.
+     */
+    public synchronized void overlay(ByteBuffer target)
+    {
+      if(data == null)
+      {
+        store.read(slot, target, length);
+      }
+      else
+      {
+        ByteBuffer source = data.duplicate();
+        source.limit(end);
+        source.position(start);
+
+        ByteBuffer view = target.duplicate();
+        view.clear();
+        view.position(start);
+        view.put(source);
+      }
+    }
+
+    /**
+     * Makes sure the job will not write anything. If the job is being written
+     * right now, this waits until it is done.
+     * 
+     * @return True if the job had not been written yet.
+     */
+    public synchronized boolean cancel()
+    {
+      boolean waiting = !done && !cancelled;
+      cancelled = true;
+      recycle();
+
+      return waiting;
+    }
+
+    private void recycle()
+    {
+      if(data != null)
+      {
+        BufferPool.getInstance().release(data);
+        data = null;
+      }
+    }
+  }
+}
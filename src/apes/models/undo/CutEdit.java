@@ -1,11 +1,10 @@
 package apes.models.undo;
 
-import java.awt.Point;
-
 import javax.swing.undo.AbstractUndoableEdit;
 
 import apes.models.InternalFormat;
 import apes.models.MemoryHandler;
+import apes.models.Selection;
 
 
 /**
@@ -21,22 +20,22 @@ public class CutEdit extends AbstractUndoableEdit
 
   private InternalFormat internalFormat;
 
-  private int start, stop;
+  private long start, stop;
 
   private boolean undoable;
   /**
    * Constructs the CutEdit and performs the cut.
    * 
    * @param c Channel to be affected.
-   * @param marked A point where [x,y] describes the interval to cut as absolute
-   *          indexes.
+   * @param marked The interval to cut as absolute indexes.
    */
-  public CutEdit(InternalFormat intForm, Point marked)
+  public CutEdit(InternalFormat intForm, Selection marked)
   {
     internalFormat = intForm;
-    start = marked.x;
-    stop = marked.y;
-    cutout = new MemoryHandler();
+    start = marked.getStart();
+    stop = marked.getStop();
+    cutout = intForm.createMemoryHandler();
+    cutout.setPriority(MemoryHandler.Priority.LOW);
     redo();
   }
 
@@ -1,11 +1,12 @@
 package apes.models.undo;
 
-import java.awt.Point;
+import java.io.IOException;
 
 import javax.swing.undo.AbstractUndoableEdit;
 
 import apes.models.InternalFormat;
 import apes.models.MemoryHandler;
+import apes.models.Selection;
 
 
 /**
@@ -25,13 +26,21 @@ public class PasteEdit extends AbstractUndoableEdit
 
   private boolean undoable;
 
-  public PasteEdit(InternalFormat intForm, Point marked, MemoryHandler p)
+  public PasteEdit(InternalFormat intForm, Selection marked, MemoryHandler p)
   {
     internalFormat = intForm;
-    start = marked.x;
+    start = marked.getStart();
     stop = start + intForm.bytesToSamples(p.getUsedMemory() - 1);
-    paste = new MemoryHandler();
-    paste.transfer(p, 0, p.getUsedMemory(), 0);
+    paste = intForm.createMemoryHandler();
+    paste.setPriority(MemoryHandler.Priority.LOW);
+    try
+    {
+      paste.transfer(p, 0, p.getUsedMemory(), 0);
+    }
+    catch(IOException e)
+    {
+      e.printStackTrace();
+    }
     redo();
   }
 
@@ -1,7 +1,6 @@
 package apes.plugins;
 
 import java.awt.BorderLayout;
-import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.HashMap;
@@ -9,12 +8,18 @@ import java.util.Map;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.WindowConstants;
 
 import apes.interfaces.TransformPlugin;
 import apes.models.InternalFormat;
+import apes.models.Selection;
+import apes.models.gain.Envelope;
+import apes.models.gain.ExponentialEnvelope;
+import apes.models.gain.LinearEnvelope;
+import apes.models.gain.SCurveEnvelope;
 
 
 /**
@@ -35,17 +40,17 @@ public class FadeTransform implements TransformPlugin, ActionListener
   /**
    * Selected region.
    */
-  Point selection;
+  Selection selection;
 
   /**
-   * The number of intervals.
+   * Names of the curves a fade can follow.
    */
-  int intervals;
-  
+  static final String[] CURVES = { "Linear", "Exponential", "S-curve" };
+
   /**
-   * The number of samples in each interval 
+   * The curve to follow, or null if the frame has not been shown.
    */
-  int interval;
+  JComboBox<String> curve;
 
   /**
    * Return the name of the plugin.
@@ -87,6 +92,9 @@ public class FadeTransform implements TransformPlugin, ActionListener
     inButton.addActionListener(this);
     bPanel.add(inButton, BorderLayout.NORTH);
 
+    curve = new JComboBox<String>(CURVES);
+    bPanel.add(curve, BorderLayout.CENTER);
+
     JButton outButton = new JButton("Fade out");
     outButton.addActionListener(this);
     bPanel.add(outButton, BorderLayout.SOUTH);
@@ -104,13 +112,10 @@ public class FadeTransform implements TransformPlugin, ActionListener
    * @param internalFormat The internal format.
    * @param selection The selected region.
    */
-  public void apply(InternalFormat internalFormat, Point selection)
+  public void apply(InternalFormat internalFormat, Selection selection)
   {
     this.internalFormat = internalFormat;
     this.selection = selection;
-    int amount = (selection.y - selection.x + 1);
-    intervals = (int) Math.max(1,Math.round(amount*0.01));
-    interval = amount / intervals;
     showFrame();
   }
 
@@ -119,11 +124,7 @@ public class FadeTransform implements TransformPlugin, ActionListener
    */
   public void fadeIn()
   {
-    for(int i = 0; i < intervals; i++)
-    {
-      internalFormat.scaleSamples( selection.x + interval*i, selection.x + interval*(i+1), (float)i/intervals);
-    }
-    internalFormat.updated();
+    fade(0, 1);
   }
   
   /**
@@ -131,11 +132,43 @@ public class FadeTransform implements TransformPlugin, ActionListener
    */
   public void fadeOut()
   {
-    for(int i = 0; i < intervals; i++)
+    fade(1, 0);
+  }
+
+  /**
+   * Changes the gain of the selected region from <code>from</code> to
+   * <code>to</code>, along the chosen curve, in one pass.
+   * 
+   * @param from Gain at the start of the region.
+   * @param to Gain at the end of the region.
+   */
+  private void fade(float from, float to)
+  {
+    internalFormat.applyEnvelope(selection.getStart(), selection.getStop(), createEnvelope(from, to));
+    internalFormat.updated();
+  }
+
+  /**
+   * Returns an envelope from <code>from</code> to <code>to</code> that
+   * follows the chosen curve. Linear if none is chosen.
+   * 
+   * @param from Gain at the start.
+   * @param to Gain at the end.
+   * @return The envelope.
+   */
+  private Envelope createEnvelope(float from, float to)
+  {
+    int index = curve == null ? 0 : curve.getSelectedIndex();
+
+    switch (index)
     {
-      internalFormat.scaleSamples( selection.x + interval*i, selection.x + interval*(i+1), (1 - (float)i/intervals));
+      case 1:
+        return new ExponentialEnvelope(from, to);
+      case 2:
+        return new SCurveEnvelope(from, to);
+      default:
+        return new LinearEnvelope(from, to);
     }
-    internalFormat.updated();
   }
 
   /**
@@ -1,11 +1,12 @@
 package apes.plugins;
 
-import java.awt.Point;
 import java.util.HashMap;
 import java.util.Map;
 
 import apes.interfaces.TransformPlugin;
 import apes.models.InternalFormat;
+import apes.models.Selection;
+import apes.models.gain.ConstantEnvelope;
 
 
 /**
@@ -44,9 +45,9 @@ public class SilenceTransform implements TransformPlugin
    * @param internalFormat The internal format.
    * @param selection The selected region.
    */
-  public void apply(InternalFormat internalFormat, Point selection)
+  public void apply(InternalFormat internalFormat, Selection selection)
   {
-    internalFormat.scaleSamples(selection.x, selection.y, 0);
+    internalFormat.applyEnvelope(selection.getStart(), selection.getStop(), new ConstantEnvelope(0));
     internalFormat.updated();
   }
 }
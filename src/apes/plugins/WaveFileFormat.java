@@ -7,10 +7,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
 
 import apes.interfaces.AudioFormatPlugin;
+import apes.models.Config;
 import apes.models.FileStatus;
 import apes.models.InternalFormat;
 import apes.models.Tags;
@@ -36,6 +38,16 @@ public class WaveFileFormat implements AudioFormatPlugin
    */
   private final static int IO_CHUNK_SIZE = 100000;
 
+  /**
+   * Audio format of integer samples.
+   */
+  private final static short WAVE_FORMAT_PCM = 1;
+
+  /**
+   * Audio format of float samples.
+   */
+  private final static short WAVE_FORMAT_IEEE_FLOAT = 3;
+
   /**
    * Returns the name of the plugin.
    * 
@@ -114,7 +126,7 @@ public class WaveFileFormat implements AudioFormatPlugin
     byte[] format = { 'W', 'A', 'V', 'E' };
     int subchunk1ID = 0x666d7420; // fmt
     int subchunk1Size = 16;
-    short audioFormat = 1;
+    short audioFormat = internalFormat.floatingPoint ? WAVE_FORMAT_IEEE_FLOAT : WAVE_FORMAT_PCM;
     short numChannels = (short)internalFormat.getNumChannels();
     int sampleRate = internalFormat.getSampleRate();
     int byteRate = sampleRate * numChannels * (internalFormat.bytesPerSample);
@@ -151,21 +163,40 @@ public class WaveFileFormat implements AudioFormatPlugin
     data.order(ByteOrder.LITTLE_ENDIAN);
     data.putInt(subchunk2Size);
 
-    FileOutputStream fStream = new FileOutputStream(file);
+    // The file may be mapped by an open internal format, so it is replaced
+    // rather than written over
+    File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    FileOutputStream fStream = new FileOutputStream(temp);
 
     fStream.write(data.array());
-    int written = 0;
 
-    while(written < numSamples)
-      while(written < numSamples)
-      {
-        byte[] bytes = internalFormat.getChunk(startS + written, IO_CHUNK_SIZE);
-        if(bytes == null)
-          bytes = internalFormat.getChunk(startS + written, (int)(numSamples - written));
-        written += IO_CHUNK_SIZE;
-        fStream.write(bytes);
-      }
-    fStream.close();
+    // Write straight from the memory handler, pages that are swapped out are
+    // not read into memory
+    FileChannel channel = fStream.getChannel();
+    long indexB = internalFormat.samplesToBytes(startS);
+    long amountB = internalFormat.samplesToBytes(numSamples);
+
+    boolean written = false;
+    try
+    {
+      written = internalFormat.transferTo(indexB, amountB, channel);
+    }
+    finally
+    {
+      fStream.close();
+
+      if(!written)
+        temp.delete();
+    }
+
+    if(!written)
+      throw new IOException("Bad interval: " + startS + " - " + stopS);
+
+    if(!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+    {
+      temp.delete();
+      throw new IOException("Could not replace " + file);
+    }
   }
 
   // TODO: Create a more detailed description of exception
@@ -197,7 +228,8 @@ public class WaveFileFormat implements AudioFormatPlugin
     // 4 little
     int subChunk1Size = bigToLittleEndian(dStream.readInt());
 
-    dStream.skip(2);
+    // 2 little
+    int audioFormat = bigToLittleEndian(dStream.readShort());
 
     // 2 little
     int numChannels = bigToLittleEndian(dStream.readShort());
@@ -218,9 +250,24 @@ public class WaveFileFormat implements AudioFormatPlugin
     // 4 little
     int subChunk2Size = bigToLittleEndian(dStream.readInt());
 
-    InternalFormat internalFormat = new InternalFormat(tag, sampleRate, numChannels, bitsPerSample);
+    InternalFormat internalFormat = new InternalFormat(tag, sampleRate, numChannels, bitsPerSample, audioFormat == WAVE_FORMAT_IEEE_FLOAT);
     internalFormat.setFileStatus(new FileStatus(path, filename));
 
+    // Use the data chunk where it is, it is read when needed
+    if(Config.getInstance().getBooleanOption("memory_map_files"))
+    {
+      dStream.close();
+
+      long offset = 28 + subChunk1Size;
+      long length = Math.min(subChunk2Size & 0xffffffffL, file.length() - offset);
+      length -= length % (numChannels * (bitsPerSample / 8));
+
+      internalFormat.mapSamples(0, file, offset, length);
+      usePeakCache(internalFormat, file);
+
+      return internalFormat;
+    }
+
     int written = 0;
     byte b[] = new byte[IO_CHUNK_SIZE];
 
@@ -242,9 +289,21 @@ public class WaveFileFormat implements AudioFormatPlugin
     }
 
     dStream.close();
+    usePeakCache(internalFormat, file);
+
     return internalFormat;
   }
 
+  /**
+   * Lets <code>internalFormat</code> use the cached peaks of
+   * <code>file</code>, if that is enabled.
+   */
+  private void usePeakCache(InternalFormat internalFormat, File file)
+  {
+    if(Config.getInstance().getBooleanOption("peak_cache"))
+      internalFormat.usePeakCache(file);
+  }
+
   private static int bigToLittleEndian(int bigendian)
   {
     ByteBuffer buf = ByteBuffer.allocate(4);
@@ -6,16 +6,17 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridLayout;
-import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Set;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import apes.controllers.ChannelController;
 import apes.lib.SampleHelper;
 import apes.models.Config;
 import apes.models.InternalFormat;
+import apes.models.PeakPyramid;
 import apes.models.Player;
 
 
@@ -45,12 +46,12 @@ public class ChannelView extends JPanel implements Runnable
   /**
    * The center sample of the channels
    */
-  private int centerSample;
+  private long centerSample;
 
   /**
    * The number of visible samples in each channel
    */
-  private int visibleSamples;
+  private long visibleSamples;
 
   /**
    * The position of the mouse in the x-axis
@@ -118,7 +119,7 @@ public class ChannelView extends JPanel implements Runnable
     graphs = new HashSet<ChannelView.Graph>();
 
     // Set start zoom.
-    int numSamples = internalFormat.getSampleAmount();
+    long numSamples = internalFormat.getSampleAmount();
     setZoom(numSamples);
     setCenter(numSamples / 2);
 
@@ -215,19 +216,19 @@ public class ChannelView extends JPanel implements Runnable
    * @param samples The position in the channel in samples.
    * @return -1 if the sample is outside the graph otherwise where in the graph.
    */
-  public int samplesToPixels(int samples)
+  public int samplesToPixels(long samples)
   {
-    int firstVisibleSample = getFirstVisibleSample();
-    int lastVisibelSample = getLastVisibleSample();
+    long firstVisibleSample = getFirstVisibleSample();
+    long lastVisibelSample = getLastVisibleSample();
 
     if(samples < firstVisibleSample || samples > lastVisibelSample)
       return -1;
 
-    int properSamples = samples - firstVisibleSample;
+    long properSamples = samples - firstVisibleSample;
 
-    float ratio = (float)properSamples / visibleSamples;
+    double ratio = (double)properSamples / visibleSamples;
 
-    return Math.round(ratio * graphWidth);
+    return (int)Math.round(ratio * graphWidth);
   }
 
   /**
@@ -237,9 +238,9 @@ public class ChannelView extends JPanel implements Runnable
    * @param milliseconds The position in the channel in milliseconds.
    * @return -1 if the time is outside the graph otherwise where in the graph.
    */
-  public int millisecondsToPixels(int milliseconds)
+  public int millisecondsToPixels(long milliseconds)
   {
-    int samples = SampleHelper.millisecondsToSamples(sampleRate, milliseconds);
+    long samples = SampleHelper.millisecondsToSamples(sampleRate, milliseconds);
 
     return samplesToPixels(samples);
   }
@@ -250,9 +251,9 @@ public class ChannelView extends JPanel implements Runnable
    * @param seconds The position in the channel in seconds.
    * @return -1 if the time is outside the graph otherwise where in the graph.
    */
-  public int secondsToPixels(int seconds)
+  public int secondsToPixels(long seconds)
   {
-    int samples = SampleHelper.secondsToSamples(sampleRate, seconds);
+    long samples = SampleHelper.secondsToSamples(sampleRate, seconds);
 
     return samplesToPixels(samples);
   }
@@ -263,9 +264,9 @@ public class ChannelView extends JPanel implements Runnable
    * @param minutes The position in the channel in seconds.
    * @return -1 if the time is outside the graph otherwise where in the graph.
    */
-  public int minutesToPixels(int minutes)
+  public int minutesToPixels(long minutes)
   {
-    int samples = SampleHelper.millisecondsToSamples(sampleRate, minutes);
+    long samples = SampleHelper.minutesToSamples(sampleRate, minutes);
 
     return samplesToPixels(samples);
   }
@@ -276,16 +277,16 @@ public class ChannelView extends JPanel implements Runnable
    * @param pixels How many pixels in the graph in the x-axis
    * @return The absolute samples in the channel, -1 if outside the graph.
    */
-  public int pixelsToSamples(int pixels)
+  public long pixelsToSamples(int pixels)
   {
     if(pixels < 0 || pixels > graphWidth)
     {
       return -1;
     }
 
-    int firstVisibleSample = getFirstVisibleSample();
-    float samplesPerPixel = (float)visibleSamples / graphWidth;
-    int samples = Math.round((pixels * samplesPerPixel) + firstVisibleSample);
+    long firstVisibleSample = getFirstVisibleSample();
+    double samplesPerPixel = (double)visibleSamples / graphWidth;
+    long samples = Math.round((pixels * samplesPerPixel) + firstVisibleSample);
 
     return samples;
   }
@@ -297,9 +298,9 @@ public class ChannelView extends JPanel implements Runnable
    * @param pixels How many pixels in the graph in the x-axis
    * @return The millisecnods in the channel, -1 if outside the graph.
    */
-  public int pixelsToMilliseconds(int pixels)
+  public long pixelsToMilliseconds(int pixels)
   {
-    int samples = pixelsToSamples(pixels);
+    long samples = pixelsToSamples(pixels);
 
     return SampleHelper.samplesToMilliseconds(sampleRate, samples);
   }
@@ -311,9 +312,9 @@ public class ChannelView extends JPanel implements Runnable
    * @param pixels How many pixels in the graph in the x-axis
    * @return The seconds in the channel, -1 if outside the graph.
    */
-  public int pixelsToSeconds(int pixels)
+  public long pixelsToSeconds(int pixels)
   {
-    int samples = pixelsToSamples(pixels);
+    long samples = pixelsToSamples(pixels);
 
     return SampleHelper.samplesToSeconds(sampleRate, samples);
   }
@@ -325,9 +326,9 @@ public class ChannelView extends JPanel implements Runnable
    * @param pixels How many pixels in the graph in the x-axis
    * @return The minutes in the channel, -1 if outside the graph.
    */
-  public int pixelsToMinutes(int pixels)
+  public long pixelsToMinutes(int pixels)
   {
-    int samples = pixelsToSamples(pixels);
+    long samples = pixelsToSamples(pixels);
 
     return SampleHelper.samplesToMinutes(sampleRate, samples);
   }
@@ -358,7 +359,7 @@ public class ChannelView extends JPanel implements Runnable
    * 
    * @return Number of samples visible.
    */
-  public int getZoom()
+  public long getZoom()
   {
     return visibleSamples;
   }
@@ -368,7 +369,7 @@ public class ChannelView extends JPanel implements Runnable
    * 
    * @param samples The number of samples to be viewed in the view.
    */
-  public void setZoom(int samples)
+  public void setZoom(long samples)
   {
     visibleSamples = samples;
   }
@@ -378,7 +379,7 @@ public class ChannelView extends JPanel implements Runnable
    * 
    * @param sample The sample that should be in the center of the view.
    */
-  public void setCenter(int sample)
+  public void setCenter(long sample)
   {
     centerSample = sample;
   }
@@ -388,7 +389,7 @@ public class ChannelView extends JPanel implements Runnable
    * 
    * @return The center position.
    */
-  public int getCenter()
+  public long getCenter()
   {
     return centerSample;
   }
@@ -398,7 +399,7 @@ public class ChannelView extends JPanel implements Runnable
    * 
    * @return The first visible sample.
    */
-  public int getFirstVisibleSample()
+  public long getFirstVisibleSample()
   {
     return centerSample - (visibleSamples / 2);
   }
@@ -408,7 +409,7 @@ public class ChannelView extends JPanel implements Runnable
    * 
    * @return The last visible sample.
    */
-  public int getLastVisibleSample()
+  public long getLastVisibleSample()
   {
     return centerSample + (visibleSamples / 2);
   }
@@ -431,10 +432,21 @@ public class ChannelView extends JPanel implements Runnable
      */
     private int[] samples;
 
+    /**
+     * When zoomed out, the lowest amplitude of each pixel. The highest is in
+     * <code>samples</code>.
+     */
+    private int[] lows;
+
+    /**
+     * Samples read for a pixel when zoomed out, reused between updates.
+     */
+    private float[] pixelSamples;
+
     /**
      * How many samples are there per pixel.
      */
-    private float samplesPerPixel;
+    private double samplesPerPixel;
 
     /**
      * The view that this graph is placed on.
@@ -513,7 +525,7 @@ public class ChannelView extends JPanel implements Runnable
      */
     private void drawStatus()
     {
-      int time = getTime(mousePosX);
+      long time = getTime(mousePosX);
       ;
       String unit = getUnit();
 
@@ -536,7 +548,7 @@ public class ChannelView extends JPanel implements Runnable
       {
         g2.drawLine(i, 0, i, rulerWidth + 3);
 
-        int time = getTime(i);
+        long time = getTime(i);
 
         g2.drawString("" + time, i, 20);
       }
@@ -615,9 +627,9 @@ public class ChannelView extends JPanel implements Runnable
     {
       // If the player cursor is at the end of the screen. Then go to
       // the next page.
-      int start = getFirstVisibleSample();
-      int stop = getLastVisibleSample();
-      int currentSample = player.getCurrentSample();
+      long start = getFirstVisibleSample();
+      long stop = getLastVisibleSample();
+      long currentSample = player.getCurrentSample();
 
       if(visibleSamples > 100000 && currentSample > stop)
       {
@@ -631,7 +643,7 @@ public class ChannelView extends JPanel implements Runnable
 
       int half = graphHeight / 2;
 
-      if(samplesPerPixel < 1)
+      if(samplesPerPixel <= 1)
       {
         float jump = (float)graphWidth / samples.length;
         int pixel = 0;
@@ -657,10 +669,10 @@ public class ChannelView extends JPanel implements Runnable
       }
       else
       {
-        for(int i = 0; i < graphWidth; i++)
+        for(int i = 0; i < Math.min(graphWidth, samples.length); i++)
         {
-          int y1 = half + samples[i];
-          int y2 = half - samples[i];
+          int y1 = half - samples[i];
+          int y2 = half - lows[i];
 
           g2.drawLine(i, y1, i, y2);
         }
@@ -683,10 +695,10 @@ public class ChannelView extends JPanel implements Runnable
      * @param pixels The pixel position.
      * @return The time.
      */
-    private int getTime(int pixels)
+    private long getTime(int pixels)
     {
-      int time = -1;
-      int diff = SampleHelper.samplesToMilliseconds(sampleRate, visibleSamples);
+      long time = -1;
+      long diff = SampleHelper.samplesToMilliseconds(sampleRate, visibleSamples);
 
       // If diff is larger than five minutes.
       if(diff > 5 * 1000 * 60)
@@ -732,59 +744,30 @@ public class ChannelView extends JPanel implements Runnable
      */
     public void updateGraph()
     {
-      int amount = internalFormat.getSampleAmount();
+      long amount = internalFormat.getSampleAmount();
       if(visibleSamples > amount)
       {
         visibleSamples = amount;
         centerSample = visibleSamples / 2;
       }
 
-      samplesPerPixel = visibleSamples / graphWidth;
+      samplesPerPixel = (double)visibleSamples / graphWidth;
 
-      // If there are less samples per pixel than 1. Or if there are
-      // equally many samples as there are pixels.
-      if(samplesPerPixel <= 1)
+      // If there are more samples per pixel than 1, the smallest and largest
+      // sample of each pixel are drawn.
+      if(samplesPerPixel > 1)
       {
-        int firstVisibleSample = getFirstVisibleSample();
-        ByteBuffer bytes = ByteBuffer.wrap(internalFormat.getSamples(firstVisibleSample, firstVisibleSample + visibleSamples));
-        samples = new int[visibleSamples];
-
-        for(int i = 0; i < samples.length; i++)
-        {
-          int index = (int)(internalFormat.samplesToBytes(i) + channel * internalFormat.bytesPerSample);
-
-          switch (internalFormat.bytesPerSample)
-          {
-            case 2:
-              samples[i] = bytes.getShort(index);
-              break;
-            case 4:
-              samples[i] = bytes.getInt(index);
-              break;
-
-            default:
-              System.err.println("BAD BYTES PER SAMPLE IN CHANNEL VIEW WHILE UPDATING GRAPH");
-              System.exit(1);
-          }
-        }
+        updatePeaks();
+        repaint();
+        return;
       }
-      // If there are more samples per pixel than 1.
-      else
-      {
-        samples = new int[graphWidth];
 
-        int jump = Math.round((float)visibleSamples / graphWidth);
-        int firstVisibleSample = getFirstVisibleSample();
-
-        for(int i = 0; i < samples.length; i++)
-        {
-          int start = firstVisibleSample + (i * jump);
-          int sample = internalFormat.getAverageAmplitude(channel, start, jump);
-
-          samples[i] = sample;
-        }
-      }
+      // If there are less samples per pixel than 1. Or if there are
+      // equally many samples as there are pixels.
+      long firstVisibleSample = getFirstVisibleSample();
+      samples = new int[(int)visibleSamples];
 
+      internalFormat.getBlock(channel, firstVisibleSample, samples, 0, samples.length);
       applyLowPassFilter(samples, 0.1f);
       
       // Set min and max amplitude.
@@ -817,6 +800,64 @@ public class ChannelView extends JPanel implements Runnable
       repaint();
     }
 
+    /**
+     * Sets <code>samples</code> and <code>lows</code> to the largest and
+     * smallest sample of each pixel. When there are many samples per pixel,
+     * they are taken from the summaries of the internal format, so that the
+     * time does not depend on the zoom.
+     */
+    private void updatePeaks()
+    {
+      long firstVisibleSample = getFirstVisibleSample();
+      float[] min = new float[graphWidth];
+      float[] max = new float[graphWidth];
+
+      if(samplesPerPixel >= PeakPyramid.BLOCK_SIZE)
+      {
+        // Until the summaries have been computed the graph is flat
+        PeakPyramid pyramid = internalFormat.getPeaks(() -> SwingUtilities.invokeLater(this::updateGraph));
+        if(pyramid != null)
+          pyramid.getPeaks(channel, firstVisibleSample, visibleSamples, graphWidth, min, max, null);
+      }
+      else
+      {
+        for(int i = 0; i < graphWidth; i++)
+        {
+          long from = firstVisibleSample + visibleSamples * i / graphWidth;
+          int n = (int)(firstVisibleSample + visibleSamples * (i + 1) / graphWidth - from);
+
+          if(pixelSamples == null || pixelSamples.length < n)
+            pixelSamples = new float[n];
+
+          if(n < 1 || !internalFormat.getBlock(channel, from, pixelSamples, 0, n))
+            continue;
+
+          min[i] = pixelSamples[0];
+          max[i] = pixelSamples[0];
+          for(int j = 1; j < n; j++)
+          {
+            min[i] = Math.min(min[i], pixelSamples[j]);
+            max[i] = Math.max(max[i], pixelSamples[j]);
+          }
+        }
+      }
+
+      // Scale so that the highest peak fills the graph.
+      float peak = Float.MIN_VALUE;
+      for(int i = 0; i < graphWidth; i++)
+        peak = Math.max(peak, Math.max(Math.abs(min[i]), Math.abs(max[i])));
+
+      float scale = ((float)graphHeight / 2) / peak;
+
+      samples = new int[graphWidth];
+      lows = new int[graphWidth];
+      for(int i = 0; i < graphWidth; i++)
+      {
+        samples[i] = Math.round(max[i] * scale);
+        lows[i] = Math.round(min[i] * scale);
+      }
+    }
+
     /**
      * TODO: Comment Low pass filter
      * 
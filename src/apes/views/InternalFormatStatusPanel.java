@@ -152,7 +152,7 @@ public class InternalFormatStatusPanel extends JPanel
     top.add(header);
 
     String[] labels = { "sample_rate", "num_channels", "num_samples", "bytes_per_sample", "bits_per_sample" };
-    int[] values = { internalFormat.getSampleRate(), internalFormat.getNumChannels(), internalFormat.getSampleAmount(), internalFormat.bytesPerSample, internalFormat.bitsPerSample };
+    long[] values = { internalFormat.getSampleRate(), internalFormat.getNumChannels(), internalFormat.getSampleAmount(), internalFormat.bytesPerSample, internalFormat.bitsPerSample };
 
     // Add all labels and values.
     for(int i = 0; i < labels.length; i++)
@@ -251,7 +251,7 @@ public class InternalFormatStatusPanel extends JPanel
    * 
    * @return The start value.
    */
-  public int getStartValue()
+  public long getStartValue()
   {
     return getValue(Mark.START);
   }
@@ -261,7 +261,7 @@ public class InternalFormatStatusPanel extends JPanel
    * 
    * @param samples The start value.
    */
-  public void setStartValue(int samples)
+  public void setStartValue(long samples)
   {
     setValue(Mark.START, samples);
   }
@@ -271,7 +271,7 @@ public class InternalFormatStatusPanel extends JPanel
    * 
    * @return The stop value.
    */
-  public int getStopValue()
+  public long getStopValue()
   {
     return getValue(Mark.STOP);
   }
@@ -281,7 +281,7 @@ public class InternalFormatStatusPanel extends JPanel
    * 
    * @param samples The stop value.
    */
-  public void setStopValue(int samples)
+  public void setStopValue(long samples)
   {
     setValue(Mark.STOP, samples);
   }
@@ -291,7 +291,7 @@ public class InternalFormatStatusPanel extends JPanel
    * 
    * @return The player value.
    */
-  public int getPlayerValue()
+  public long getPlayerValue()
   {
     return getValue(Mark.PLAYER);
   }
@@ -301,7 +301,7 @@ public class InternalFormatStatusPanel extends JPanel
    * 
    * @param samples The player value.
    */
-  public void setPlayerValue(int samples)
+  public void setPlayerValue(long samples)
   {
     setValue(Mark.PLAYER, samples);
   }
@@ -312,10 +312,10 @@ public class InternalFormatStatusPanel extends JPanel
    * @param mark The mark.
    * @return The value for mark in samples.
    */
-  private int getValue(Mark mark)
+  private long getValue(Mark mark)
   {
     JTextField textField = valueMap.get(mark);
-    int value = getTextFieldValue(textField);
+    long value = getTextFieldValue(textField);
 
     if(isSamples(mark))
     {
@@ -343,10 +343,10 @@ public class InternalFormatStatusPanel extends JPanel
    * @param mark The mark.
    * @param samples The new value for mark.
    */
-  private void setValue(Mark mark, int samples)
+  private void setValue(Mark mark, long samples)
   {
     JTextField textField = valueMap.get(mark);
-    int value = getTextFieldValue(textField);
+    long value = getTextFieldValue(textField);
 
     if(isSamples(mark))
     {
@@ -432,13 +432,13 @@ public class InternalFormatStatusPanel extends JPanel
    * @param textField The text field.
    * @return The text field value, or zero if not valid.
    */
-  private int getTextFieldValue(JTextField textField)
+  private long getTextFieldValue(JTextField textField)
   {
-    int value = 0;
+    long value = 0;
 
     try
     {
-      value = Integer.parseInt(textField.getText());
+      value = Long.parseLong(textField.getText());
     }
     catch(NumberFormatException e)
     {}
@@ -125,22 +125,22 @@ public class InternalFormatView extends JPanel implements Observer
   }
 
   // DELEGATORS
-  public int getZoom()
+  public long getZoom()
   {
     return channelView.getZoom();
   }
 
-  public void setZoom(int samples)
+  public void setZoom(long samples)
   {
     channelView.setZoom(samples);
   }
 
-  public void setCenter(int sample)
+  public void setCenter(long sample)
   {
     channelView.setCenter(sample);
   }
 
-  public int getCenter()
+  public long getCenter()
   {
     return channelView.getCenter();
   }
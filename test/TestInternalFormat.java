@@ -0,0 +1,445 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import org.junit.Test;
+
+import apes.models.InternalFormat;
+import apes.models.PeakCache;
+import apes.models.PeakPyramid;
+import apes.models.SampleIterator;
+import apes.models.SampleSpliterator;
+import apes.models.gain.BreakpointEnvelope;
+import apes.models.gain.ExponentialEnvelope;
+import apes.models.gain.GainEngine;
+import apes.models.gain.LinearEnvelope;
+import apes.models.gain.SCurveEnvelope;
+import apes.models.gain.ScalarGainKernel;
+
+public class TestInternalFormat
+{
+  /**
+   * Creates a stereo internal format with 16 bit samples, where sample
+   * <code>i</code> is <code>i</code> in the left channel and <code>-i</code>
+   * in the right.
+   */
+  private InternalFormat createStereo(int samples)
+  {
+    byte[] data = new byte[samples * 4];
+    for(int i = 0; i < samples; i++)
+    {
+      data[i * 4] = (byte)i;
+      data[i * 4 + 1] = (byte)(i >> 8);
+      data[i * 4 + 2] = (byte)-i;
+      data[i * 4 + 3] = (byte)(-i >> 8);
+    }
+
+    InternalFormat internalFormat = new InternalFormat(null, 44100, 2, 16);
+    internalFormat.insertSamples(0, data);
+
+    return internalFormat;
+  }
+
+  @Test public void testGetBlock()
+  {
+    InternalFormat internalFormat = createStereo(30000);
+
+    int[] right = new int[20000];
+    assertTrue(internalFormat.getBlock(1, 5000, right, 0, right.length));
+    for(int i = 0; i < right.length; i++)
+      assertEquals((short)-(i + 5000), right[i]);
+
+    float[][] both = new float[2][10];
+    assertTrue(internalFormat.getBlock(16384, both, 2, 8));
+    assertEquals(16384 / 32768f, both[0][2], 0);
+    assertEquals(-16391 / 32768f, both[1][9], 0);
+
+    // Out of range
+    assertFalse(internalFormat.getBlock(2, 0, right, 0, 1));
+    assertFalse(internalFormat.getBlock(0, 29990, right, 0, 11));
+    assertFalse(internalFormat.getBlock(0, 0, right, 1, right.length));
+  }
+
+  @Test public void testSetBlock()
+  {
+    InternalFormat internalFormat = createStereo(30000);
+
+    float[] left = new float[25000];
+    for(int i = 0; i < left.length; i++)
+      left[i] = i % 2 == 0 ? 2 : -0.5f;
+
+    assertTrue(internalFormat.setBlock(0, 1000, left, 0, left.length));
+
+    short[][] both = new short[2][25000];
+    assertTrue(internalFormat.getBlock(1000, both, 0, 25000));
+    for(int i = 0; i < 25000; i++)
+    {
+      // Clipped to the largest value
+      assertEquals(i % 2 == 0 ? Short.MAX_VALUE : -16384, both[0][i]);
+      // The other channel is left alone
+      assertEquals((short)-(i + 1000), both[1][i]);
+    }
+
+    assertEquals(0, internalFormat.getSample(0, 0));
+  }
+
+  @Test public void testSampleIterator()
+  {
+    InternalFormat internalFormat = createStereo(10000);
+    SampleIterator iterator = new SampleIterator(internalFormat, 1, 100);
+
+    for(int i = 100; i < 10000; i++)
+    {
+      assertTrue(iterator.hasNext());
+      assertEquals(i, iterator.getIndex());
+      assertEquals(-i, iterator.next());
+    }
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test public void testStream()
+  {
+    InternalFormat internalFormat = createStereo(30000);
+    long sum = 29999L * 30000 / 2;
+
+    assertEquals(sum, internalFormat.stream(0, false).asLongStream().sum());
+    assertEquals(-sum, internalFormat.stream(1, true).asLongStream().sum());
+    assertEquals(29999, internalFormat.stream(0, true).max().getAsInt());
+
+    // Splits are made at multiples of the page
+    SampleSpliterator spliterator = new SampleSpliterator(internalFormat, 0, 100, 30000, 1000);
+    assertTrue(spliterator.tryAdvance((int value) -> assertEquals(100, value)));
+
+    Spliterator.OfInt prefix = spliterator.trySplit();
+    assertEquals(14899, prefix.estimateSize());
+    assertEquals(15000, spliterator.estimateSize());
+    assertEquals(sum - 100 * 99 / 2 - 100, StreamSupport.intStream(prefix, false).asLongStream().sum() + StreamSupport.intStream(spliterator, false).asLongStream().sum());
+  }
+
+  /**
+   * Asserts that the peaks of all samples in <code>pyramid</code> are those
+   * of a new pyramid of the same internal format. Blocks may be split
+   * differently, so only the whole is compared.
+   */
+  private void assertPeaks(InternalFormat internalFormat, PeakPyramid pyramid)
+  {
+    PeakPyramid fresh = new PeakPyramid(internalFormat);
+    long length = internalFormat.getSampleAmount();
+    assertEquals(length, pyramid.length());
+
+    for(int channel = 0; channel < 2; channel++)
+    {
+      float[][] expected = new float[3][1];
+      float[][] actual = new float[3][1];
+
+      fresh.getPeaks(channel, 0, length, 1, expected[0], expected[1], expected[2]);
+      pyramid.getPeaks(channel, 0, length, 1, actual[0], actual[1], actual[2]);
+
+      for(int i = 0; i < 3; i++)
+        assertEquals(expected[i][0], actual[i][0], 1e-6f);
+    }
+  }
+
+  @Test public void testPeakPyramid()
+  {
+    InternalFormat internalFormat = createStereo(30000);
+    PeakPyramid pyramid = internalFormat.getPeaks();
+
+    float[] min = new float[3];
+    float[] max = new float[3];
+    pyramid.getPeaks(0, 0, 30000, 3, min, max, null);
+    assertEquals(0, min[0], 0);
+    assertEquals(29999 / 32768f, max[2], 0);
+
+    internalFormat.insertSamples(internalFormat.samplesToBytes(4000), new byte[] { 0, 0x40, 0, (byte)0xC0 });
+    pyramid.getPeaks(1, 3990, 20, 1, min, max, null);
+    assertEquals(-0.5f, min[0], 0);
+    assertPeaks(internalFormat, pyramid);
+
+    internalFormat.removeSamples(100, 20000);
+    assertPeaks(internalFormat, pyramid);
+
+    internalFormat.setBlock(0, 50, new float[] { -1, 1 }, 0, 2);
+    pyramid.getPeaks(0, 0, internalFormat.getSampleAmount(), 1, min, max, null);
+    assertEquals(-1, min[0], 0);
+    assertEquals(Short.MAX_VALUE / 32768f, max[0], 0);
+    assertPeaks(internalFormat, pyramid);
+  }
+
+  @Test public void testPeakPyramidEdits()
+  {
+    InternalFormat internalFormat = createStereo(200000);
+    PeakPyramid pyramid = internalFormat.getPeaks();
+    Random random = new Random(7);
+
+    for(int i = 0; i < 200; i++)
+    {
+      long samples = internalFormat.getSampleAmount();
+      long at = (long)(random.nextDouble() * samples);
+
+      switch(random.nextInt(3))
+      {
+        case 0:
+          byte[] data = new byte[random.nextInt(5000) * 4];
+          random.nextBytes(data);
+          internalFormat.insertSamples(internalFormat.samplesToBytes(at), data);
+          break;
+
+        case 1:
+          internalFormat.removeSamples(at, Math.min(samples, at + random.nextInt(5000)));
+          break;
+
+        default:
+          int amount = (int)Math.min(samples - at, random.nextInt(3000));
+          float[] block = new float[amount];
+          for(int j = 0; j < amount; j++)
+            block[j] = random.nextFloat() * 2 - 1;
+          internalFormat.setBlock(random.nextInt(2), at, block, 0, amount);
+      }
+
+      assertPeaks(internalFormat, pyramid);
+    }
+  }
+
+  @Test public void testPeaksInBackground() throws InterruptedException
+  {
+    InternalFormat internalFormat = createStereo(500000);
+    CountDownLatch ready = new CountDownLatch(1);
+
+    // Samples changed while the peaks are computed are part of them
+    PeakPyramid pyramid = internalFormat.getPeaks(ready::countDown);
+    internalFormat.removeSamples(1000, 200000);
+
+    assertTrue(ready.await(30, TimeUnit.SECONDS));
+    if(pyramid == null)
+      pyramid = internalFormat.getPeaks(ready::countDown);
+
+    assertNotNull(pyramid);
+    assertSame(pyramid, internalFormat.getPeaks());
+    assertPeaks(internalFormat, pyramid);
+  }
+
+  @Test public void testPeakCache() throws IOException
+  {
+    File home = File.createTempFile("apes", "");
+    home.delete();
+    home.mkdir();
+    String oldHome = System.setProperty("user.home", home.getPath());
+
+    try
+    {
+      File file = new File(home, "test.raw");
+      byte[] data = new byte[40000];
+      for(int i = 0; i < data.length; i++)
+        data[i] = (byte)(i * 7);
+
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(data);
+      out.close();
+
+      InternalFormat first = new InternalFormat(null, 44100, 2, 16);
+      first.mapSamples(0, file, 0, data.length);
+      first.usePeakCache(file);
+      assertFalse(PeakCache.getCacheFile(file).exists());
+
+      first.getPeaks();
+      assertTrue(PeakCache.getCacheFile(file).exists());
+
+      InternalFormat second = new InternalFormat(null, 44100, 2, 16);
+      second.mapSamples(0, file, 0, data.length);
+      second.usePeakCache(file);
+      assertPeaks(second, second.getPeaks());
+
+      // Another file of the same size does not get the same peaks
+      data[0]++;
+      out = new FileOutputStream(file);
+      out.write(data);
+      out.close();
+      assertFalse(PeakCache.getCacheFile(file).exists());
+    }
+    finally
+    {
+      System.setProperty("user.home", oldHome);
+    }
+  }
+
+  @Test public void testPeakCachePrune() throws IOException
+  {
+    File folder = File.createTempFile("apes", "");
+    folder.delete();
+    folder.mkdir();
+
+    long now = System.currentTimeMillis();
+    String[] names = { "a.peaks", "b.peaks", "c.peaks", "d.peaks", "e.tmp", "other" };
+    long[] ages = { 1000, 2000, 3000, 100000, 100000, 100000 };
+
+    for(int i = 0; i < names.length; i++)
+    {
+      File file = new File(folder, names[i]);
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(new byte[100]);
+      out.close();
+      file.setLastModified(now - ages[i]);
+    }
+
+    // The old ones go, and then the least recently used that do not fit
+    PeakCache.prune(folder, 250, 50000);
+
+    String[] left = folder.list();
+    Arrays.sort(left);
+    assertArrayEquals(new String[] { "a.peaks", "b.peaks", "other" }, left);
+
+    for(File file : folder.listFiles())
+      file.delete();
+    folder.delete();
+  }
+
+  @Test public void testCodecs()
+  {
+    // Negative samples used to be decoded wrong
+    InternalFormat stereo = createStereo(1000);
+    assertEquals(-300, stereo.getSample(1, 300));
+    assertEquals(300, stereo.getSample(0, 300));
+
+    float[] values = { -1, -0.5f, 0, 0.25f, 0.999f };
+    int[][] formats = { { 8, 0 }, { 16, 0 }, { 24, 0 }, { 32, 0 }, { 32, 1 } };
+
+    for(int[] format : formats)
+    {
+      InternalFormat internalFormat = new InternalFormat(null, 44100, 1, format[0], format[1] == 1);
+      byte[] silence = new byte[values.length * format[0] / 8];
+      if(format[0] == 8)
+        Arrays.fill(silence, (byte)0x80);
+      internalFormat.insertSamples(0, silence);
+
+      // Silence is zero in every format
+      assertEquals(0, internalFormat.getSample(0, 2));
+
+      assertTrue(internalFormat.setBlock(0, 0, values, 0, values.length));
+
+      float[] read = new float[values.length];
+      assertTrue(internalFormat.getBlock(0, 0, read, 0, read.length));
+      for(int i = 0; i < values.length; i++)
+        assertEquals(values[i], read[i], 1f / (1 << (format[0] - 1)));
+
+      assertTrue(internalFormat.getSample(0, 0) < 0);
+      assertTrue(internalFormat.getSample(0, 3) > 0);
+
+      internalFormat.scaleSamples(0, values.length - 1, 0.5f);
+      assertTrue(internalFormat.getBlock(0, 0, read, 0, read.length));
+      assertEquals(-0.5f, read[0], 1f / (1 << (format[0] - 1)));
+    }
+  }
+
+  @Test public void testAverageAmplitude()
+  {
+    InternalFormat internalFormat = createStereo(200000);
+
+    // Read a few samples at a time, every sample counts once
+    assertEquals(115, internalFormat.getAverageAmplitude(0, 100, 30, ByteBuffer.allocate(7 * 4)));
+    assertEquals(-114, internalFormat.getAverageAmplitude(1, 100, 30, ByteBuffer.allocateDirect(7 * 4)));
+
+    // Every 100th sample from 1000, with chunks larger and smaller than a step
+    assertEquals(1450, internalFormat.getAverageAmplitude(0, 1000, 1000, ByteBuffer.allocate(250 * 4)));
+    assertEquals(1450, internalFormat.getAverageAmplitude(0, 1000, 1000, ByteBuffer.allocateDirect(250 * 4)));
+    assertEquals(1450, internalFormat.getAverageAmplitude(0, 1000, 1000, ByteBuffer.allocate(50 * 4)));
+    assertEquals(1450, internalFormat.getAverageAmplitude(0, 1000, 1000));
+  }
+
+  @Test public void testScaleSamples()
+  {
+    // Large enough to be split over several pages
+    InternalFormat internalFormat = createStereo(200000);
+
+    internalFormat.scaleSamples(1000, 199999, 2);
+    for(int i = 0; i < 200000; i += 997)
+    {
+      int expected = i < 1000 ? (short)i : Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (short)i * 2));
+      assertEquals(expected, internalFormat.getSample(0, i));
+      assertEquals(i < 1000 ? (short)-i : Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (short)-i * 2)), internalFormat.getSample(1, i));
+    }
+
+    // The last sample is scaled, and the one after the range is not
+    assertEquals((short)-199999 * 2, internalFormat.getSample(1, 199999));
+    assertEquals(Short.MIN_VALUE, internalFormat.getSample(1, 20000));
+    internalFormat.scaleSamples(10, 20, 0);
+    assertEquals(0, internalFormat.getSample(0, 20));
+    assertEquals(21, internalFormat.getSample(0, 21));
+    assertEquals(9, internalFormat.getSample(0, 9));
+
+    // The kernel in use works like the scalar one
+    float[] expected = new float[1003];
+    float[] actual = new float[1003];
+    for(int i = 0; i < expected.length; i++)
+      expected[i] = actual[i] = (i - 500) / 300f;
+
+    new ScalarGainKernel().apply(expected, 1, 1001, 1.5f, -1, 1);
+    GainEngine.getInstance().getKernel().apply(actual, 1, 1001, 1.5f, -1, 1);
+    for(int i = 0; i < expected.length; i++)
+      assertEquals(expected[i], actual[i], 0);
+  }
+
+  @Test public void testApplyEnvelope()
+  {
+    // Every sample is a half in both channels
+    int samples = 150001;
+    byte[] data = new byte[samples * 4];
+    for(int i = 0; i < data.length; i += 2)
+      data[i + 1] = 0x40;
+
+    InternalFormat internalFormat = new InternalFormat(null, 44100, 2, 16);
+    internalFormat.insertSamples(0, data);
+
+    internalFormat.applyEnvelope(0, samples - 1, new LinearEnvelope(0, 2));
+    for(int i = 0; i < samples; i += 1499)
+    {
+      float expected = Math.min(1, 0.5f * 2 * i / (samples - 1));
+      float[][] read = new float[2][1];
+      assertTrue(internalFormat.getBlock(i, read, 0, 1));
+      assertEquals(expected, read[0][0], 1 / 16384f);
+      assertEquals(read[0][0], read[1][0], 0);
+    }
+    assertEquals(0, internalFormat.getSample(0, 0));
+    assertEquals(Short.MAX_VALUE, internalFormat.getSample(1, samples - 1));
+
+    // Curves
+    assertEquals(0, new ExponentialEnvelope(0, 1).getGain(0), 0);
+    assertEquals(1, new ExponentialEnvelope(0, 1).getGain(1), 1e-6);
+    assertTrue(new ExponentialEnvelope(0, 1).getGain(0.5) < 0.05);
+    assertTrue(new ExponentialEnvelope(1, 0).getGain(0.5) < 0.05);
+    assertEquals(0.5, new SCurveEnvelope(0, 1).getGain(0.5), 1e-6);
+    assertTrue(new SCurveEnvelope(0, 1).getGain(0.1) < 0.1);
+
+    BreakpointEnvelope breakpoints = new BreakpointEnvelope(new double[] { 0.25, 0.5, 0.75 }, new float[] { 1, 0, 2 });
+    assertEquals(1, breakpoints.getGain(0), 0);
+    assertEquals(0.5, breakpoints.getGain(0.375), 1e-6);
+    assertEquals(1, breakpoints.getGain(0.625), 1e-6);
+    assertEquals(2, breakpoints.getGain(1), 0);
+
+    // The kernel in use works like the scalar one
+    float[] expected = new float[1003];
+    float[] actual = new float[1003];
+    float[] gains = new float[1003];
+    for(int i = 0; i < expected.length; i++)
+    {
+      expected[i] = actual[i] = (i - 500) / 300f;
+      gains[i] = i / 400f;
+    }
+
+    new ScalarGainKernel().apply(expected, gains, 2, 1000, -1, 1);
+    GainEngine.getInstance().getKernel().apply(actual, gains, 2, 1000, -1, 1);
+    for(int i = 0; i < expected.length; i++)
+      assertEquals(expected[i], actual[i], 0);
+  }
+}
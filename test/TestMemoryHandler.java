@@ -1,7 +1,24 @@
 package test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import apes.models.InternalFormat;
+import apes.models.Config;
 import apes.models.MemoryHandler;
+import apes.models.memory.BufferPool;
+import apes.models.memory.MemoryStatistics;
+import apes.models.memory.Reaper;
 import apes.plugins.WaveFileFormat;
 import junit.framework.Assert;
 import org.junit.Before;
@@ -94,6 +111,425 @@ public class TestMemoryHandler
     }
   }
 
+  @Test public void testCopyOnWrite() throws Exception
+  {
+    byte[] data = new byte[250000];
+    for(int i = 0; i < data.length; i++)
+      data[i] = (byte)(i % 256);
+
+    mH1.malloc(0, data.length);
+    mH1.write(0, data);
+
+    mH2.transfer(mH1, 1000, 200000, 0);
+    assertEquals(200000, mH2.getUsedMemory());
+
+    // Writing to the copy must not change the original
+    mH2.write(0, new byte[150000]);
+    assertArrayEquals(data, mH1.read(0, data.length));
+
+    // And the other way around
+    mH1.write(190000, new byte[20000]);
+    assertEquals(data[191000], mH2.read(190000, 1)[0]);
+
+    mH1.dispose();
+    assertEquals(data[151000], mH2.read(150000, 1)[0]);
+  }
+
+  @Test public void testTransferOutOfBounds() throws Exception
+  {
+    byte[] data = new byte[10000];
+    for(int i = 0; i < data.length; i++)
+      data[i] = (byte)(i % 256);
+
+    mH1.malloc(0, data.length);
+    mH1.write(0, data);
+    mH2.malloc(0, 1000);
+
+    assertFalse(mH2.transfer(mH1, -1, 1000, 0));
+    assertFalse(mH2.transfer(mH1, 9500, 1000, 0));
+    assertFalse(mH2.transfer(mH1, 0, 1000, -1));
+    assertFalse(mH2.transfer(mH1, 0, 1000, 1001));
+    assertEquals(1000, mH2.getUsedMemory());
+
+    // Both handlers are left as they were
+    mH1.write(0, new byte[1000]);
+    assertArrayEquals(new byte[1000], mH1.read(0, 1000));
+    assertEquals(data.length, mH1.getUsedMemory());
+
+    assertTrue(mH2.transfer(mH1, 1000, 1000, 1000));
+    assertEquals(2000, mH2.getUsedMemory());
+    assertEquals(data[1500], mH2.read(1500, 1)[0]);
+  }
+
+  @Test public void testReadInto() throws Exception
+  {
+    byte[] data = new byte[250000];
+    for(int i = 0; i < data.length; i++)
+      data[i] = (byte)(i % 251);
+
+    mH1.malloc(0, data.length);
+    mH1.write(0, data);
+
+    byte[] buf = new byte[data.length + 10];
+    mH1.read(0, buf, 10, data.length);
+    for(int i = 0; i < data.length; i++)
+      assertEquals(data[i], buf[i + 10]);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(120000);
+    mH1.read(100000, buffer);
+    assertEquals(0, buffer.remaining());
+    assertEquals(data[100000], buffer.get(0));
+    assertEquals(data[219999], buffer.get(119999));
+
+    // Slices end at page boundaries but never go past the data
+    long index = 0;
+    while(index < data.length)
+    {
+      MemoryHandler.Slice slice = mH1.slice(index, data.length);
+      ByteBuffer view = slice.getBuffer();
+      assertTrue(view.isReadOnly());
+      assertEquals(data[(int)index], view.get(0));
+
+      index += view.remaining();
+      slice.close();
+    }
+    assertEquals(data.length, index);
+    assertNull(mH1.slice(data.length, 1));
+
+    // An open slice keeps its data through writes and frees
+    MemoryHandler.Slice slice = mH1.slice(1000, 10);
+    mH1.write(1000, new byte[10]);
+    mH1.free(0, data.length);
+    Reaper.getInstance().flush();
+    assertEquals(data[1005], slice.getBuffer().get(5));
+    slice.close();
+  }
+
+  @Test public void testPaging() throws Exception
+  {
+    byte[] data = new byte[250000];
+    for(int i = 0; i < data.length; i++)
+      data[i] = (byte)(i % 253);
+
+    mH1.malloc(0, data.length);
+    mH1.write(0, data);
+    assertFalse(mH1.isPaged());
+
+    // Growing past the limit moves the data to the swap file
+    mH1.malloc(data.length, 5000000);
+    assertTrue(mH1.isPaged());
+    assertArrayEquals(data, mH1.read(0, data.length));
+    assertEquals(0, mH1.read(data.length, 1)[0]);
+  }
+
+  @Test public void testDispose() throws Exception
+  {
+    byte[] data = new byte[250000];
+    for(int i = 0; i < data.length; i++)
+      data[i] = (byte)(i % 241);
+
+    mH1.malloc(0, 5000000);
+    mH1.write(0, data);
+    mH2.transfer(mH1, 0, data.length, 0);
+
+    // Empty at once, the pages are let go of in the background
+    mH1.dispose();
+    assertEquals(0, mH1.getUsedMemory());
+    Reaper.getInstance().flush();
+
+    // Shared pages are still there for the other handler
+    assertArrayEquals(data, mH2.read(0, data.length));
+
+    mH1.malloc(0, data.length);
+    mH1.write(0, data);
+    assertArrayEquals(data, mH1.read(0, data.length));
+  }
+
+  /**
+   * Small pieces are merged in the background, except those of pages that
+   * are shared with another handler or are in a mapped file.
+   */
+  @Test public void testCompaction() throws Exception
+  {
+    byte[] data = new byte[16000];
+    new Random(5).nextBytes(data);
+
+    File file = File.createTempFile("apes", ".raw");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(data, 12000, 2000);
+    out.close();
+
+    mH2.malloc(0, 4000);
+    mH2.write(0, Arrays.copyOfRange(data, 4000, 8000));
+
+    // Two small pieces, a shared one, two small, a mapped one and a small
+    for(int at : new int[] { 0, 2000 })
+    {
+      mH1.malloc(at, 2000);
+      mH1.write(at, Arrays.copyOfRange(data, at, at + 2000));
+    }
+    mH1.transfer(mH2, 0, 4000, 4000);
+    for(int at : new int[] { 8000, 10000 })
+    {
+      mH1.malloc(at, 2000);
+      mH1.write(at, Arrays.copyOfRange(data, at, at + 2000));
+    }
+    mH1.map(12000, file, 0, 2000);
+    mH1.malloc(14000, 2000);
+    mH1.write(14000, Arrays.copyOfRange(data, 14000, 16000));
+
+    assertEquals(7, mH1.getStatistics().getPages());
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while(mH1.getStatistics().getPages() > 5 && System.currentTimeMillis() < deadline)
+      Thread.sleep(100);
+
+    assertEquals(5, mH1.getStatistics().getPages());
+    assertArrayEquals(data, mH1.read(0, data.length));
+    assertArrayEquals(Arrays.copyOfRange(data, 4000, 8000), mH2.read(0, 4000));
+  }
+
+  /**
+   * Pages after a sequential read are read ahead, so that a reader that
+   * consumes the data at a steady pace rarely waits for the swap file. Random
+   * reads are not read ahead.
+   */
+  @Test public void testReadAhead() throws Exception
+  {
+    final int length = 20000000;
+    final int chunk = 65536;
+    byte[] data = new byte[length];
+    new Random(3).nextBytes(data);
+
+    mH1.malloc(0, length);
+    mH1.write(0, data);
+    mH1.getStatistics().reset();
+
+    for(int i = 0; i < length; i += chunk)
+    {
+      int amount = Math.min(chunk, length - i);
+      assertTrue(Arrays.equals(Arrays.copyOfRange(data, i, i + amount), mH1.read(i, amount)));
+      Thread.sleep(1);
+    }
+
+    long misses = mH1.getStatistics().getMisses();
+    assertTrue(misses > 0);
+    assertTrue(mH1.getStatistics().getPrefetches() > misses / 2);
+
+    mH1.getStatistics().reset();
+    Random random = new Random(4);
+    for(int i = 0; i < 100; i++)
+    {
+      int at = random.nextInt(length - chunk);
+      assertTrue(Arrays.equals(Arrays.copyOfRange(data, at, at + chunk), mH1.read(at, chunk)));
+      Thread.sleep(1);
+    }
+
+    assertTrue(mH1.getStatistics().getPrefetches() < mH1.getStatistics().getMisses() / 4);
+  }
+
+  /**
+   * All handlers share one memory budget. When a frame is needed, pages of
+   * handlers with a low priority are evicted before those of handlers with a
+   * higher one.
+   */
+  @Test public void testPriority() throws Exception
+  {
+    int budget = Config.getInstance().getIntOption("memory_budget");
+    byte[] data = new byte[3000000];
+    new Random(6).nextBytes(data);
+
+    mH1.setPriority(MemoryHandler.Priority.HIGH);
+    mH1.malloc(0, data.length);
+    mH1.write(0, data);
+
+    mH2.setPriority(MemoryHandler.Priority.LOW);
+    mH2.malloc(0, budget * 3);
+    mH2.write(0, new byte[budget * 3]);
+    assertTrue(MemoryHandler.getResidentMemory() <= budget);
+
+    // The pages of the handler with the high priority were kept
+    mH1.getStatistics().reset();
+    assertTrue(Arrays.equals(data, mH1.read(0, data.length)));
+    assertEquals(0, mH1.getStatistics().getMisses());
+
+    // Until the priorities change
+    mH1.setPriority(MemoryHandler.Priority.LOW);
+    mH2.setPriority(MemoryHandler.Priority.HIGH);
+    mH2.read(0, budget * 3);
+    assertTrue(MemoryHandler.getResidentMemory() <= budget);
+
+    assertTrue(Arrays.equals(data, mH1.read(0, data.length)));
+    assertTrue(mH1.getStatistics().getMisses() > 0);
+  }
+
+  /**
+   * Data that is in the swap file and in a mapped file is copied to another
+   * handler and back, and written to a file, without changing.
+   */
+  @Test public void testTransferThroughSwapFile() throws Exception
+  {
+    int budget = Config.getInstance().getIntOption("memory_budget");
+    byte[] data = new byte[budget * 2];
+    new Random(8).nextBytes(data);
+
+    File file = File.createTempFile("apes", ".raw");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(data, budget, budget);
+    out.close();
+
+    // The first pages are swapped out by the time the last are written
+    mH1.malloc(0, budget);
+    mH1.write(0, Arrays.copyOf(data, budget));
+    mH1.map(budget, file, 0, budget);
+
+    // Across the swapped out and the mapped data, there and back
+    int start = budget / 3;
+    int amount = budget;
+    mH2.transfer(mH1, start, amount, 0);
+    mH1.free(start, amount);
+    assertTrue(Arrays.equals(Arrays.copyOfRange(data, start, start + amount), mH2.read(0, amount)));
+
+    mH1.transfer(mH2, 0, amount, start);
+    mH2.dispose();
+    assertTrue(Arrays.equals(data, mH1.read(0, data.length)));
+
+    // Pages that are not in memory are written without being swapped in
+    File target = File.createTempFile("apes", ".out");
+    target.deleteOnExit();
+    Random random = new Random(9);
+
+    for(int i = 0; i < 10; i++)
+    {
+      int at = random.nextInt(data.length);
+      int length = 1 + random.nextInt(data.length - at);
+
+      FileChannel channel = new FileOutputStream(target).getChannel();
+      mH1.getStatistics().reset();
+      assertTrue(mH1.transferTo(at, length, channel));
+      channel.close();
+
+      assertEquals(0, mH1.getStatistics().getMisses());
+      assertTrue(Arrays.equals(Arrays.copyOfRange(data, at, at + length), Files.readAllBytes(target.toPath())));
+    }
+  }
+
+  /**
+   * The statistics of a handler, and of all handlers, can be read and reset
+   * through JMX.
+   */
+  @Test public void testStatistics() throws Exception
+  {
+    int budget = Config.getInstance().getIntOption("memory_budget");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(MemoryStatistics.NAME + ",name=" + ObjectName.quote("test"));
+    ObjectName all = new ObjectName(MemoryStatistics.NAME + ",name=" + ObjectName.quote("all"));
+
+    mH1.getStatistics().register("test");
+    assertTrue(server.isRegistered(name));
+    assertTrue(server.isRegistered(all));
+
+    // Larger than the budget, so pages are swapped out and in again
+    mH1.malloc(0, budget * 2);
+    mH1.write(0, new byte[budget * 2]);
+    mH1.read(0, budget * 2);
+
+    assertTrue((Long)server.getAttribute(name, "Misses") > 0);
+    assertTrue((Long)server.getAttribute(name, "Evictions") > 0);
+    assertTrue((Long)server.getAttribute(name, "BytesWritten") > 0);
+    assertEquals(mH1.getStatistics().getPages(), server.getAttribute(name, "Pages"));
+    assertTrue((Long)server.getAttribute(all, "Misses") >= mH1.getStatistics().getMisses());
+
+    double rate = (Double)server.getAttribute(name, "HitRate");
+    assertTrue(rate >= 0 && rate <= 1);
+
+    server.invoke(name, "reset", null, null);
+    assertEquals(0L, server.getAttribute(name, "Misses"));
+    assertEquals(0L, server.getAttribute(name, "Evictions"));
+
+    mH1.getStatistics().unregister();
+    assertFalse(server.isRegistered(name));
+  }
+
+  /**
+   * Two threads read a handler larger than the memory budget while a third
+   * writes to another one, so frames are evicted and loaded by all of them
+   * at once. Every read must see what was written.
+   */
+  @Test public void testConcurrentReadWrite() throws Exception
+  {
+    final int length = 30000000;
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    byte[] chunk = new byte[1000000];
+    mH1.malloc(0, length);
+    for(int at = 0; at < length; at += chunk.length)
+    {
+      for(int i = 0; i < chunk.length; i++)
+        chunk[i] = (byte)((at + i) * 31 + 7);
+
+      mH1.write(at, chunk);
+    }
+    mH2.malloc(0, length / 2);
+
+    Thread[] threads = new Thread[3];
+    for(int t = 0; t < 2; t++)
+    {
+      final Random random = new Random(t);
+      threads[t] = new Thread(() -> {
+        try
+        {
+          byte[] buf = new byte[50000];
+          for(int n = 0; n < 200 && error.get() == null; n++)
+          {
+            int at = random.nextInt(length - buf.length);
+            mH1.read(at, buf, 0, buf.length);
+
+            for(int i = 0; i < buf.length; i++)
+              assertEquals((byte)((at + i) * 31 + 7), buf[i]);
+          }
+        }
+        catch(Throwable e)
+        {
+          error.compareAndSet(null, e);
+        }
+      });
+    }
+
+    threads[2] = new Thread(() -> {
+      try
+      {
+        Random random = new Random(2);
+        byte[] buf = new byte[50000];
+        for(int n = 0; n < 200 && error.get() == null; n++)
+        {
+          int at = random.nextInt(length / 2 - buf.length);
+          Arrays.fill(buf, (byte)n);
+          mH2.write(at, buf);
+
+          assertArrayEquals(buf, mH2.read(at, buf.length));
+        }
+      }
+      catch(Throwable e)
+      {
+        error.compareAndSet(null, e);
+      }
+    });
+
+    for(Thread thread : threads)
+      thread.start();
+    for(Thread thread : threads)
+      thread.join();
+
+    if(error.get() != null)
+      throw new AssertionError(error.get());
+
+    // Buffers are never allocated past the budget
+    assertTrue(BufferPool.getInstance().getAllocated() <= Config.getInstance().getIntOption("memory_budget"));
+  }
+
   @Test public void testCutAndPaste()
   {
     try
@@ -102,7 +538,7 @@ public class TestMemoryHandler
       
       long start =  10000;
       long stop  = 100000;
-      int amount = iF.getSampleAmount();
+      int amount = (int)iF.getSampleAmount();
       byte[] source = null;
       int length = (int)( amount - ( stop - start + 1 ) );
       
@@ -0,0 +1,76 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import apes.models.memory.PageTree;
+
+public class TestPageTree
+{
+  private PageTree<String> tree;
+
+  @Before public void setup()
+  {
+    tree = new PageTree<String>();
+    tree.insert(0, "a", 10);
+    tree.insert(10, "c", 30);
+    tree.insert(10, "b", 20);
+  }
+
+  @Test public void testLength()
+  {
+    assertEquals(60, tree.length());
+    assertEquals(3, tree.size());
+  }
+
+  @Test public void testFind()
+  {
+    assertEquals("a", tree.find(0).getValue());
+    assertEquals("a", tree.find(9).getValue());
+    assertEquals("b", tree.find(10).getValue());
+    assertEquals(10, tree.find(29).getStart());
+    assertEquals("c", tree.find(30).getValue());
+    assertEquals(60, tree.find(59).getEnd());
+    assertNull(tree.find(60));
+    assertNull(tree.find(-1));
+  }
+
+  @Test public void testRemove()
+  {
+    List<String> removed = tree.remove(10, 20);
+    assertEquals(1, removed.size());
+    assertEquals("b", removed.get(0));
+    assertEquals(40, tree.length());
+    assertEquals("c", tree.find(10).getValue());
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void testInsertInsidePage()
+  {
+    tree.insert(5, "d", 10);
+  }
+
+  @Test public void testEntries()
+  {
+    List<PageTree.Entry<String>> entries = tree.entries(5, 10);
+    assertEquals(2, entries.size());
+    assertEquals("a", entries.get(0).getValue());
+    assertEquals("b", entries.get(1).getValue());
+  }
+
+  @Test public void testManyPages()
+  {
+    PageTree<Integer> big = new PageTree<Integer>();
+    for(int i = 0; i < 10000; i++)
+      big.insert(big.length(), i, 100);
+
+    assertEquals(1000000, big.length());
+    assertEquals(Integer.valueOf(1234), big.find(123456).getValue());
+
+    big.remove(0, 500000);
+    assertEquals(Integer.valueOf(5000), big.find(0).getValue());
+  }
+}
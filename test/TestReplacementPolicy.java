@@ -0,0 +1,143 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import apes.interfaces.ReplacementPolicy;
+import apes.models.memory.ClockPolicy;
+import apes.models.memory.SegmentedLruPolicy;
+import apes.models.memory.TwoQueuePolicy;
+
+public class TestReplacementPolicy
+{
+  /**
+   * Fills all frames, then uses frame 0 over and over while scanning through
+   * a lot of new pages. Frame 0 must never be evicted.
+   */
+  private void assertScanResistant(ReplacementPolicy policy, int frames)
+  {
+    for(int i = 0; i < frames; i++)
+    {
+      int frame = policy.victim();
+      policy.loaded(frame, "page" + i);
+    }
+
+    policy.accessed(0);
+
+    for(int i = 0; i < 1000; i++)
+    {
+      int frame = policy.victim();
+      assertTrue(frame != 0);
+      policy.loaded(frame, "scan" + i);
+      policy.accessed(0);
+    }
+  }
+
+  @Test public void testEmptyFramesFirst()
+  {
+    ReplacementPolicy policy = new ClockPolicy(4);
+    for(int i = 0; i < 4; i++)
+    {
+      int frame = policy.victim();
+      assertEquals(i, frame);
+      policy.loaded(frame, "page" + i);
+    }
+
+    policy.freed(2);
+    assertEquals(2, policy.victim());
+  }
+
+  @Test public void testClock()
+  {
+    ReplacementPolicy policy = new ClockPolicy(4);
+    for(int i = 0; i < 4; i++)
+      policy.loaded(policy.victim(), "page" + i);
+
+    // All frames are referenced, so the hand goes around once
+    int frame = policy.victim();
+    assertEquals(0, frame);
+    policy.loaded(frame, "page4");
+
+    // Frame 1 gets a second chance
+    policy.accessed(1);
+    assertEquals(2, policy.victim());
+  }
+
+  @Test public void testSegmentedLru()
+  {
+    assertScanResistant(new SegmentedLruPolicy(8), 8);
+  }
+
+  @Test public void testTwoQueue()
+  {
+    ReplacementPolicy policy = new TwoQueuePolicy(8);
+    for(int i = 0; i < 8; i++)
+      policy.loaded(policy.victim(), "page" + i);
+
+    // Evict page0 and load it again, which makes it hot
+    int frame = policy.victim();
+    policy.loaded(frame, "page0");
+
+    for(int i = 0; i < 1000; i++)
+    {
+      int victim = policy.victim();
+      assertTrue(victim != frame);
+      policy.loaded(victim, "scan" + i);
+      policy.accessed(frame);
+    }
+  }
+
+  /**
+   * Frames passed over by victim and frames given back with reinstate must
+   * stay where they were, so a hot page stays hot.
+   */
+  private void assertSkipKeepsOrder(ReplacementPolicy policy, int frames)
+  {
+    for(int i = 0; i < frames; i++)
+      policy.loaded(policy.victim(), "page" + i);
+
+    // Make frame 0 hot
+    int hot = policy.victim();
+    policy.loaded(hot, "page0");
+    policy.accessed(hot);
+
+    // Pass over the hot frame many times, then give a victim back
+    for(int i = 0; i < 100; i++)
+    {
+      final int skipped = hot;
+      int frame = policy.victim(f -> f != skipped);
+      assertTrue(frame >= 0 && frame != hot);
+      policy.reinstate(frame, "page" + frame);
+    }
+
+    assertEquals(-1, policy.victim(f -> false));
+
+    // The hot frame is still the last one a scan evicts
+    for(int i = 0; i < 100; i++)
+    {
+      int victim = policy.victim();
+      assertTrue(victim != hot);
+      policy.loaded(victim, "scan" + i);
+      policy.accessed(hot);
+    }
+  }
+
+  @Test public void testSkipAndReinstate()
+  {
+    assertSkipKeepsOrder(new TwoQueuePolicy(8), 8);
+    assertSkipKeepsOrder(new SegmentedLruPolicy(8), 8);
+  }
+
+  @Test public void testReinstateEmpty()
+  {
+    ReplacementPolicy[] policies = { new ClockPolicy(4), new TwoQueuePolicy(4), new SegmentedLruPolicy(4) };
+
+    for(ReplacementPolicy policy : policies)
+    {
+      int frame = policy.victim();
+      policy.reinstate(frame, null);
+      assertEquals(frame, policy.victim());
+    }
+  }
+}
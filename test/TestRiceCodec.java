@@ -0,0 +1,112 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import apes.models.memory.CompressedPageStore;
+import apes.models.memory.RiceCodec;
+
+public class TestRiceCodec
+{
+  /**
+   * Encodes and decodes <code>data</code> with both codecs and checks that
+   * nothing changed.
+   */
+  private int assertRoundTrip(byte[] data, int sampleBytes, int channels)
+  {
+    int size = 0;
+
+    for(boolean thorough : new boolean[] { false, true })
+    {
+      byte[] encoded = new RiceCodec(thorough).encode(ByteBuffer.wrap(data), data.length, sampleBytes, channels);
+      ByteBuffer decoded = ByteBuffer.allocate(data.length);
+
+      RiceCodec.decode(ByteBuffer.wrap(encoded), decoded, data.length, sampleBytes, channels);
+      assertArrayEquals(data, decoded.array());
+
+      size = encoded.length;
+    }
+
+    return size;
+  }
+
+  @Test public void testSine()
+  {
+    byte[] data = new byte[40003];
+    for(int i = 0; i < 10000; i++)
+    {
+      short left = (short)(10000 * Math.sin(i * 0.01));
+      short right = (short)(-20000 * Math.sin(i * 0.02));
+
+      data[i * 4] = (byte)left;
+      data[i * 4 + 1] = (byte)(left >> 8);
+      data[i * 4 + 2] = (byte)right;
+      data[i * 4 + 3] = (byte)(right >> 8);
+    }
+
+    assertTrue(assertRoundTrip(data, 2, 2) < data.length / 2);
+  }
+
+  @Test public void testNoise()
+  {
+    byte[] data = new byte[30000];
+    new Random(1).nextBytes(data);
+
+    // Random data can not be compressed, but must not grow much
+    assertTrue(assertRoundTrip(data, 3, 1) <= data.length + 1);
+  }
+
+  @Test public void testExtremes()
+  {
+    byte[] data = new byte[32000];
+    for(int i = 0; i < data.length; i += 4)
+    {
+      int value = i % 8 == 0 ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+
+      for(int b = 0; b < 4; b++)
+        data[i + b] = (byte)(value >> (b * 8));
+    }
+
+    assertRoundTrip(data, 4, 1);
+    assertRoundTrip(data, 1, 1);
+  }
+
+  @Test public void testCompressedPageStore() throws Exception
+  {
+    byte[] data = new byte[40000];
+    for(int i = 0; i < data.length; i += 2)
+      data[i + 1] = (byte)(100 * Math.sin(i * 0.001));
+
+    CompressedPageStore store = new CompressedPageStore(new RiceCodec(false));
+    long slot = store.allocate(data.length, 2, 1);
+    store.write(slot, ByteBuffer.wrap(data), 0, data.length);
+
+    ByteBuffer read = ByteBuffer.allocate(data.length);
+    store.read(slot, read, data.length);
+    assertArrayEquals(data, read.array());
+
+    assertTrue(store.getStoredBytes() < data.length / 2);
+    assertEquals(data.length - store.getStoredBytes(), store.getBytesSaved());
+    assertEquals(1, store.getDecodes());
+
+    store.register();
+    store.register();
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(CompressedPageStore.NAME);
+    assertEquals(store.getStoredBytes(), server.getAttribute(name, "StoredBytes"));
+    assertEquals(1L, server.getAttribute(name, "Decodes"));
+
+    store.free(slot, data.length);
+    assertEquals(0, store.getStoredBytes());
+    server.unregisterMBean(name);
+  }
+}
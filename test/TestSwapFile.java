@@ -0,0 +1,122 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.Test;
+
+import apes.models.memory.SwapFile;
+
+public class TestSwapFile
+{
+  /**
+   * Writes <code>length</code> random bytes to the slot at
+   * <code>offset</code> and returns them.
+   */
+  private byte[] fill(SwapFile swapFile, long offset, int length, long seed)
+  {
+    byte[] data = new byte[length];
+    new Random(seed).nextBytes(data);
+    swapFile.write(offset, ByteBuffer.wrap(data), 0, length);
+
+    return data;
+  }
+
+  private byte[] read(SwapFile swapFile, long offset, int length)
+  {
+    ByteBuffer data = ByteBuffer.allocate(length);
+    swapFile.read(offset, data, 0, length);
+
+    return data.array();
+  }
+
+  @Test public void testSlots() throws Exception
+  {
+    SwapFile swapFile = SwapFile.getInstance();
+    long[] offsets = new long[20];
+    byte[][] data = new byte[offsets.length][];
+
+    for(int i = 0; i < offsets.length; i++)
+    {
+      offsets[i] = swapFile.allocate(1000 + i * 100);
+      data[i] = fill(swapFile, offsets[i], 1000 + i * 100, i);
+    }
+
+    // No slot overwrote another
+    for(int i = 0; i < offsets.length; i++)
+      assertArrayEquals(data[i], read(swapFile, offsets[i], data[i].length));
+
+    for(int i = 0; i < offsets.length; i++)
+      swapFile.free(offsets[i], data[i].length);
+  }
+
+  @Test public void testReuse() throws Exception
+  {
+    SwapFile swapFile = SwapFile.getInstance();
+
+    // Larger than any slot the other tests leave free, so these are taken
+    // one after another, with slots that are kept around those freed below
+    swapFile.allocate(200000);
+    long a = swapFile.allocate(400000);
+    long b = swapFile.allocate(600000);
+    swapFile.allocate(200000);
+    long p = swapFile.allocate(700000);
+    swapFile.allocate(200000);
+    long r = swapFile.allocate(500000);
+    swapFile.allocate(200000);
+
+    // A freed slot is reused for a slot that fits
+    swapFile.free(b, 600000);
+    assertEquals(b, swapFile.allocate(600000));
+
+    // Neighbouring free slots are merged
+    swapFile.free(a, 400000);
+    swapFile.free(b, 600000);
+    assertEquals(a, swapFile.allocate(1000000));
+
+    // The best fit is taken, and the rest of it stays free
+    swapFile.free(p, 700000);
+    swapFile.free(r, 500000);
+    assertEquals(r, swapFile.allocate(500000));
+    assertEquals(p, swapFile.allocate(610000));
+    assertEquals(p + 610000, swapFile.allocate(90000));
+  }
+
+  @Test public void testSegments() throws Exception
+  {
+    SwapFile swapFile = SwapFile.getInstance();
+    long first = swapFile.allocate(SwapFile.SEGMENT_SIZE - 100);
+    long second = swapFile.allocate(1000);
+
+    // A slot never crosses into the next segment
+    assertTrue(first % SwapFile.SEGMENT_SIZE + SwapFile.SEGMENT_SIZE - 100 <= SwapFile.SEGMENT_SIZE);
+    assertTrue(second % SwapFile.SEGMENT_SIZE + 1000 <= SwapFile.SEGMENT_SIZE);
+    assertTrue(swapFile.length() >= first + SwapFile.SEGMENT_SIZE - 100);
+
+    byte[] data = fill(swapFile, first + SwapFile.SEGMENT_SIZE - 1100, 1000, 1);
+    assertArrayEquals(data, read(swapFile, first + SwapFile.SEGMENT_SIZE - 1100, 1000));
+
+    swapFile.free(first, SwapFile.SEGMENT_SIZE - 100);
+    swapFile.free(second, 1000);
+  }
+
+  @Test public void testTransferTo() throws Exception
+  {
+    SwapFile swapFile = SwapFile.getInstance();
+    long offset = swapFile.allocate(100000);
+    byte[] data = fill(swapFile, offset, 100000, 2);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    swapFile.transferTo(offset + 1000, 50000, Channels.newChannel(out));
+
+    byte[] expected = new byte[50000];
+    System.arraycopy(data, 1000, expected, 0, expected.length);
+    assertArrayEquals(expected, out.toByteArray());
+
+    swapFile.free(offset, 100000);
+  }
+}
@@ -0,0 +1,60 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import apes.interfaces.PageStore;
+import apes.models.memory.WriteBehind;
+
+public class TestWriteBehind
+{
+  /**
+   * Returns a store that fails every write to <code>broken</code> and adds
+   * the slots of the other writes to <code>written</code>.
+   */
+  private PageStore store(long broken, Set<Long> written)
+  {
+    return (PageStore)Proxy.newProxyInstance(PageStore.class.getClassLoader(), new Class<?>[] { PageStore.class }, (proxy, method, args) ->
+    {
+      if(method.getName().equals("write"))
+      {
+        if((Long)args[0] == broken)
+          throw new IOException("Disk full");
+
+        written.add((Long)args[0]);
+      }
+
+      return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+    });
+  }
+
+  @Test public void testRetry() throws Exception
+  {
+    WriteBehind writeBehind = WriteBehind.getInstance();
+    Set<Long> written = ConcurrentHashMap.newKeySet();
+    PageStore store = store(-1, written);
+    long start = System.currentTimeMillis();
+
+    writeBehind.write(store, -1, ByteBuffer.allocateDirect(100), 0, 100, 100);
+    writeBehind.write(store, -2, ByteBuffer.allocateDirect(100), 0, 100, 100);
+
+    while(!written.contains(-2L))
+      Thread.sleep(10);
+
+    // The failed write does not hold up the next one
+    assertTrue(System.currentTimeMillis() - start < WriteBehind.RETRY_DELAY / 2);
+
+    // It is still pending, and is not written after being cancelled
+    assertTrue(writeBehind.isPending(-1));
+    writeBehind.cancel(-1);
+    writeBehind.flush();
+    assertFalse(writeBehind.isPending(-1));
+  }
+}